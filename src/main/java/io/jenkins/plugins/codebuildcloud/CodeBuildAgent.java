@@ -6,8 +6,6 @@ import java.util.logging.Logger;
 
 import org.apache.commons.lang.StringUtils;
 
-import com.amazonaws.services.codebuild.model.ResourceNotFoundException;
-
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.model.Descriptor;
 import hudson.model.TaskListener;
@@ -18,12 +16,21 @@ import hudson.slaves.ComputerLauncher;
 public class CodeBuildAgent extends AbstractCloudSlave {
 
   final transient CodeBuildCloud cloud;
+  final transient CodeBuildAgentTemplate template;
+  final transient CodeBuildBackend backend;
   private static final Logger LOGGER = Logger.getLogger(CodeBuildAgent.class.getName());
   private static final long serialVersionUID = 1; // SpotBugs
 
   transient boolean terminated = false;
 
-  public CodeBuildAgent(String name, @NonNull CodeBuildCloud cloud, @NonNull ComputerLauncher launcher)
+  public CodeBuildAgent(String name, @NonNull CodeBuildCloud cloud, @NonNull CodeBuildAgentTemplate template,
+      @NonNull ComputerLauncher launcher)
+      throws Descriptor.FormException, IOException {
+    this(name, cloud, template, null, launcher);
+  }
+
+  public CodeBuildAgent(String name, @NonNull CodeBuildCloud cloud, @NonNull CodeBuildAgentTemplate template,
+      CodeBuildBackend backend, @NonNull ComputerLauncher launcher)
       throws Descriptor.FormException, IOException {
     super(name,
         "/build",
@@ -32,7 +39,7 @@ public class CodeBuildAgent extends AbstractCloudSlave {
     this.setNodeDescription("CodeBuild Agent");
     this.setNumExecutors(1);
     this.setMode(Mode.EXCLUSIVE);
-    this.setLabelString(cloud.getLabel());
+    this.setLabelString(template.getLabel());
 
     // Somewhat arbitrary
     // We only care about this check if the worker is idle. If it is still launching
@@ -40,13 +47,23 @@ public class CodeBuildAgent extends AbstractCloudSlave {
     // this because the only way the RetentionPolicy terminates with the check - is
     // if we missed one of the taskcompleted events.
     // More of an edge condition than anything - which is why we wrote our own
-    this.setRetentionStrategy(new CodeBuildRetentionStrategy());
+    // With a warm pool idle agents are kept around for the pool's idle TTL.
+    this.setRetentionStrategy(new CodeBuildRetentionStrategy(cloud.getAgentIdleMinutes()));
 
     this.setNodeProperties(Collections.emptyList());
     this.cloud = cloud;
+    this.template = template;
+    this.backend = backend;
 
   }
 
+  /**
+   * Client of the backend the agent's build runs in.
+   */
+  CodeBuildClientWrapper getClient() {
+    return backend == null ? cloud.getClient() : backend.getClient();
+  }
+
   @Override
   public AbstractCloudComputer<CodeBuildAgent> createComputer() {
     return new CodeBuildComputer(this);
@@ -58,6 +75,11 @@ public class CodeBuildAgent extends AbstractCloudSlave {
     listener.getLogger().println("Terminating agent: " + getDisplayName());
     LOGGER.finest("Terminating agent: " + getDisplayName());
 
+    // Frees the capacity slot right away, the node itself is removed afterwards
+    if (cloud != null) {
+      cloud.getRegistry().agentTerminating(getNodeName());
+    }
+
     if (getLauncher() instanceof CodeBuildLauncher) {
       CodeBuildComputer comp = (CodeBuildComputer) getComputer();
       if (comp == null) {
@@ -72,19 +94,16 @@ public class CodeBuildAgent extends AbstractCloudSlave {
       }
 
       LOGGER.finest("Terminating agent Step2: " + getDisplayName());
-      try {
-        if (comp.getCompletedWithoutErrors()) {
-          // Let the rest of the build process run within codebuild
-          // Do not call stop - let codebuild nateively end.
-          // See #https://github.com/jenkinsci/codebuild-cloud-plugin/issues/21
-        } else {
-          // Stop hard the build in codebuild. Saves jenkins admin money
-          cloud.getClient().stopBuild(buildId);
-        }
-      } catch (ResourceNotFoundException e) {
-        // this is fine. really.
-      } catch (Exception e) {
-        LOGGER.severe(String.format("Failed to stop build ID: %s.  Exception: %s", buildId, e));
+      final CodeBuildClientWrapper client = getClient();
+      if (comp.getCompletedWithoutErrors()) {
+        // Let the rest of the build process run within codebuild
+        // Do not call stop - let codebuild nateively end.
+        // See #https://github.com/jenkinsci/codebuild-cloud-plugin/issues/21
+        client.getStatusPoller().untrack(buildId);
+      } else {
+        // Stop hard the build in codebuild. Saves jenkins admin money
+        // Runs in the background, removing the node does not wait for CodeBuild
+        client.stopBuildAsync(buildId).whenComplete((v, e) -> client.getStatusPoller().untrack(buildId));
       }
       terminated = true;
     }
@@ -0,0 +1,188 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Live count of the {@link CodeBuildAgent}s belonging to one
+ * {@link CodeBuildCloud}.
+ *
+ * Capacity checks run inside the synchronized
+ * {@link CodeBuildCloud#provision(hudson.model.Label, int)} on every
+ * NodeProvisioner tick. Scanning {@link jenkins.model.Jenkins#getNodes()} there
+ * is linear in the number of nodes on the controller, so instead the agent
+ * lifecycle moves agents between states here and the counts are read in
+ * constant time.
+ *
+ * Every agent also belongs to one or more pools, IE: its
+ * {@link CodeBuildAgentTemplate} and the fleet it runs on, so per pool limits
+ * can be checked the same way.
+ */
+class CodeBuildAgentRegistry {
+
+  private static final Logger LOGGER = Logger.getLogger(CodeBuildAgentRegistry.class.getName());
+
+  enum State {
+    /** Planned by the cloud, not added to Jenkins yet */
+    PLANNED,
+    /** Added to Jenkins, CodeBuild build not connected yet */
+    STARTING,
+    /** Agent connected and waiting for work */
+    IDLE,
+    /** Agent accepted a task */
+    BUSY,
+    /** On its way out - no longer holds capacity */
+    TERMINATING;
+
+    boolean isActive() {
+      return this != TERMINATING;
+    }
+
+    /** Planned, starting or idle - could take the next job */
+    boolean isWaiting() {
+      return this == PLANNED || this == STARTING || this == IDLE;
+    }
+  }
+
+  private static final class Entry {
+    final State state;
+    final String[] pools;
+
+    Entry(State state, String[] pools) {
+      this.state = state;
+      this.pools = pools;
+    }
+  }
+
+  private final ConcurrentHashMap<String, Entry> agents = new ConcurrentHashMap<String, Entry>();
+  private final AtomicInteger[] counts = new AtomicInteger[State.values().length];
+  private final ConcurrentHashMap<String, AtomicInteger> activeByPool = new ConcurrentHashMap<String, AtomicInteger>();
+  private final ConcurrentHashMap<String, AtomicInteger> waitingByPool = new ConcurrentHashMap<String, AtomicInteger>();
+
+  CodeBuildAgentRegistry() {
+    for (State s : State.values()) {
+      counts[s.ordinal()] = new AtomicInteger();
+    }
+  }
+
+  private AtomicInteger poolCount(String pool) {
+    return activeByPool.computeIfAbsent(pool, k -> new AtomicInteger());
+  }
+
+  private AtomicInteger waitingCount(String pool) {
+    return waitingByPool.computeIfAbsent(pool, k -> new AtomicInteger());
+  }
+
+  private void move(@NonNull String name, @NonNull State to) {
+    agents.computeIfPresent(name, (k, current) -> {
+      if (current.state.ordinal() >= to.ordinal()) {
+        // Only ever move forward, ie. a terminating agent never comes back online
+        return current;
+      }
+      counts[current.state.ordinal()].decrementAndGet();
+      counts[to.ordinal()].incrementAndGet();
+      if (!to.isActive()) {
+        for (String pool : current.pools) {
+          poolCount(pool).decrementAndGet();
+        }
+      }
+      if (current.state.isWaiting() && !to.isWaiting()) {
+        for (String pool : current.pools) {
+          waitingCount(pool).decrementAndGet();
+        }
+      }
+      return new Entry(to, current.pools);
+    });
+    LOGGER.finest(String.format("Agent %s moved to %s. Planned: %s Starting: %s Online: %s Terminating: %s", name,
+        to, getPlanned(), getStarting(), getOnline(), getTerminating()));
+  }
+
+  void agentPlanned(@NonNull String name, @NonNull String... pools) {
+    agents.computeIfAbsent(name, k -> {
+      counts[State.PLANNED.ordinal()].incrementAndGet();
+      for (String pool : pools) {
+        poolCount(pool).incrementAndGet();
+        waitingCount(pool).incrementAndGet();
+      }
+      return new Entry(State.PLANNED, pools.clone());
+    });
+  }
+
+  void agentAdded(@NonNull String name, @NonNull String... pools) {
+    agentPlanned(name, pools);
+    move(name, State.STARTING);
+  }
+
+  void agentOnline(@NonNull String name) {
+    move(name, State.IDLE);
+  }
+
+  void agentBusy(@NonNull String name) {
+    move(name, State.BUSY);
+  }
+
+  void agentTerminating(@NonNull String name) {
+    move(name, State.TERMINATING);
+  }
+
+  void agentRemoved(@NonNull String name) {
+    agents.computeIfPresent(name, (k, current) -> {
+      counts[current.state.ordinal()].decrementAndGet();
+      if (current.state.isActive()) {
+        for (String pool : current.pools) {
+          poolCount(pool).decrementAndGet();
+        }
+      }
+      if (current.state.isWaiting()) {
+        for (String pool : current.pools) {
+          waitingCount(pool).decrementAndGet();
+        }
+      }
+      return null;
+    });
+  }
+
+  int getPlanned() {
+    return counts[State.PLANNED.ordinal()].get();
+  }
+
+  int getStarting() {
+    return counts[State.STARTING.ordinal()].get();
+  }
+
+  int getIdle() {
+    return counts[State.IDLE.ordinal()].get();
+  }
+
+  int getBusy() {
+    return counts[State.BUSY.ordinal()].get();
+  }
+
+  int getOnline() {
+    return getIdle() + getBusy();
+  }
+
+  int getTerminating() {
+    return counts[State.TERMINATING.ordinal()].get();
+  }
+
+  /** Agents that hold a capacity slot: planned, starting or online. */
+  int getActive() {
+    return getPlanned() + getStarting() + getOnline();
+  }
+
+  /** Agents of one pool that hold a capacity slot. */
+  int getActive(@NonNull String pool) {
+    AtomicInteger c = activeByPool.get(pool);
+    return c == null ? 0 : c.get();
+  }
+
+  /** Agents of one pool that are planned, starting or idle. */
+  int getWaiting(@NonNull String pool) {
+    AtomicInteger c = waitingByPool.get(pool);
+    return c == null ? 0 : c.get();
+  }
+}
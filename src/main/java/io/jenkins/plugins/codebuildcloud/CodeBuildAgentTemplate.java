@@ -0,0 +1,220 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+
+/**
+ * One kind of agent a {@link CodeBuildCloud} can start: the labels it carries and
+ * the CodeBuild environment it runs in.
+ *
+ * Blank fields fall back to the cloud's own settings, so a template only needs
+ * what differs, IE: a small compute type for lint jobs. The cloud's own label,
+ * compute type, image and buildspec act as the default template.
+ */
+public class CodeBuildAgentTemplate extends AbstractDescribableImpl<CodeBuildAgentTemplate> {
+
+  @NonNull
+  private final String label;
+
+  @NonNull
+  private final String computeType;
+
+  @NonNull
+  private final String dockerImage;
+
+  @NonNull
+  private final String environmentType;
+
+  @NonNull
+  private final Boolean privilegedMode;
+
+  @NonNull
+  private final String buildSpec;
+
+  @NonNull
+  private final Integer maxAgents;
+
+  private transient Set<LabelAtom> labelAtoms;
+
+  @DataBoundConstructor
+  public CodeBuildAgentTemplate(@NonNull String label,
+      String computeType,
+      String dockerImage,
+      String environmentType,
+      Boolean privilegedMode,
+      String buildSpec,
+      Integer maxAgents) {
+    this.label = StringUtils.trimToEmpty(label);
+    this.computeType = StringUtils.trimToEmpty(computeType);
+    this.dockerImage = StringUtils.trimToEmpty(dockerImage);
+    this.environmentType = StringUtils.trimToEmpty(environmentType);
+    this.privilegedMode = privilegedMode == null ? Boolean.TRUE : privilegedMode;
+    this.buildSpec = StringUtils.defaultString(buildSpec);
+    this.maxAgents = maxAgents == null || maxAgents < 0 ? 0 : maxAgents;
+  }
+
+  @NonNull
+  public String getLabel() {
+    return label;
+  }
+
+  @NonNull
+  public String getComputeType() {
+    return computeType;
+  }
+
+  @NonNull
+  public String getDockerImage() {
+    return dockerImage;
+  }
+
+  @NonNull
+  public String getEnvironmentType() {
+    return environmentType;
+  }
+
+  @NonNull
+  public Boolean getPrivilegedMode() {
+    return privilegedMode;
+  }
+
+  @NonNull
+  public String getBuildSpec() {
+    return buildSpec;
+  }
+
+  /**
+   * Most agents of this template at once, 0 for only the cloud's limits.
+   */
+  @NonNull
+  public Integer getMaxAgents() {
+    return maxAgents;
+  }
+
+  /**
+   * Name of the fleet agents of this template run on, null for on-demand
+   * compute.
+   */
+  @CheckForNull
+  String getFleet() {
+    if (computeType.startsWith(CodeBuildFleet.COMPUTE_TYPE_PREFIX)) {
+      return computeType.substring(CodeBuildFleet.COMPUTE_TYPE_PREFIX.length());
+    }
+    return null;
+  }
+
+  /**
+   * Capacity pools of {@link CodeBuildAgentRegistry} an agent of this template
+   * counts against: the template and the fleet it runs on.
+   */
+  @NonNull
+  String[] pools() {
+    if (getFleet() != null) {
+      return new String[] { label, computeType };
+    }
+    return new String[] { label };
+  }
+
+  /**
+   * The labels an agent of this template carries, in any order.
+   */
+  @NonNull
+  Set<LabelAtom> getLabelAtoms() {
+    if (labelAtoms == null) {
+      labelAtoms = Label.parse(label);
+    }
+    return labelAtoms;
+  }
+
+  /**
+   * Does an agent of this template satisfy the label expression?
+   */
+  public boolean matches(@CheckForNull Label expression) {
+    if (expression == null || label.isEmpty()) {
+      return false;
+    }
+    return expression.matches(getLabelAtoms());
+  }
+
+  /**
+   * Copy of this template with blank fields filled in from the cloud. This is
+   * what agents are started with.
+   */
+  @NonNull
+  CodeBuildAgentTemplate resolve(@NonNull CodeBuildCloud cloud) {
+    return new CodeBuildAgentTemplate(label,
+        StringUtils.defaultIfBlank(computeType, cloud.getComputeType()),
+        StringUtils.defaultIfBlank(dockerImage, cloud.getDockerImage()),
+        StringUtils.defaultIfBlank(environmentType, cloud.getEnvironmentType()),
+        privilegedMode,
+        StringUtils.defaultIfBlank(buildSpec, cloud.getBuildSpec()),
+        maxAgents);
+  }
+
+  /**
+   * Copy of this template started on another compute type.
+   */
+  @NonNull
+  CodeBuildAgentTemplate withComputeType(@NonNull String computeType) {
+    return new CodeBuildAgentTemplate(label, computeType, dockerImage, environmentType, privilegedMode, buildSpec,
+        maxAgents);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return String.format("template<%s>", label);
+  }
+
+  @Extension
+  public static class DescriptorImpl extends Descriptor<CodeBuildAgentTemplate> {
+
+    @POST
+    public FormValidation doCheckLabel(@QueryParameter String value) {
+      Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+      if (StringUtils.isBlank(value)) {
+        return FormValidation.error("Must include a label");
+      }
+      return FormValidation.ok();
+    }
+
+    @POST
+    public ListBoxModel doFillComputeTypeItems() {
+      return CodeBuildCloud.DescriptorImpl.computeTypeItems();
+    }
+
+    @POST
+    public ListBoxModel doFillEnvironmentTypeItems() {
+      return CodeBuildCloud.DescriptorImpl.environmentTypeItems();
+    }
+
+    @POST
+    public FormValidation doCheckBuildSpec(@QueryParameter String value) {
+      if (StringUtils.isBlank(value)) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        return FormValidation.ok();
+      }
+      return CodeBuildCloud.DescriptorImpl.checkYaml(value);
+    }
+
+    @Override
+    public String getDisplayName() {
+      return "CodeBuild Agent Template";
+    }
+  }
+}
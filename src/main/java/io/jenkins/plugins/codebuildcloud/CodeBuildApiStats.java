@@ -0,0 +1,198 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.AmazonServiceException;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * CodeBuild API calls of one {@link CodeBuildClientWrapper}, by operation and
+ * by the part of the plugin that made them.
+ *
+ * Throttling is per account and region, which is what a client stands for, so
+ * these show which callers use up the request budget. Counting is lock free:
+ * {@link LongAdder}s and a {@link CodeBuildLatencyHistogram} per operation and
+ * caller.
+ */
+class CodeBuildApiStats {
+
+  /**
+   * Part of the plugin a call is made for.
+   */
+  enum Caller {
+    /** StartBuild and batch launches of new agents. */
+    PROVISIONING,
+    /** Build status polls of agents. */
+    STATUS_POLLING,
+    /** Stopping the builds of terminated agents. */
+    TERMINATION,
+    /** Concurrent build limits of projects. */
+    CAPACITY,
+    /** Configuration forms, IE: listing projects. */
+    CONFIGURATION,
+    /** One-off lookups. */
+    OTHER
+  }
+
+  private static final class Calls {
+    final LongAdder count = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final LongAdder throttles = new LongAdder();
+    final LongAdder totalMs = new LongAdder();
+    final CodeBuildLatencyHistogram latency = new CodeBuildLatencyHistogram();
+  }
+
+  private final String name;
+  private final Map<String, Calls> calls = new ConcurrentHashMap<String, Calls>();
+
+  CodeBuildApiStats(@NonNull String name) {
+    this.name = name;
+  }
+
+  @NonNull
+  String getName() {
+    return name;
+  }
+
+  /**
+   * Count a call that took the given time, and failed when the exception is not
+   * null.
+   */
+  void record(@NonNull String operation, @NonNull Caller caller, long ms, Throwable failure) {
+    Calls c = calls.computeIfAbsent(operation + "/" + caller.name(), k -> new Calls());
+    c.count.increment();
+    c.totalMs.add(ms);
+    c.latency.record(ms);
+    if (failure != null) {
+      c.errors.increment();
+      if (failure instanceof AmazonServiceException && CodeBuildMetrics.isThrottling((AmazonServiceException) failure)) {
+        c.throttles.increment();
+      }
+    }
+  }
+
+  /**
+   * Calls made for one operation and caller, for the cloud's page.
+   */
+  public static final class Summary {
+    private final String client;
+    private final String operation;
+    private final String caller;
+    private final long count;
+    private final long errors;
+    private final long throttles;
+    private final long meanMs;
+    private final long p50;
+    private final long p95;
+    private final long p99;
+
+    Summary(String client, String operation, String caller, Calls c) {
+      this.client = client;
+      this.operation = operation;
+      this.caller = caller;
+      this.count = c.count.sum();
+      this.errors = c.errors.sum();
+      this.throttles = c.throttles.sum();
+      this.meanMs = count == 0 ? 0 : c.totalMs.sum() / count;
+      this.p50 = c.latency.percentile(0.50);
+      this.p95 = c.latency.percentile(0.95);
+      this.p99 = c.latency.percentile(0.99);
+    }
+
+    /** Credentials and region of the client. */
+    public String getClient() {
+      return client;
+    }
+
+    public String getOperation() {
+      return operation;
+    }
+
+    public String getCaller() {
+      return caller;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getErrors() {
+      return errors;
+    }
+
+    public long getThrottles() {
+      return throttles;
+    }
+
+    /** Milliseconds. */
+    public long getMeanMs() {
+      return meanMs;
+    }
+
+    /** Milliseconds. */
+    public long getP50() {
+      return p50;
+    }
+
+    /** Milliseconds. */
+    public long getP95() {
+      return p95;
+    }
+
+    /** Milliseconds. */
+    public long getP99() {
+      return p99;
+    }
+
+    JSONObject toJSON() {
+      JSONObject json = new JSONObject();
+      json.put("client", client);
+      json.put("operation", operation);
+      json.put("caller", caller);
+      json.put("count", count);
+      json.put("errors", errors);
+      json.put("throttles", throttles);
+      json.put("mean", meanMs);
+      json.put("p50", p50);
+      json.put("p95", p95);
+      json.put("p99", p99);
+      return json;
+    }
+  }
+
+  /**
+   * Every operation and caller a call was made for, by operation then caller.
+   */
+  @NonNull
+  List<Summary> getSummaries() {
+    List<Summary> result = new ArrayList<Summary>();
+    for (Map.Entry<String, Calls> e : new TreeMap<String, Calls>(calls).entrySet()) {
+      String[] key = e.getKey().split("/", 2);
+      result.add(new Summary(name, key[0], key[1], e.getValue()));
+    }
+    return result;
+  }
+
+  /**
+   * Summaries of several clients as JSON, IE: for dashboards.
+   */
+  @NonNull
+  static JSONObject toJSON(@NonNull List<Summary> summaries) {
+    JSONArray operations = new JSONArray();
+    for (Summary s : summaries) {
+      operations.add(s.toJSON());
+    }
+    JSONObject json = new JSONObject();
+    json.put("unit", "ms");
+    json.put("calls", operations);
+    return json;
+  }
+}
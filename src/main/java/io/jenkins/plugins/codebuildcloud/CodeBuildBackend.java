@@ -0,0 +1,275 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
+
+import com.amazonaws.AmazonServiceException;
+import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.ItemGroup;
+import hudson.model.Label;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+
+/**
+ * One CodeBuild project, in some region and account, a {@link CodeBuildCloud}
+ * can start agents in.
+ *
+ * The cloud's own credentials, region and project are the primary backend. When
+ * it is full, IE: at its concurrent build limit, or StartBuild is being
+ * throttled, agents overflow to the additional backends. Every backend has its
+ * own client and its own capacity pool in {@link CodeBuildAgentRegistry}.
+ */
+public class CodeBuildBackend extends AbstractDescribableImpl<CodeBuildBackend> {
+
+  private static final long THROTTLE_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+  // Error codes of StartBuild meaning this backend is out of capacity for now
+  private static final List<String> SATURATED_ERROR_CODES = Arrays.asList(
+      "ThrottlingException", "AccountLimitExceededException", "TooManyRequestsException");
+
+  @NonNull
+  private final String credentialId;
+
+  @NonNull
+  private final String region;
+
+  @NonNull
+  private final String codeBuildProjectName;
+
+  @NonNull
+  private final Integer maxAgents;
+
+  @NonNull
+  private final Integer weight;
+
+  private transient CodeBuildClientWrapper client;
+
+  private transient volatile long throttledUntil;
+
+  @DataBoundConstructor
+  public CodeBuildBackend(String credentialId,
+      @NonNull String region,
+      @NonNull String codeBuildProjectName,
+      Integer maxAgents,
+      Integer weight) {
+    this.credentialId = StringUtils.trimToEmpty(credentialId);
+    this.region = StringUtils.trimToEmpty(region);
+    this.codeBuildProjectName = StringUtils.trimToEmpty(codeBuildProjectName);
+    this.maxAgents = maxAgents == null || maxAgents < 0 ? 0 : maxAgents;
+    this.weight = weight == null || weight < 1 ? 1 : weight;
+  }
+
+  @NonNull
+  public String getCredentialId() {
+    return credentialId;
+  }
+
+  @NonNull
+  public String getRegion() {
+    return region;
+  }
+
+  @NonNull
+  public String getCodeBuildProjectName() {
+    return codeBuildProjectName;
+  }
+
+  /**
+   * Most agents in this backend at once, 0 for only the project's concurrent
+   * build limit.
+   */
+  @NonNull
+  public Integer getMaxAgents() {
+    return maxAgents;
+  }
+
+  /**
+   * Share of agents when the cloud spreads them by weight.
+   */
+  @NonNull
+  public Integer getWeight() {
+    return weight;
+  }
+
+  /**
+   * Capacity pool of this backend in {@link CodeBuildAgentRegistry}.
+   */
+  @NonNull
+  String getPool() {
+    return String.format("backend:%s/%s/%s", credentialId, region, codeBuildProjectName);
+  }
+
+  synchronized CodeBuildClientWrapper getClient() {
+    if (client == null) {
+      client = CodeBuildClientWrapperFactory.buildClient(credentialId, region, CodeBuildCloud.getJenkins());
+    }
+    return client;
+  }
+
+  // Package level visibility - the primary backend shares the cloud's client
+  synchronized void setClient(CodeBuildClientWrapper client) {
+    this.client = client;
+  }
+
+  /**
+   * Agents this backend can still take according to CodeBuild and its own cap.
+   */
+  long canProvision(int active) {
+    if (isThrottled() || !getCircuitBreaker().allowsProvisioning()) {
+      return 0;
+    }
+    CompletableFuture<Integer> limit = getClient().getMaxConcurrentJobsAsync(codeBuildProjectName);
+    if (!limit.isDone()) {
+      // First lookup of the project, provisioning must not wait for CodeBuild.
+      // Look again as soon as the limit is known.
+      limit.thenRun(CodeBuildBackend::reviewProvisioning);
+      return 0;
+    }
+    long fromCB = limit.join() - (long) active;
+    if (maxAgents <= 0) {
+      return fromCB;
+    }
+    return Math.min(fromCB, maxAgents - active);
+  }
+
+  private static void reviewProvisioning() {
+    Jenkins jenkins = Jenkins.getInstanceOrNull();
+    if (jenkins == null) {
+      return;
+    }
+    jenkins.unlabeledNodeProvisioner.suggestReviewNow();
+    for (Label l : jenkins.getLabels()) {
+      l.nodeProvisioner.suggestReviewNow();
+    }
+  }
+
+  /**
+   * Breaker of the account and region this backend is in.
+   */
+  @NonNull
+  CodeBuildCircuitBreaker getCircuitBreaker() {
+    return CodeBuildCircuitBreaker.forAccount(credentialId, region);
+  }
+
+  boolean isThrottled() {
+    return System.nanoTime() - throttledUntil < 0;
+  }
+
+  /**
+   * Take this backend out of rotation for a while if StartBuild failed because
+   * it is saturated.
+   *
+   * @return whether the failure was a saturation
+   */
+  boolean onStartBuildFailure(Exception e) {
+    if (e instanceof AmazonServiceException
+        && SATURATED_ERROR_CODES.contains(((AmazonServiceException) e).getErrorCode())) {
+      throttledUntil = System.nanoTime() + THROTTLE_BACKOFF_NANOS;
+      return true;
+    }
+    return false;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return String.format("backend<%s, %s, %s>", credentialId, region, codeBuildProjectName);
+  }
+
+  /**
+   * Usage of one backend for the cloud's page.
+   */
+  public static final class Usage {
+    private final CodeBuildBackend backend;
+    private final int active;
+    private final long free;
+
+    Usage(CodeBuildBackend backend, int active, long free) {
+      this.backend = backend;
+      this.active = active;
+      this.free = free;
+    }
+
+    public String getName() {
+      return String.format("%s / %s", backend.getRegion(), backend.getCodeBuildProjectName());
+    }
+
+    public String getCredentialId() {
+      return backend.getCredentialId();
+    }
+
+    public int getActive() {
+      return active;
+    }
+
+    public long getFree() {
+      return Math.max(0, free);
+    }
+
+    public int getWeight() {
+      return backend.getWeight();
+    }
+
+    public boolean isThrottled() {
+      return backend.isThrottled();
+    }
+  }
+
+  @Extension
+  public static class DescriptorImpl extends Descriptor<CodeBuildBackend> {
+
+    @POST
+    public ListBoxModel doFillCredentialIdItems(@AncestorInPath ItemGroup context) {
+      Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+      return AWSCredentialsHelper.doFillCredentialsIdItems(context);
+    }
+
+    @POST
+    public ListBoxModel doFillRegionItems() {
+      return CodeBuildCloud.DescriptorImpl.regionItems();
+    }
+
+    @POST
+    public FormValidation doCheckRegion(@QueryParameter String value) {
+      Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+      if (StringUtils.isBlank(value)) {
+        return FormValidation.error("Must include a region");
+      }
+      return FormValidation.ok();
+    }
+
+    @POST
+    public ListBoxModel doFillCodeBuildProjectNameItems(@QueryParameter String credentialId,
+        @QueryParameter String region) {
+      return CodeBuildCloud.DescriptorImpl.projectItems(credentialId, region);
+    }
+
+    @POST
+    public FormValidation doCheckCodeBuildProjectName(@QueryParameter String value) {
+      Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+      if (StringUtils.isBlank(value)) {
+        return FormValidation.error("Must include a CodeBuild project");
+      }
+      return FormValidation.ok();
+    }
+
+    @Override
+    public String getDisplayName() {
+      return "CodeBuild Backend";
+    }
+  }
+}
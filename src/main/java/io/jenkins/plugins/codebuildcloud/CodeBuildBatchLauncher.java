@@ -0,0 +1,285 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.amazonaws.services.codebuild.model.Build;
+import com.amazonaws.services.codebuild.model.BuildBatch;
+import com.amazonaws.services.codebuild.model.BuildGroup;
+import com.amazonaws.services.codebuild.model.EnvironmentVariable;
+import com.amazonaws.services.codebuild.model.StartBuildBatchRequest;
+import com.amazonaws.services.codebuild.model.StartBuildRequest;
+import com.amazonaws.services.codebuild.model.StartBuildResult;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import jenkins.util.Timer;
+
+/**
+ * Starts the agents of one provisioning round with one StartBuildBatch call
+ * instead of one StartBuild call each.
+ *
+ * Launches arriving within {@link #WINDOW_MILLIS} of each other that only
+ * differ by their environment variables, IE: same project, image and compute,
+ * are grouped. The template's buildspec gets a <code>build-list</code> with one
+ * entry per agent carrying that agent's variables. Once CodeBuild has created
+ * the member builds their IDs are handed back to the launchers, which carry on
+ * as if they had called StartBuild themselves.
+ *
+ * A launch that cannot be batched, IE: the project's own buildspec is used, or
+ * that ends up alone in its window goes out as a plain StartBuild.
+ */
+class CodeBuildBatchLauncher {
+
+  private static final Logger LOGGER = Logger.getLogger(CodeBuildBatchLauncher.class.getName());
+
+  static final long WINDOW_MILLIS = 500;
+  /** Most builds CodeBuild runs in one batch by default. */
+  static final int MAX_BATCH_SIZE = 100;
+  static final long MEMBER_POLL_SECONDS = 2;
+
+  private static final String ARN_BUILD = ":build/";
+
+  private static final class Member {
+    final StartBuildRequest request;
+    final CompletableFuture<Build> started = new CompletableFuture<Build>();
+
+    Member(StartBuildRequest request) {
+      this.request = request;
+    }
+  }
+
+  private static final class Key {
+    final CodeBuildClientWrapper client;
+    // Same client, same account and region - not part of the key
+    final CodeBuildProvisioningGovernor governor;
+    final StartBuildRequest request;
+
+    Key(CodeBuildClientWrapper client, CodeBuildProvisioningGovernor governor, StartBuildRequest request) {
+      this.client = client;
+      this.governor = governor;
+      // Everything but the agent's own variables has to match
+      this.request = request.clone().withEnvironmentVariablesOverride((List<EnvironmentVariable>) null);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      return client == k.client && request.equals(k.request);
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(client) * 31 + request.hashCode();
+    }
+  }
+
+  private final CodeBuildCloud cloud;
+  private final Map<Key, List<Member>> pending = new HashMap<Key, List<Member>>();
+
+  CodeBuildBatchLauncher(@NonNull CodeBuildCloud cloud) {
+    this.cloud = cloud;
+  }
+
+  /**
+   * Start the build of one agent, possibly in a batch with others.
+   *
+   * @param governor paces StartBuildBatch calls of the client's account
+   * @return completes with the agent's build once CodeBuild created it
+   */
+  @NonNull
+  CompletableFuture<Build> submit(@NonNull CodeBuildClientWrapper client,
+      @NonNull CodeBuildProvisioningGovernor governor, @NonNull StartBuildRequest req) {
+    if (!canBatch(req)) {
+      Member alone = new Member(req);
+      start(new Key(client, governor, req), Collections.singletonList(alone));
+      return alone.started;
+    }
+
+    Key key = new Key(client, governor, req);
+    Member member = new Member(req);
+    List<Member> flushNow = null;
+    synchronized (this) {
+      List<Member> group = pending.get(key);
+      if (group == null) {
+        group = new ArrayList<Member>();
+        pending.put(key, group);
+        Timer.get().schedule(() -> flush(key), WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+      }
+      group.add(member);
+      if (group.size() >= MAX_BATCH_SIZE) {
+        flushNow = pending.remove(key);
+      }
+    }
+    if (flushNow != null) {
+      start(key, flushNow);
+    }
+    return member.started;
+  }
+
+  /**
+   * Only an inline buildspec can be given a build list.
+   */
+  static boolean canBatch(@NonNull StartBuildRequest req) {
+    String buildspec = req.getBuildspecOverride();
+    return StringUtils.contains(buildspec, "phases:") && !StringUtils.contains(buildspec, "batch:");
+  }
+
+  private void flush(@NonNull Key key) {
+    List<Member> members;
+    synchronized (this) {
+      members = pending.remove(key);
+    }
+    if (members != null) {
+      start(key, members);
+    }
+  }
+
+  private void start(@NonNull Key key, @NonNull List<Member> members) {
+    // One call for the whole batch, one permit
+    long waitNanos = key.governor.reserve();
+    if (waitNanos > 0) {
+      // Wait for the permit on the shared timer, not on a parked thread
+      Timer.get().schedule(() -> send(key, members), waitNanos, TimeUnit.NANOSECONDS);
+      return;
+    }
+    send(key, members);
+  }
+
+  private void send(@NonNull Key key, @NonNull List<Member> members) {
+    if (members.size() == 1) {
+      Member m = members.get(0);
+      forward(key.client.startBuildAsync(m.request).thenApply(StartBuildResult::getBuild), m.started);
+      return;
+    }
+
+    Map<String, Member> byIdentifier = new HashMap<String, Member>();
+    for (Member m : members) {
+      byIdentifier.put("agent_" + byIdentifier.size(), m);
+    }
+
+    StartBuildRequest req = key.request;
+    StartBuildBatchRequest batch = new StartBuildBatchRequest()
+        .withProjectName(req.getProjectName())
+        .withSourceTypeOverride(req.getSourceTypeOverride())
+        .withImageOverride(req.getImageOverride())
+        .withPrivilegedModeOverride(req.getPrivilegedModeOverride())
+        .withImagePullCredentialsTypeOverride(req.getImagePullCredentialsTypeOverride())
+        .withEnvironmentTypeOverride(req.getEnvironmentTypeOverride())
+        .withComputeTypeOverride(req.getComputeTypeOverride())
+        .withBuildspecOverride(batchBuildspec(req.getBuildspecOverride(), byIdentifier));
+
+    LOGGER.info(String.format("Starting %d agents in one build batch of project %s", members.size(),
+        req.getProjectName()));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(cloud.getAgentConnectTimeout());
+    key.client.startBuildBatchAsync(batch).whenComplete((res, e) -> {
+      if (e != null) {
+        fail(members, e);
+      } else {
+        resolve(key.client, res.getBuildBatch(), byIdentifier, deadline);
+      }
+    });
+  }
+
+  /**
+   * The template's buildspec with one build list entry per agent.
+   */
+  private static String batchBuildspec(@NonNull String buildspec, @NonNull Map<String, Member> byIdentifier) {
+    StringBuilder sb = new StringBuilder(StringUtils.stripEnd(buildspec, null));
+    sb.append("\nbatch:\n  fast-fail: false\n  build-list:\n");
+    for (Map.Entry<String, Member> e : byIdentifier.entrySet()) {
+      sb.append("    - identifier: ").append(e.getKey()).append('\n');
+      sb.append("      ignore-failure: true\n");
+      sb.append("      env:\n        variables:\n");
+      for (EnvironmentVariable v : e.getValue().request.getEnvironmentVariablesOverride()) {
+        sb.append("          ").append(v.getName()).append(": ").append(quote(v.getValue())).append('\n');
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String quote(@CheckForNull String value) {
+    return "\"" + StringUtils.defaultString(value).replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+
+  /**
+   * Hand each member its build once CodeBuild created it. The batch is looked at
+   * again every {@link #MEMBER_POLL_SECONDS} until then.
+   */
+  private void resolve(@NonNull CodeBuildClientWrapper client, @NonNull BuildBatch batch,
+      @NonNull Map<String, Member> byIdentifier, long deadline) {
+    if (batch.getBuildGroups() != null) {
+      for (BuildGroup g : batch.getBuildGroups()) {
+        Member m = byIdentifier.get(g.getIdentifier());
+        String buildId = g.getCurrentBuildSummary() == null ? null
+            : buildIdOf(g.getCurrentBuildSummary().getArn());
+        if (m != null && buildId != null) {
+          byIdentifier.remove(g.getIdentifier());
+          m.started.complete(new Build().withId(buildId)
+              .withBuildStatus(g.getCurrentBuildSummary().getBuildStatus()));
+        }
+      }
+    }
+    if (byIdentifier.isEmpty()) {
+      return;
+    }
+
+    if (!"IN_PROGRESS".equals(batch.getBuildBatchStatus())) {
+      fail(new ArrayList<Member>(byIdentifier.values()), new IllegalStateException(
+          "Build batch " + batch.getId() + " ended " + batch.getBuildBatchStatus() + " before starting all agents"));
+      return;
+    }
+    if (System.nanoTime() - deadline > 0) {
+      fail(new ArrayList<Member>(byIdentifier.values()), new TimeoutException(
+          "Timed out while waiting for build batch " + batch.getId() + " to start its builds"));
+      return;
+    }
+
+    Timer.get().schedule(() -> client.getBuildBatchAsync(batch.getId()).whenComplete((b, e) -> {
+      if (e != null) {
+        LOGGER.log(Level.WARNING, "Failed to look up build batch " + batch.getId(), e);
+        // Try again next time around
+        resolve(client, batch, byIdentifier, deadline);
+      } else {
+        resolve(client, b, byIdentifier, deadline);
+      }
+    }), MEMBER_POLL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  @CheckForNull
+  static String buildIdOf(@CheckForNull String arn) {
+    if (arn == null || !arn.contains(ARN_BUILD)) {
+      return null;
+    }
+    return arn.substring(arn.indexOf(ARN_BUILD) + ARN_BUILD.length());
+  }
+
+  private static void forward(@NonNull CompletableFuture<Build> from, @NonNull CompletableFuture<Build> to) {
+    from.whenComplete((b, e) -> {
+      if (e != null) {
+        to.completeExceptionally(e);
+      } else {
+        to.complete(b);
+      }
+    });
+  }
+
+  private static void fail(@NonNull List<Member> members, @NonNull Throwable e) {
+    for (Member m : members) {
+      m.started.completeExceptionally(e);
+    }
+  }
+}
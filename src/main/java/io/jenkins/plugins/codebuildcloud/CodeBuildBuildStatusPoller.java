@@ -0,0 +1,153 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazonaws.services.codebuild.model.Build;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.jenkins.plugins.codebuildcloud.CodeBuildClientWrapper.CodeBuildStatus;
+import jenkins.util.Timer;
+
+/**
+ * Status of every build a {@link CodeBuildClientWrapper} is tracking, refreshed
+ * by one BatchGetBuilds call per {@link #MAX_IDS_PER_CALL} builds every
+ * {@link #POLL_INTERVAL_SECONDS}, instead of one call per build.
+ *
+ * Launchers waiting for their agent are handed their build, phases included,
+ * after every poll. Anyone else, IE: an agent stopping its build, reads the last
+ * status seen, which is at most one interval old. Polls do not hold a thread
+ * while the calls are in flight.
+ */
+class CodeBuildBuildStatusPoller {
+
+  private static final Logger LOGGER = Logger.getLogger(CodeBuildBuildStatusPoller.class.getName());
+
+  /** Most IDs BatchGetBuilds takes in one call. */
+  static final int MAX_IDS_PER_CALL = 100;
+  static final long POLL_INTERVAL_SECONDS = 15;
+
+  private static final class Tracked {
+    @CheckForNull
+    final Consumer<Build> listener;
+    volatile CodeBuildStatus status;
+
+    Tracked(Consumer<Build> listener) {
+      this.listener = listener;
+    }
+  }
+
+  private final CodeBuildClientWrapper client;
+  private final Map<String, Tracked> tracked = new ConcurrentHashMap<String, Tracked>();
+  private final AtomicBoolean polling = new AtomicBoolean();
+  private ScheduledFuture<?> task;
+
+  CodeBuildBuildStatusPoller(@NonNull CodeBuildClientWrapper client) {
+    this.client = client;
+  }
+
+  /**
+   * Start polling the build. The listener, if any, is called with the build as
+   * polled, phases included, after every poll. It runs on the client's threads
+   * and must not block.
+   */
+  void track(@NonNull String buildId, @CheckForNull Consumer<Build> listener) {
+    tracked.put(buildId, new Tracked(listener));
+    schedule();
+  }
+
+  void untrack(@NonNull String buildId) {
+    tracked.remove(buildId);
+  }
+
+  int getTracked() {
+    return tracked.size();
+  }
+
+  /**
+   * Last status polled for a tracked build, null when it is not tracked or not
+   * polled yet.
+   */
+  @CheckForNull
+  CodeBuildStatus getStatus(@NonNull String buildId) {
+    Tracked t = tracked.get(buildId);
+    return t == null ? null : t.status;
+  }
+
+  private synchronized void schedule() {
+    if (task != null) {
+      return;
+    }
+    // The poll only sends the calls, their results are handled as they come back
+    task = Timer.get().scheduleWithFixedDelay(this::pollSafely,
+        POLL_INTERVAL_SECONDS, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  private void pollSafely() {
+    // A slow poll is not overlapped by the next one
+    if (!polling.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      poll().whenComplete((v, e) -> {
+        if (e != null) {
+          LOGGER.log(Level.WARNING, "Failed to poll CodeBuild build status", e);
+        }
+        polling.set(false);
+      });
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Failed to poll CodeBuild build status", e);
+      polling.set(false);
+    }
+  }
+
+  /**
+   * Send one BatchGetBuilds call per batch of tracked builds, all at once.
+   *
+   * @return completes once every batch is handled
+   */
+  // Package level visibility for tests
+  CompletableFuture<Void> poll() {
+    List<String> ids = new ArrayList<String>(tracked.keySet());
+    List<CompletableFuture<Void>> batches = new ArrayList<CompletableFuture<Void>>();
+    for (int from = 0; from < ids.size(); from += MAX_IDS_PER_CALL) {
+      List<String> batch = new ArrayList<String>(ids.subList(from, Math.min(ids.size(), from + MAX_IDS_PER_CALL)));
+      batches.add(client.getBuildsAsync(batch, CodeBuildApiStats.Caller.STATUS_POLLING).thenAccept(builds -> {
+        for (Build b : builds.values()) {
+          publish(b);
+        }
+      }));
+    }
+    return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0]));
+  }
+
+  private void publish(Build build) {
+    String buildId = build.getId();
+    Tracked t = tracked.get(buildId);
+    if (t == null) {
+      return;
+    }
+    CodeBuildStatus status = CodeBuildStatus.valueOf(build.getBuildStatus());
+    if (t.status != status) {
+      t.status = status;
+      LOGGER.finest("Build status changed: buildId - " + buildId + " Status: " + status.name());
+    }
+    if (t.listener != null) {
+      try {
+        t.listener.accept(build);
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Build status listener failed for build ID: " + buildId, e);
+      }
+    }
+  }
+}
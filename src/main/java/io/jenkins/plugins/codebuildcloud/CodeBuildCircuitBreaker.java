@@ -0,0 +1,228 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Pauses provisioning in one account and region while CodeBuild keeps rejecting
+ * calls.
+ *
+ * After {@link #REJECTIONS_TO_OPEN} rejections in a row, IE: throttling, the
+ * account's build limit, server errors or CodeBuild being unreachable, the
+ * breaker opens. No backend of that account and region takes agents while it is
+ * open and launchers wait to retry. Once the open period is over one StartBuild
+ * is let through: if CodeBuild accepts it the breaker closes, otherwise it opens
+ * again for twice as long, up to {@link #MAX_OPEN_SECONDS}.
+ *
+ * Breakers are shared by every cloud and backend using the same credentials and
+ * region since that is what CodeBuild throttles on.
+ */
+class CodeBuildCircuitBreaker {
+
+  private static final Logger LOGGER = Logger.getLogger(CodeBuildCircuitBreaker.class.getName());
+
+  static final int REJECTIONS_TO_OPEN = 5;
+  static final long OPEN_SECONDS = 30;
+  static final long MAX_OPEN_SECONDS = 600;
+
+  private static final Map<String, CodeBuildCircuitBreaker> BREAKERS = new ConcurrentHashMap<String, CodeBuildCircuitBreaker>();
+
+  enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final String key;
+  private final LongSupplier nanoClock;
+
+  private State state = State.CLOSED;
+  private int rejections;
+  private long openNanos = TimeUnit.SECONDS.toNanos(OPEN_SECONDS);
+  private long openUntil;
+  private boolean trialInFlight;
+
+  // Package level visibility - clock is swapped out by tests
+  CodeBuildCircuitBreaker(@NonNull String key, @NonNull LongSupplier nanoClock) {
+    this.key = key;
+    this.nanoClock = nanoClock;
+  }
+
+  /**
+   * The breaker of the account behind the credentials, in the region.
+   */
+  @NonNull
+  static CodeBuildCircuitBreaker forAccount(@NonNull String credentialId, @NonNull String region) {
+    return BREAKERS.computeIfAbsent(credentialId + "/" + region,
+        k -> new CodeBuildCircuitBreaker(k, System::nanoTime));
+  }
+
+  /**
+   * Whether retrying the call can help, IE: CodeBuild rejected it for now rather
+   * than for good.
+   */
+  static boolean isTransient(@CheckForNull Throwable e) {
+    if (e instanceof AmazonServiceException) {
+      AmazonServiceException ase = (AmazonServiceException) e;
+      return CodeBuildMetrics.isThrottling(ase)
+          || "AccountLimitExceededException".equals(ase.getErrorCode())
+          || ase.getStatusCode() >= 500;
+    }
+    // Could not reach CodeBuild at all
+    return e instanceof SdkClientException;
+  }
+
+  @NonNull
+  String getKey() {
+    return key;
+  }
+
+  /**
+   * Whether a StartBuild call may go out now. While half open only one call at a
+   * time is let through.
+   */
+  synchronized boolean allowRequest() {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (nanoClock.getAsLong() - openUntil < 0) {
+          return false;
+        }
+        state = State.HALF_OPEN;
+        trialInFlight = true;
+        return true;
+      default:
+        if (trialInFlight) {
+          return false;
+        }
+        trialInFlight = true;
+        return true;
+    }
+  }
+
+  /**
+   * Whether new agents may be planned in this account and region.
+   */
+  synchronized boolean allowsProvisioning() {
+    return state != State.OPEN || nanoClock.getAsLong() - openUntil >= 0;
+  }
+
+  /**
+   * CodeBuild answered the call, whether it started the build or not.
+   */
+  synchronized void onSuccess() {
+    if (state != State.CLOSED) {
+      LOGGER.info(String.format("CodeBuild accepts calls again for %s, resuming provisioning", key));
+    }
+    state = State.CLOSED;
+    rejections = 0;
+    trialInFlight = false;
+    openNanos = TimeUnit.SECONDS.toNanos(OPEN_SECONDS);
+  }
+
+  /**
+   * CodeBuild rejected the call, see {@link #isTransient}.
+   */
+  synchronized void onRejected() {
+    rejections++;
+    if (state == State.HALF_OPEN) {
+      openNanos = Math.min(openNanos * 2, TimeUnit.SECONDS.toNanos(MAX_OPEN_SECONDS));
+      open();
+    } else if (state == State.CLOSED && rejections >= REJECTIONS_TO_OPEN) {
+      open();
+    }
+  }
+
+  private void open() {
+    state = State.OPEN;
+    trialInFlight = false;
+    openUntil = nanoClock.getAsLong() + openNanos;
+    LOGGER.warning(String.format("CodeBuild rejected %d calls in a row for %s, pausing provisioning for %d s",
+        rejections, key, TimeUnit.NANOSECONDS.toSeconds(openNanos)));
+  }
+
+  @NonNull
+  synchronized State getState() {
+    if (state == State.OPEN && nanoClock.getAsLong() - openUntil >= 0) {
+      return State.HALF_OPEN;
+    }
+    return state;
+  }
+
+  /**
+   * Milliseconds until a call may go out again, 0 when one may go out now.
+   */
+  synchronized long getRemainingOpenMillis() {
+    if (state != State.OPEN) {
+      return 0;
+    }
+    return Math.max(0, TimeUnit.NANOSECONDS.toMillis(openUntil - nanoClock.getAsLong()));
+  }
+
+  synchronized int getRejections() {
+    return rejections;
+  }
+
+  /**
+   * State of one breaker for the cloud's page.
+   */
+  public static final class Status {
+    private final String key;
+    private final String state;
+    private final int rejections;
+    private final long remainingSeconds;
+
+    Status(CodeBuildCircuitBreaker breaker) {
+      synchronized (breaker) {
+        this.key = breaker.getKey();
+        this.state = breaker.getState().name();
+        this.rejections = breaker.getRejections();
+        this.remainingSeconds = TimeUnit.MILLISECONDS.toSeconds(breaker.getRemainingOpenMillis());
+      }
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public String getState() {
+      return state;
+    }
+
+    public int getRejections() {
+      return rejections;
+    }
+
+    public long getRemainingSeconds() {
+      return remainingSeconds;
+    }
+  }
+
+  /**
+   * Status of each of the breakers, once per account and region.
+   */
+  @NonNull
+  static List<Status> statusOf(@NonNull List<CodeBuildCircuitBreaker> breakers) {
+    List<Status> result = new ArrayList<Status>();
+    List<CodeBuildCircuitBreaker> seen = new ArrayList<CodeBuildCircuitBreaker>();
+    for (CodeBuildCircuitBreaker b : breakers) {
+      if (!seen.contains(b)) {
+        seen.add(b);
+        result.add(new Status(b));
+      }
+    }
+    return result;
+  }
+}
@@ -2,50 +2,179 @@ package io.jenkins.plugins.codebuildcloud;
 
 import java.io.InvalidObjectException;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.commons.lang.StringUtils;
+
+import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.services.codebuild.AWSCodeBuild;
 import com.amazonaws.services.codebuild.AWSCodeBuildClientBuilder;
+import com.amazonaws.services.codebuild.model.BatchGetBuildBatchesRequest;
 import com.amazonaws.services.codebuild.model.BatchGetBuildsRequest;
-import com.amazonaws.services.codebuild.model.BatchGetBuildsResult;
 import com.amazonaws.services.codebuild.model.BatchGetProjectsRequest;
 import com.amazonaws.services.codebuild.model.BatchGetProjectsResult;
 import com.amazonaws.services.codebuild.model.Build;
+import com.amazonaws.services.codebuild.model.BuildBatch;
 import com.amazonaws.services.codebuild.model.ListProjectsRequest;
 import com.amazonaws.services.codebuild.model.ListProjectsResult;
 import com.amazonaws.services.codebuild.model.Project;
+import com.amazonaws.services.codebuild.model.ResourceNotFoundException;
+import com.amazonaws.services.codebuild.model.StartBuildBatchRequest;
+import com.amazonaws.services.codebuild.model.StartBuildBatchResult;
 import com.amazonaws.services.codebuild.model.StartBuildRequest;
 import com.amazonaws.services.codebuild.model.StartBuildResult;
 import com.amazonaws.services.codebuild.model.StopBuildRequest;
+import com.amazonaws.services.codebuild.model.StopBuildResult;
 import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
 import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
-import com.github.benmanes.caffeine.cache.Cache;
+import com.codahale.metrics.Timer;
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.ProxyConfiguration;
+import hudson.Util;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 
 public class CodeBuildClientWrapper {
-  private AWSCodeBuild _client;
+  // Replaced when the Jenkins proxy changes, see proxyChanged
+  private volatile AWSCodeBuild _client;
+
+  // Proxy the client was built with, see proxyKey
+  private volatile String proxyKey;
+
+  private final String region;
+
+  private final String endpoint;
+
+  @CheckForNull
+  private final JenkinsCredentialsProvider credentialsProvider;
+
+  private final CodeBuildApiStats stats;
 
   public CodeBuildClientWrapper(String credentialsId, String region, Jenkins instance) {
-    this._client = buildClient(credentialsId, region, instance);
+    this(credentialsId, region, "", instance);
+  }
+
+  // Calls to start agents, see PROVISIONING_THREADS
+  private final ExecutorService provisioningExecutor;
+
+  // Polls, stops, project lookups and listings, see BACKGROUND_THREADS
+  private final ExecutorService backgroundExecutor;
+
+  CodeBuildClientWrapper(String credentialsId, String region, String endpoint, Jenkins instance) {
+    this.credentialsProvider = new JenkinsCredentialsProvider(credentialsId, instance);
+    this.region = region;
+    this.endpoint = endpoint;
+    this.proxyKey = proxyKey(instance.proxy);
+    this._client = buildClient(credentialsProvider, region, endpoint, instance.proxy);
+    this.stats = new CodeBuildApiStats(StringUtils.defaultString(credentialsId) + "/" + region
+        + (StringUtils.isBlank(endpoint) ? "" : " " + endpoint));
+    this.provisioningExecutor = newExecutor(PROVISIONING_THREADS, stats.getName() + " provisioning");
+    this.backgroundExecutor = newExecutor(BACKGROUND_THREADS, stats.getName());
+  }
+
+  // Package level visibility - lets tests talk to a stand-in for CodeBuild
+  CodeBuildClientWrapper(AWSCodeBuild client) {
+    this._client = client;
+    this.credentialsProvider = null;
+    this.region = null;
+    this.endpoint = null;
+    this.proxyKey = null;
+    this.stats = new CodeBuildApiStats(client.getClass().getSimpleName());
+    this.provisioningExecutor = newExecutor(PROVISIONING_THREADS, stats.getName() + " provisioning");
+    this.backgroundExecutor = newExecutor(BACKGROUND_THREADS, stats.getName());
   }
 
   private static final Logger LOGGER = Logger.getLogger(CodeBuildClientWrapper.class.getName());
 
-  private static transient Cache<String, Integer> myCache = Caffeine.newBuilder()
-      .expireAfterWrite(1, TimeUnit.HOURS).build();
+  // HTTP connections of each client, see CodeBuildClientWrapperFactory. Sized
+  // for the status poller, StartBuild bursts and project lookups of every cloud
+  // sharing the client. Connections are recycled after their TTL so DNS changes
+  // of the endpoint are picked up, and kept alive in between.
+  private static final String PROPERTY_PREFIX = CodeBuildClientWrapperFactory.class.getName() + ".";
+  static final int MAX_CONNECTIONS = SystemProperties.getInteger(PROPERTY_PREFIX + "maxConnections", 50);
+  static final long CONNECTION_TTL_MILLIS = SystemProperties.getLong(PROPERTY_PREFIX + "connectionTTLMillis",
+      TimeUnit.MINUTES.toMillis(5));
+  static final int CONNECTION_TIMEOUT_MILLIS = SystemProperties.getInteger(PROPERTY_PREFIX + "connectionTimeoutMillis",
+      10000);
+  static final int SOCKET_TIMEOUT_MILLIS = SystemProperties.getInteger(PROPERTY_PREFIX + "socketTimeoutMillis", 30000);
+  static final boolean TCP_KEEP_ALIVE = !SystemProperties.getBoolean(PROPERTY_PREFIX + "noTcpKeepAlive");
+
+  // Threads of each client. AWS SDK v1 holds a thread for the whole HTTP round
+  // trip of a call, so a client has one thread per connection, at most
+  // MAX_CONNECTIONS, made when calls need them and let go after a minute idle.
+  // Calls that start agents get half of them to themselves: polls, stops and
+  // project listings of a slow region or a large account queue behind each
+  // other, not in front of StartBuild.
+  static final int PROVISIONING_THREADS = Math.max(1, MAX_CONNECTIONS / 2);
+  static final int BACKGROUND_THREADS = Math.max(1, MAX_CONNECTIONS - PROVISIONING_THREADS);
+  private static final long THREAD_IDLE_SECONDS = 60;
+
+  // Per client, IE: per account, region and project, since the same project
+  // name can exist in several regions and accounts. Entries do not expire, they
+  // are refreshed in the background and a failed refresh keeps the last known
+  // limit.
+  private final AsyncLoadingCache<String, Integer> myCache = Caffeine.newBuilder()
+      .refreshAfterWrite(5, TimeUnit.MINUTES)
+      .buildAsync(new AsyncCacheLoader<String, Integer>() {
+        @Override
+        public CompletableFuture<Integer> asyncLoad(String jobName, Executor executor) {
+          return loadMaxConcurrentJobsAsync(jobName, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public CompletableFuture<Integer> asyncReload(String jobName, Integer oldValue, Executor executor) {
+          return loadMaxConcurrentJobsAsync(jobName, oldValue);
+        }
+      });
+
+  private final CodeBuildBuildStatusPoller statusPoller = new CodeBuildBuildStatusPoller(this);
+
+  private final CodeBuildTerminationQueue terminationQueue = new CodeBuildTerminationQueue(this);
+
+  private final CodeBuildProjectCatalog projectCatalog = new CodeBuildProjectCatalog(this);
+
+  @NonNull
+  private static ExecutorService newExecutor(int threads, @NonNull String name) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, THREAD_IDLE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new NamingThreadFactory(new DaemonThreadFactory(), "CodeBuild client " + name));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
 
-  private static AWSCodeBuild buildClient(String credentialsId, String region, Jenkins instance) {
+  private static AWSCodeBuild buildClient(@NonNull JenkinsCredentialsProvider credentials, String region,
+      String endpoint, @CheckForNull ProxyConfiguration proxy) {
 
-    ProxyConfiguration proxy = instance.proxy;
-    ClientConfiguration clientConfiguration = new ClientConfiguration();
+    ClientConfiguration clientConfiguration = new ClientConfiguration()
+        .withMaxConnections(MAX_CONNECTIONS)
+        .withConnectionTTL(CONNECTION_TTL_MILLIS)
+        .withConnectionTimeout(CONNECTION_TIMEOUT_MILLIS)
+        .withSocketTimeout(SOCKET_TIMEOUT_MILLIS)
+        .withTcpKeepAlive(TCP_KEEP_ALIVE);
 
     if (proxy != null) {
       clientConfiguration.setProxyHost(proxy.name);
@@ -55,14 +184,14 @@ public class CodeBuildClientWrapper {
     }
 
     AWSCodeBuildClientBuilder builder = AWSCodeBuildClientBuilder.standard()
-        .withClientConfiguration(clientConfiguration).withRegion(region);
-
-    AmazonWebServicesCredentials credentials = AWSCredentialsHelper.getCredentials(credentialsId, instance);
+        .withClientConfiguration(clientConfiguration)
+        .withCredentials(credentials);
 
-    if (credentials != null) {
-      String awsAccessKeyId = credentials.getCredentials().getAWSAccessKeyId();
-      LOGGER.finest("Using credentials:" + awsAccessKeyId);
-      builder.withCredentials(credentials);
+    if (StringUtils.isBlank(endpoint)) {
+      builder.withRegion(region);
+    } else {
+      builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, region));
+      LOGGER.log(Level.FINEST, "Selected Endpoint: " + endpoint);
     }
 
     LOGGER.log(Level.FINEST, "Selected Region: " + region);
@@ -70,8 +199,184 @@ public class CodeBuildClientWrapper {
     return builder.build();
   }
 
+  /**
+   * Host, port, user and a digest of the password of the proxy, empty without
+   * one. Clients built with another key talk through a stale proxy.
+   */
+  @NonNull
+  static String proxyKey(@CheckForNull ProxyConfiguration proxy) {
+    if (proxy == null) {
+      return "";
+    }
+    return proxy.name + ":" + proxy.port + ":" + StringUtils.defaultString(proxy.getUserName()) + ":"
+        + Util.getDigestOf(StringUtils.defaultString(proxy.getPassword()));
+  }
+
+  // Package level visibility for tests
+  @CheckForNull
+  String getProxyKey() {
+    return proxyKey;
+  }
+
+  /**
+   * The Jenkins proxy may have changed, see
+   * {@link CodeBuildClientWrapperFactory#proxyChanged}. Calls from now on go
+   * through a client built with the new proxy, everything else of the wrapper is
+   * kept. The old client is shut down once calls in flight are done with it.
+   */
+  synchronized void proxyChanged(@CheckForNull ProxyConfiguration proxy) {
+    String key = proxyKey(proxy);
+    if (credentialsProvider == null || key.equals(proxyKey)) {
+      return;
+    }
+    AWSCodeBuild old = _client;
+    _client = buildClient(credentialsProvider, region, endpoint, proxy);
+    proxyKey = key;
+    LOGGER.log(Level.FINE, "Proxy changed, rebuilt the CodeBuild client of {0}", stats.getName());
+    jenkins.util.Timer.get().schedule(old::shutdown, CONNECTION_TIMEOUT_MILLIS + SOCKET_TIMEOUT_MILLIS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Credentials were saved, see
+   * {@link CodeBuildClientWrapperFactory#credentialsChanged}.
+   */
+  void refreshCredentials() {
+    if (credentialsProvider != null) {
+      credentialsProvider.refresh();
+    }
+  }
+
+  /**
+   * The Jenkins credentials of a client, looked up on first use rather than when
+   * the client is built so a shared client follows rotated keys. Falls back to
+   * the default provider chain, IE: the controller's instance profile, when
+   * there are no such credentials.
+   */
+  private static final class JenkinsCredentialsProvider implements AWSCredentialsProvider {
+    private final String credentialsId;
+    private final Jenkins instance;
+    private volatile AWSCredentialsProvider delegate;
+
+    JenkinsCredentialsProvider(String credentialsId, Jenkins instance) {
+      this.credentialsId = credentialsId;
+      this.instance = instance;
+    }
+
+    private AWSCredentialsProvider delegate() {
+      AWSCredentialsProvider d = delegate;
+      if (d == null) {
+        AmazonWebServicesCredentials credentials = AWSCredentialsHelper.getCredentials(credentialsId, instance);
+        if (credentials != null) {
+          LOGGER.finest("Using credentials:" + credentials.getCredentials().getAWSAccessKeyId());
+          d = credentials;
+        } else {
+          d = DefaultAWSCredentialsProviderChain.getInstance();
+        }
+        delegate = d;
+      }
+      return d;
+    }
+
+    @Override
+    public AWSCredentials getCredentials() {
+      return delegate().getCredentials();
+    }
+
+    @Override
+    public void refresh() {
+      AWSCredentialsProvider d = delegate;
+      delegate = null;
+      if (d != null) {
+        d.refresh();
+      }
+    }
+  }
+
+  /**
+   * Run a call without blocking the caller, on the client's provisioning threads
+   * for {@link CodeBuildApiStats.Caller#PROVISIONING} and on its background
+   * threads otherwise. This is what the SDK's async client does with a single
+   * executor. The call is counted for the caller in {@link #getStats()}.
+   */
+  private <Q extends AmazonWebServiceRequest, R> CompletableFuture<R> call(@NonNull Timer metric,
+      @NonNull CodeBuildApiStats.Caller caller,
+      @NonNull Q request,
+      @NonNull Function<Q, R> sync) {
+    final CompletableFuture<R> result = new CompletableFuture<R>();
+    final Timer.Context timer = metric.time();
+    final long start = System.nanoTime();
+    result.whenComplete((r, e) -> {
+      timer.stop();
+      stats.record(StringUtils.removeEnd(request.getClass().getSimpleName(), "Request"), caller,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), e);
+      if (e != null) {
+        CodeBuildMetrics.apiError(e instanceof Exception ? (Exception) e : new RuntimeException(e));
+      }
+    });
+
+    ExecutorService executor = caller == CodeBuildApiStats.Caller.PROVISIONING ? provisioningExecutor
+        : backgroundExecutor;
+    executor.execute(() -> {
+      try {
+        result.complete(sync.apply(request));
+      } catch (RuntimeException e) {
+        result.completeExceptionally(e);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Wait for a call of the async API, rethrowing what it failed with.
+   */
+  private static <R> R join(@NonNull CompletableFuture<R> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
   public ListProjectsResult listProjects(ListProjectsRequest request) {
-    return _client.listProjects(request);
+    return join(listProjectsAsync(request));
+  }
+
+  @NonNull
+  CompletableFuture<ListProjectsResult> listProjectsAsync(@NonNull ListProjectsRequest request) {
+    return call(CodeBuildMetrics.LIST_PROJECTS, CodeBuildApiStats.Caller.CONFIGURATION, request,
+        r -> _client.listProjects(r));
+  }
+
+  /**
+   * The projects, in one BatchGetProjects call of at most 100 names. Projects
+   * CodeBuild does not know are left out.
+   */
+  @NonNull
+  CompletableFuture<List<Project>> getProjectsAsync(@NonNull List<String> names) {
+    BatchGetProjectsRequest req = new BatchGetProjectsRequest().withNames(names);
+    return call(CodeBuildMetrics.BATCH_GET_PROJECTS, CodeBuildApiStats.Caller.CONFIGURATION, req,
+        r -> _client.batchGetProjects(r))
+        .thenApply(BatchGetProjectsResult::getProjects);
+  }
+
+  /**
+   * Projects of the account and region, for the configuration forms.
+   */
+  @NonNull
+  CodeBuildProjectCatalog getProjectCatalog() {
+    return projectCatalog;
+  }
+
+  /**
+   * Calls made through this client, see {@link CodeBuildApiStats}.
+   */
+  @NonNull
+  CodeBuildApiStats getStats() {
+    return stats;
   }
 
   public enum CodeBuildStatus {
@@ -83,21 +388,73 @@ public class CodeBuildClientWrapper {
     TIMED_OUT
   }
 
-  public CodeBuildStatus getBuildStatus(@NonNull String buildId) {
+  /**
+   * The builds, with their phases, in one BatchGetBuilds call. Builds CodeBuild
+   * does not know are left out.
+   */
+  @NonNull
+  CompletableFuture<Map<String, Build>> getBuildsAsync(@NonNull List<String> buildIds,
+      @NonNull CodeBuildApiStats.Caller caller) {
+    BatchGetBuildsRequest req = new BatchGetBuildsRequest().withIds(buildIds);
+    return call(CodeBuildMetrics.BATCH_GET_BUILDS, caller, req, r -> _client.batchGetBuilds(r))
+        .thenApply(res -> {
+          Map<String, Build> result = new HashMap<String, Build>();
+          for (Build b : res.getBuilds()) {
+            result.put(b.getId(), b);
+          }
+          return result;
+        });
+  }
 
-    BatchGetBuildsRequest req = new BatchGetBuildsRequest();
-    req.setIds(Arrays.asList(buildId));
+  /**
+   * Status of the builds, in one BatchGetBuilds call. Builds CodeBuild does not
+   * know are left out.
+   */
+  @NonNull
+  CompletableFuture<Map<String, CodeBuildStatus>> getBuildStatusesAsync(@NonNull List<String> buildIds,
+      @NonNull CodeBuildApiStats.Caller caller) {
+    return getBuildsAsync(buildIds, caller).thenApply(builds -> {
+      Map<String, CodeBuildStatus> result = new HashMap<String, CodeBuildStatus>();
+      for (Build b : builds.values()) {
+        result.put(b.getId(), CodeBuildStatus.valueOf(b.getBuildStatus()));
+      }
+      return result;
+    });
+  }
 
-    BatchGetBuildsResult res = _client.batchGetBuilds(req);
-    assert res.getBuilds().size() == 1;
+  /**
+   * Builds tracked by the poller are a memory read, at most one poll interval
+   * old. Others are looked up.
+   */
+  @NonNull
+  CompletableFuture<CodeBuildStatus> getBuildStatusAsync(@NonNull String buildId) {
+    CodeBuildStatus polled = statusPoller.getStatus(buildId);
+    if (polled != null) {
+      return CompletableFuture.completedFuture(polled);
+    }
 
-    Build b = res.getBuilds().get(0);
-    String bstatus = b.getBuildStatus();
+    return getBuildStatusesAsync(Arrays.asList(buildId), CodeBuildApiStats.Caller.OTHER).thenApply(statuses -> {
+      CodeBuildStatus status = statuses.get(buildId);
+      if (status == null) {
+        throw new ResourceNotFoundException("Build not found: " + buildId);
+      }
+      return status;
+    });
+  }
 
-    return CodeBuildStatus.valueOf(bstatus);
+  public CodeBuildStatus getBuildStatus(@NonNull String buildId) {
+    return join(getBuildStatusAsync(buildId));
+  }
+
+  /**
+   * Polls the status of the builds agents run in, see
+   * {@link CodeBuildBuildStatusPoller}.
+   */
+  CodeBuildBuildStatusPoller getStatusPoller() {
+    return statusPoller;
   }
 
-  public void checkBuildStatus(@NonNull String buildId, List<CodeBuildStatus> invalidStatuses)
+  public CodeBuildStatus checkBuildStatus(@NonNull String buildId, List<CodeBuildStatus> invalidStatuses)
       throws InvalidObjectException {
 
     // Run request to ask Codebuild status of the build. This allows us to fail fast
@@ -108,54 +465,119 @@ public class CodeBuildClientWrapper {
     if (invalidStatuses.contains(status)) {
       throw new InvalidObjectException("Invalid CodeBuild status detected");
     }
+    return status;
+  }
+
+  @NonNull
+  CompletableFuture<StartBuildResult> startBuildAsync(@NonNull StartBuildRequest req) {
+    return call(CodeBuildMetrics.START_BUILD, CodeBuildApiStats.Caller.PROVISIONING, req,
+        r -> _client.startBuild(r));
   }
 
   public StartBuildResult startBuild(StartBuildRequest req) {
-    return _client.startBuild(req);
+    return join(startBuildAsync(req));
   }
 
-  public void stopBuild(@NonNull String buildId) {
+  @NonNull
+  CompletableFuture<StartBuildBatchResult> startBuildBatchAsync(@NonNull StartBuildBatchRequest req) {
+    return call(CodeBuildMetrics.START_BUILD_BATCH, CodeBuildApiStats.Caller.PROVISIONING, req,
+        r -> _client.startBuildBatch(r));
+  }
 
-    LOGGER.finest(String.format("Stop Build Requested for build ID: %s", buildId));
+  /**
+   * The build batch, with the builds it created so far.
+   */
+  @NonNull
+  CompletableFuture<BuildBatch> getBuildBatchAsync(@NonNull String batchId) {
+    BatchGetBuildBatchesRequest req = new BatchGetBuildBatchesRequest().withIds(batchId);
+    return call(CodeBuildMetrics.BATCH_GET_BUILD_BATCHES, CodeBuildApiStats.Caller.PROVISIONING, req,
+        r -> _client.batchGetBuildBatches(r))
+        .thenApply(res -> {
+          if (res.getBuildBatches().isEmpty()) {
+            throw new ResourceNotFoundException("Build batch not found: " + batchId);
+          }
+          return res.getBuildBatches().get(0);
+        });
+  }
 
-    CodeBuildStatus status = getBuildStatus(buildId);
+  /**
+   * Stop the build if it is still running, batched with the other builds being
+   * stopped, see {@link CodeBuildTerminationQueue}. Never fails, problems are
+   * logged.
+   */
+  @NonNull
+  CompletableFuture<Void> stopBuildAsync(@NonNull String buildId) {
 
-    // No other use cases make sense to stop the build right?
-    if (status == CodeBuildStatus.IN_PROGRESS) {
-      try {
-        LOGGER.finest(String.format("Stopping build ID: %s", buildId));
-        _client.stopBuild(new StopBuildRequest().withId(buildId));
-      } catch (Exception e) {
-        LOGGER.severe(String.format("Exception while attempting to stop build: %s.  Exception %s", e.getMessage(), e));
-      }
-    } else {
+    LOGGER.finest(String.format("Stop Build Requested for build ID: %s", buildId));
 
-      LOGGER.finest(String.format("Build ID: %s already stopped", buildId));
-    }
+    return terminationQueue.stop(buildId);
+  }
+
+  /**
+   * StopBuild call, whatever the status of the build.
+   */
+  @NonNull
+  CompletableFuture<StopBuildResult> stopBuildNowAsync(@NonNull String buildId) {
+    StopBuildRequest req = new StopBuildRequest().withId(buildId);
+    return call(CodeBuildMetrics.STOP_BUILD, CodeBuildApiStats.Caller.TERMINATION, req,
+        r -> _client.stopBuild(r));
   }
 
-  private Integer _getMaxConcurrentJobs(@NonNull String jobName) {
+  CodeBuildTerminationQueue getTerminationQueue() {
+    return terminationQueue;
+  }
 
-    Integer result = Integer.MAX_VALUE;
+  public void stopBuild(@NonNull String buildId) {
+    stopBuildAsync(buildId).join();
+  }
 
-    try {
-      BatchGetProjectsResult res = this._client.batchGetProjects(new BatchGetProjectsRequest().withNames(jobName));
-      assert res.getProjects().size() == 1;
-      Project myproj = res.getProjects().get(0);
+  /**
+   * Look up the project's concurrent build limit, falling back to the given
+   * value, IE: the last known limit, when CodeBuild cannot be asked.
+   */
+  @NonNull
+  private CompletableFuture<Integer> loadMaxConcurrentJobsAsync(@NonNull String jobName, @NonNull Integer fallback) {
+    BatchGetProjectsRequest req = new BatchGetProjectsRequest().withNames(jobName);
+    return call(CodeBuildMetrics.BATCH_GET_PROJECTS, CodeBuildApiStats.Caller.CAPACITY, req,
+        r -> _client.batchGetProjects(r))
+        .handle((res, e) -> {
+          Integer result = Integer.MAX_VALUE;
+          if (e != null) {
+            LOGGER.log(Level.SEVERE, "Unable to determine codebuild project size, keeping " + fallback, e);
+            result = fallback;
+          } else if (!res.getProjects().isEmpty() && res.getProjects().get(0).getConcurrentBuildLimit() != null) {
+            result = res.getProjects().get(0).getConcurrentBuildLimit();
+          }
+          LOGGER.finest("Total possible concurrent jobs  is being set to " + result);
+          return result;
+        });
+  }
 
-      if (myproj.getConcurrentBuildLimit() != null) {
-        result = myproj.getConcurrentBuildLimit();
-      }
-    } catch (Exception e) {
-      LOGGER.log(Level.SEVERE, "Unable to determine codebuild project size", e);
-    }
+  /**
+   * Concurrent build limit of the project if it was looked up before, without
+   * calling CodeBuild.
+   */
+  @CheckForNull
+  Integer getCachedMaxConcurrentJobs(@NonNull String jobName) {
+    CompletableFuture<Integer> cached = myCache.getIfPresent(jobName);
+    return cached != null && cached.isDone() ? cached.getNow(null) : null;
+  }
 
-    LOGGER.finest("Total possible concurrent jobs  is being set to " + result);
-    return result;
+  /**
+   * Concurrent build limit of the project. Completes right away once the project
+   * was looked up, later lookups get the cached value while it is refreshed in
+   * the background.
+   */
+  @NonNull
+  CompletableFuture<Integer> getMaxConcurrentJobsAsync(@NonNull String jobName) {
+    return myCache.get(jobName);
   }
 
+  /**
+   * Concurrent build limit of the project, waiting for the first lookup of the
+   * project.
+   */
   public Integer getMaxConcurrentJobs(@NonNull String jobName) {
-    return myCache.get(jobName, j -> _getMaxConcurrentJobs(j));
-
+    return myCache.get(jobName).join();
   }
-}
\ No newline at end of file
+}
@@ -1,10 +1,86 @@
 package io.jenkins.plugins.codebuildcloud;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.amazonaws.services.codebuild.AWSCodeBuild;
+
+import hudson.ProxyConfiguration;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 
+/**
+ * Hands out one {@link CodeBuildClientWrapper} per credentials, region and
+ * endpoint, shared by every cloud, backend and form using them. The clients
+ * keep their HTTP connections, build status poller and project cache warm
+ * between callers instead of starting from scratch each time.
+ *
+ * Connection settings are tuned with system properties, IE:
+ * <code>io.jenkins.plugins.codebuildcloud.CodeBuildClientWrapperFactory.maxConnections</code>,
+ * which also bounds the threads of each client, see
+ * {@link CodeBuildClientWrapper}. Set
+ * <code>io.jenkins.plugins.codebuildcloud.CodeBuildClientWrapperFactory.endpoint</code>
+ * to talk to CodeBuild through another endpoint, IE: a FIPS or VPC endpoint,
+ * with <code>{region}</code> standing for the region.
+ */
 public class CodeBuildClientWrapperFactory {
 
+  private static final Map<String, CodeBuildClientWrapper> CLIENTS = new ConcurrentHashMap<String, CodeBuildClientWrapper>();
+
+  private static volatile AWSCodeBuild clientOverride;
+
+  // Package level visibility - tests point every client at a stand-in for
+  // CodeBuild, null to talk to AWS again
+  static void setClientOverride(AWSCodeBuild client) {
+    clientOverride = client;
+  }
+
   public static CodeBuildClientWrapper buildClient(String credentialsId, String region, Jenkins instance) {
-    return new CodeBuildClientWrapper(credentialsId, region, instance);
+    AWSCodeBuild override = clientOverride;
+    if (override != null) {
+      return new CodeBuildClientWrapper(override);
+    }
+    final String endpoint = endpointFor(region);
+    CodeBuildClientWrapper client = CLIENTS.computeIfAbsent(
+        StringUtils.defaultString(credentialsId) + "/" + region + "/" + endpoint,
+        k -> new CodeBuildClientWrapper(credentialsId, region, endpoint, instance));
+    // In case the proxy was changed without being saved
+    client.proxyChanged(instance.proxy);
+    return client;
+  }
+
+  /**
+   * Endpoint override for the region, empty for the region's default endpoint.
+   */
+  static String endpointFor(String region) {
+    String endpoint = SystemProperties.getString(CodeBuildClientWrapperFactory.class.getName() + ".endpoint");
+    return StringUtils.isBlank(endpoint) ? "" : endpoint.trim().replace("{region}", StringUtils.defaultString(region));
+  }
+
+  /**
+   * Credentials were saved: clients look theirs up again on their next call
+   * rather than signing with rotated keys. Connections are kept.
+   */
+  static void credentialsChanged() {
+    for (CodeBuildClientWrapper c : CLIENTS.values()) {
+      c.refreshCredentials();
+    }
+  }
+
+  /**
+   * The Jenkins proxy was saved: clients go through the new proxy from their
+   * next call on. Their poller, caches and threads are kept.
+   */
+  static void proxyChanged(ProxyConfiguration proxy) {
+    for (CodeBuildClientWrapper c : CLIENTS.values()) {
+      c.proxyChanged(proxy);
+    }
+  }
+
+  // Package level visibility for tests
+  static int getClientCount() {
+    return CLIENTS.size();
   }
 }
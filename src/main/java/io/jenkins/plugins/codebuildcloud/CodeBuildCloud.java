@@ -1,13 +1,23 @@
 package io.jenkins.plugins.codebuildcloud;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -16,11 +26,14 @@ import javax.servlet.ServletException;
 
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
 import org.jenkinsci.main.modules.instance_identity.InstanceIdentity;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.GET;
 import org.kohsuke.stapler.verb.POST;
 import org.yaml.snakeyaml.LoaderOptions;
 import org.yaml.snakeyaml.Yaml;
@@ -33,13 +46,12 @@ import com.amazonaws.regions.RegionUtils;
 import com.amazonaws.services.codebuild.AWSCodeBuild;
 import com.amazonaws.services.codebuild.model.EnvironmentType;
 import com.amazonaws.services.codebuild.model.ImagePullCredentialsType;
-import com.amazonaws.services.codebuild.model.ListProjectsRequest;
-import com.amazonaws.services.codebuild.model.ListProjectsResult;
 import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.StandardUsernameListBoxModel;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.model.Computer;
@@ -48,11 +60,13 @@ import hudson.model.ItemGroup;
 import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.labels.LabelAtom;
+import hudson.scheduler.CronTabList;
 import hudson.security.ACL;
 import hudson.slaves.Cloud;
 import hudson.slaves.NodeProvisioner;
 import hudson.slaves.NodeProvisioner.PlannedNode;
 import hudson.util.FormValidation;
+import hudson.util.HttpResponses;
 import hudson.util.ListBoxModel;
 import hudson.util.Secret;
 import io.jenkins.cli.shaded.org.apache.commons.lang.NotImplementedException;
@@ -70,10 +84,25 @@ public class CodeBuildCloud extends Cloud {
 
   private static final Logger LOGGER = Logger.getLogger(CodeBuildCloud.class.getName());
 
-  private static final Integer DEFAULT_AGENT_CONNECT_TIMEOUT = 180;
+  static final Integer DEFAULT_AGENT_CONNECT_TIMEOUT = 180;
   private static final Integer DEFAULT_MAX_AGENTS = 50;
   private static final String DEFAULT_PROTOCOLS = "JNLP4-connect";
   private static final Boolean DEFAULT_NORECONNECT = true;
+  private static final Integer DEFAULT_START_BUILD_RATE = 10;
+  private static final Integer DEFAULT_START_BUILD_BURST = 20;
+  private static final Integer DEFAULT_WARM_POOL_IDLE_MINUTES = 10;
+  private static final Integer DEFAULT_FORECAST_LOOKAHEAD_MINUTES = 5;
+  private static final Integer DEFAULT_RIGHT_SIZING_TOLERANCE = 10;
+  // Each shorter than the default connection timeout, or it would never apply
+  static final String DEFAULT_PHASE_TIMEOUTS = "QUEUED=120, PROVISIONING=150, DOWNLOAD_SOURCE=60, INSTALL=120, "
+      + "PRE_BUILD=120, BUILD=90";
+
+  static final String RIGHT_SIZING_OFF = "OFF";
+  static final String RIGHT_SIZING_RECOMMEND = "RECOMMEND";
+  static final String RIGHT_SIZING_AUTO = "AUTO";
+
+  static final String BACKEND_STRATEGY_ORDERED = "ORDERED";
+  static final String BACKEND_STRATEGY_WEIGHTED = "WEIGHTED";
 
   // Any nodes you find on bootup, get rid of
   static {
@@ -148,6 +177,51 @@ public class CodeBuildCloud extends Cloud {
   @Nonnull
   private Integer maxAgents;
 
+  @NonNull
+  private Integer startBuildRate;
+
+  @NonNull
+  private Integer startBuildBurst;
+
+  @NonNull
+  private Boolean batchLaunch;
+
+  @NonNull
+  private String phaseTimeouts;
+
+  @NonNull
+  private Integer minIdleAgents;
+
+  @NonNull
+  private Integer warmPoolIdleMinutes;
+
+  @NonNull
+  private String warmPoolSchedule;
+
+  @NonNull
+  private Integer forecastMaxAgents;
+
+  @NonNull
+  private Integer forecastLookaheadMinutes;
+
+  @NonNull
+  private List<CodeBuildAgentTemplate> templates;
+
+  @NonNull
+  private List<CodeBuildFleet> fleets;
+
+  @NonNull
+  private List<CodeBuildBackend> backends;
+
+  @NonNull
+  private String backendStrategy;
+
+  @NonNull
+  private String rightSizingMode;
+
+  @NonNull
+  private Integer rightSizingTolerance;
+
   @DataBoundConstructor
   public CodeBuildCloud(@NonNull String name,
       @NonNull String codeBuildProjectName,
@@ -211,6 +285,27 @@ public class CodeBuildCloud extends Cloud {
       this.maxAgents = DEFAULT_MAX_AGENTS;
     }
 
+    this.startBuildRate = DEFAULT_START_BUILD_RATE;
+    this.startBuildBurst = DEFAULT_START_BUILD_BURST;
+    this.batchLaunch = false;
+    this.phaseTimeouts = DEFAULT_PHASE_TIMEOUTS;
+    this.minIdleAgents = 0;
+    this.warmPoolIdleMinutes = DEFAULT_WARM_POOL_IDLE_MINUTES;
+    this.warmPoolSchedule = "";
+    this.forecastMaxAgents = 0;
+    this.forecastLookaheadMinutes = DEFAULT_FORECAST_LOOKAHEAD_MINUTES;
+    this.templates = new ArrayList<CodeBuildAgentTemplate>();
+    this.fleets = new ArrayList<CodeBuildFleet>();
+    this.backends = new ArrayList<CodeBuildBackend>();
+    this.backendStrategy = BACKEND_STRATEGY_ORDERED;
+    this.rightSizingMode = RIGHT_SIZING_OFF;
+    this.rightSizingTolerance = DEFAULT_RIGHT_SIZING_TOLERANCE;
+
+    this.registry = new CodeBuildAgentRegistry();
+    this.demandForecast = CodeBuildDemandForecast.forFile(new File(getRootDir(), "demand-forecast.txt"));
+    this.rightSizer = new CodeBuildRightSizer(new File(getRootDir(), "right-sizing.txt"));
+    this.startupLatency = new CodeBuildStartupLatency();
+
     LOGGER.info(" Initializing Cloud");
     // logConfig(); // <-- Use this if having trouble with configuration)
   }
@@ -226,6 +321,21 @@ public class CodeBuildCloud extends Cloud {
     LOGGER.info("CodeBuild dockerImagePullCredentials: " + this.dockerImagePullCredentials);
     LOGGER.info("CodeBuild verifyIsCodeBuildIPOnJNLP: " + this.verifyIsCodeBuildIPOnJNLP);
     LOGGER.info("Codebuild maxAgents:" + maxAgents);
+    LOGGER.info("CodeBuild startBuildRate: " + this.startBuildRate);
+    LOGGER.info("CodeBuild startBuildBurst: " + this.startBuildBurst);
+    LOGGER.info("CodeBuild batchLaunch: " + this.batchLaunch);
+    LOGGER.info("CodeBuild phaseTimeouts: " + this.phaseTimeouts);
+    LOGGER.info("CodeBuild minIdleAgents: " + this.minIdleAgents);
+    LOGGER.info("CodeBuild warmPoolIdleMinutes: " + this.warmPoolIdleMinutes);
+    LOGGER.info("CodeBuild warmPoolSchedule: " + this.warmPoolSchedule);
+    LOGGER.info("CodeBuild forecastMaxAgents: " + this.forecastMaxAgents);
+    LOGGER.info("CodeBuild forecastLookaheadMinutes: " + this.forecastLookaheadMinutes);
+    LOGGER.info("CodeBuild templates: " + this.templates);
+    LOGGER.info("CodeBuild fleets: " + this.fleets);
+    LOGGER.info("CodeBuild backends: " + this.backends);
+    LOGGER.info("CodeBuild backendStrategy: " + this.backendStrategy);
+    LOGGER.info("CodeBuild rightSizingMode: " + this.rightSizingMode);
+    LOGGER.info("CodeBuild rightSizingTolerance: " + this.rightSizingTolerance);
     LOGGER.info("CodeBuild computeType: " + this.computeType);
     LOGGER.info("CodeBuild direct: " + this.direct);
     LOGGER.info("CodeBuild disableHttpsCertValidation: " + this.disableHttpsCertValidation);
@@ -242,6 +352,71 @@ public class CodeBuildCloud extends Cloud {
     LOGGER.info("Codebuild Cloud relative URL: " + this.getUrl());
   }
 
+  /**
+   * Fill in settings added after the first release for configurations saved by
+   * older versions of the plugin.
+   */
+  protected Object readResolve() {
+    if (startBuildRate == null) {
+      startBuildRate = DEFAULT_START_BUILD_RATE;
+    }
+    if (startBuildBurst == null) {
+      startBuildBurst = DEFAULT_START_BUILD_BURST;
+    }
+    if (batchLaunch == null) {
+      batchLaunch = false;
+    }
+    if (phaseTimeouts == null) {
+      // Clouds saved before phase timeouts only use the connection timeout
+      phaseTimeouts = "";
+    }
+    if (minIdleAgents == null) {
+      minIdleAgents = 0;
+    }
+    if (warmPoolIdleMinutes == null) {
+      warmPoolIdleMinutes = DEFAULT_WARM_POOL_IDLE_MINUTES;
+    }
+    if (warmPoolSchedule == null) {
+      warmPoolSchedule = "";
+    }
+    if (forecastMaxAgents == null) {
+      forecastMaxAgents = 0;
+    }
+    if (forecastLookaheadMinutes == null) {
+      forecastLookaheadMinutes = DEFAULT_FORECAST_LOOKAHEAD_MINUTES;
+    }
+    if (templates == null) {
+      templates = new ArrayList<CodeBuildAgentTemplate>();
+    }
+    List<CodeBuildAgentTemplate> unique = withUniqueLabels(label, templates);
+    if (unique.size() < templates.size()) {
+      LOGGER.warning(String.format("Cloud %s has agent templates with the same labels as the cloud or an earlier "
+          + "template, only the first of each is kept: %s", name, templates));
+      templates = unique;
+    }
+    if (fleets == null) {
+      fleets = new ArrayList<CodeBuildFleet>();
+    }
+    if (backends == null) {
+      backends = new ArrayList<CodeBuildBackend>();
+    }
+    if (backendStrategy == null) {
+      backendStrategy = BACKEND_STRATEGY_ORDERED;
+    }
+    if (rightSizingMode == null) {
+      rightSizingMode = RIGHT_SIZING_OFF;
+    }
+    if (rightSizingTolerance == null) {
+      rightSizingTolerance = DEFAULT_RIGHT_SIZING_TOLERANCE;
+    }
+    registry = new CodeBuildAgentRegistry();
+    // Keeps the arrivals counted before the cloud was saved
+    demandForecast = CodeBuildDemandForecast.forFile(new File(getRootDir(), "demand-forecast.txt"));
+    rightSizer = new CodeBuildRightSizer(new File(getRootDir(), "right-sizing.txt"));
+    startupLatency = new CodeBuildStartupLatency();
+    return this;
+  }
+
   /**
    * Clear all nodes on boot-up because they shouldnt be permanent.
    */
@@ -286,6 +461,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setCodeBuildProjectName(String codeBuildProjectName) {
     this.codeBuildProjectName = codeBuildProjectName;
+    this.primaryBackend = null;
   }
 
   @NonNull
@@ -296,6 +472,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setRegion(String region) {
     this.region = region;
+    this.primaryBackend = null;
   }
 
   @NonNull
@@ -305,7 +482,11 @@ public class CodeBuildCloud extends Cloud {
 
   @DataBoundSetter
   public void setLabel(String label) {
+    if (templates != null) {
+      checkTemplateLabels(label, templates);
+    }
     this.label = label;
+    this.defaultTemplate = null;
   }
 
   @NonNull
@@ -326,6 +507,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setCredentialId(String credentialId) {
     this.credentialId = credentialId;
+    this.primaryBackend = null;
   }
 
   @NonNull
@@ -336,6 +518,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setControllerIdentity(Secret controllerIdentity) {
     this.controllerIdentity = controllerIdentity;
+    this.launchTemplate = null;
   }
 
   @NonNull
@@ -348,6 +531,358 @@ public class CodeBuildCloud extends Cloud {
     this.maxAgents = maxAgents;
   }
 
+  @NonNull
+  public Integer getStartBuildRate() {
+    return startBuildRate;
+  }
+
+  @DataBoundSetter
+  public synchronized void setStartBuildRate(Integer startBuildRate) {
+    this.startBuildRate = startBuildRate == null || startBuildRate <= 0 ? DEFAULT_START_BUILD_RATE : startBuildRate;
+  }
+
+  @NonNull
+  public Integer getStartBuildBurst() {
+    return startBuildBurst;
+  }
+
+  @DataBoundSetter
+  public synchronized void setStartBuildBurst(Integer startBuildBurst) {
+    this.startBuildBurst = startBuildBurst == null || startBuildBurst <= 0 ? DEFAULT_START_BUILD_BURST
+        : startBuildBurst;
+  }
+
+  /**
+   * Whether agents provisioned together are started in one CodeBuild build batch,
+   * see {@link CodeBuildBatchLauncher}.
+   */
+  @NonNull
+  public Boolean getBatchLaunch() {
+    return batchLaunch;
+  }
+
+  @DataBoundSetter
+  public void setBatchLaunch(Boolean batchLaunch) {
+    this.batchLaunch = batchLaunch != null && batchLaunch;
+  }
+
+  /**
+   * Longest time in seconds an agent's build may spend in each CodeBuild phase
+   * before the agent connects, IE: <code>QUEUED=120, BUILD=90</code>.
+   */
+  @NonNull
+  public String getPhaseTimeouts() {
+    return phaseTimeouts;
+  }
+
+  @DataBoundSetter
+  public void setPhaseTimeouts(String phaseTimeouts) {
+    this.phaseTimeouts = StringUtils.trimToEmpty(phaseTimeouts);
+    this.phaseTimeoutSeconds = null;
+  }
+
+  /**
+   * Longest time in seconds an agent's build may spend in the phase, 0 for no
+   * limit other than the agent connection timeout.
+   */
+  long getPhaseTimeoutSeconds(@CheckForNull String phase) {
+    Map<String, Long> timeouts = phaseTimeoutSeconds;
+    if (timeouts == null) {
+      try {
+        timeouts = parsePhaseTimeouts(getPhaseTimeouts());
+      } catch (IllegalArgumentException e) {
+        LOGGER.warning(String.format("Ignoring invalid phase timeouts of cloud %s: %s", name, e.getMessage()));
+        timeouts = Collections.emptyMap();
+      }
+      phaseTimeoutSeconds = timeouts;
+    }
+    Long seconds = phase == null ? null : timeouts.get(phase);
+    return seconds == null ? 0 : seconds;
+  }
+
+  /**
+   * Parse <code>PHASE=seconds</code> pairs separated by commas or new lines.
+   *
+   * @throws IllegalArgumentException on an entry that is not a pair, or a
+   *                                  timeout that is not a positive number
+   */
+  @NonNull
+  static Map<String, Long> parsePhaseTimeouts(@CheckForNull String value) {
+    Map<String, Long> result = new HashMap<String, Long>();
+    for (String entry : StringUtils.split(StringUtils.defaultString(value), ",\n")) {
+      if (StringUtils.isBlank(entry)) {
+        continue;
+      }
+      String[] pair = entry.split("=", 2);
+      if (pair.length != 2 || StringUtils.isBlank(pair[0])) {
+        throw new IllegalArgumentException("Expected PHASE=seconds: " + entry.trim());
+      }
+      long seconds;
+      try {
+        seconds = Long.parseLong(pair[1].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Not a number of seconds: " + entry.trim());
+      }
+      if (seconds <= 0) {
+        throw new IllegalArgumentException("Timeout must be positive: " + entry.trim());
+      }
+      result.put(pair[0].trim().toUpperCase(Locale.ENGLISH), seconds);
+    }
+    return result;
+  }
+
+  @NonNull
+  public Integer getMinIdleAgents() {
+    return minIdleAgents;
+  }
+
+  @DataBoundSetter
+  public void setMinIdleAgents(Integer minIdleAgents) {
+    this.minIdleAgents = minIdleAgents == null || minIdleAgents < 0 ? 0 : minIdleAgents;
+  }
+
+  @NonNull
+  public Integer getWarmPoolIdleMinutes() {
+    return warmPoolIdleMinutes;
+  }
+
+  @DataBoundSetter
+  public void setWarmPoolIdleMinutes(Integer warmPoolIdleMinutes) {
+    this.warmPoolIdleMinutes = warmPoolIdleMinutes == null || warmPoolIdleMinutes <= 0
+        ? DEFAULT_WARM_POOL_IDLE_MINUTES
+        : warmPoolIdleMinutes;
+  }
+
+  @NonNull
+  public String getWarmPoolSchedule() {
+    return warmPoolSchedule;
+  }
+
+  @DataBoundSetter
+  public void setWarmPoolSchedule(String warmPoolSchedule) {
+    this.warmPoolSchedule = StringUtils.trimToEmpty(warmPoolSchedule);
+  }
+
+  @NonNull
+  public Integer getForecastMaxAgents() {
+    return forecastMaxAgents;
+  }
+
+  @DataBoundSetter
+  public void setForecastMaxAgents(Integer forecastMaxAgents) {
+    this.forecastMaxAgents = forecastMaxAgents == null || forecastMaxAgents < 0 ? 0 : forecastMaxAgents;
+  }
+
+  @NonNull
+  public Integer getForecastLookaheadMinutes() {
+    return forecastLookaheadMinutes;
+  }
+
+  @DataBoundSetter
+  public void setForecastLookaheadMinutes(Integer forecastLookaheadMinutes) {
+    this.forecastLookaheadMinutes = forecastLookaheadMinutes == null || forecastLookaheadMinutes <= 0
+        ? DEFAULT_FORECAST_LOOKAHEAD_MINUTES
+        : forecastLookaheadMinutes;
+  }
+
+  @NonNull
+  public List<CodeBuildAgentTemplate> getTemplates() {
+    return Collections.unmodifiableList(templates);
+  }
+
+  @DataBoundSetter
+  public void setTemplates(List<CodeBuildAgentTemplate> templates) {
+    List<CodeBuildAgentTemplate> list = templates == null ? new ArrayList<CodeBuildAgentTemplate>()
+        : new ArrayList<CodeBuildAgentTemplate>(templates);
+    checkTemplateLabels(getLabel(), list);
+    this.templates = list;
+  }
+
+  /**
+   * Agents are counted against the labels of their template, so two templates
+   * with the same labels would share one cap, and only the first of them would
+   * ever be started.
+   *
+   * @throws IllegalArgumentException when a template has the same labels as the
+   *                                  cloud or an earlier template
+   */
+  private static void checkTemplateLabels(String cloudLabel, @NonNull List<CodeBuildAgentTemplate> templates) {
+    List<CodeBuildAgentTemplate> duplicates = new ArrayList<CodeBuildAgentTemplate>(templates);
+    duplicates.removeAll(withUniqueLabels(cloudLabel, templates));
+    if (!duplicates.isEmpty()) {
+      throw new IllegalArgumentException(String.format(
+          "Agent template labels must differ from the cloud's label and each other, '%s' is used twice",
+          duplicates.get(0).getLabel()));
+    }
+  }
+
+  /**
+   * The templates minus those with the same labels as the cloud or an earlier
+   * template.
+   */
+  @NonNull
+  private static List<CodeBuildAgentTemplate> withUniqueLabels(String cloudLabel,
+      @NonNull List<CodeBuildAgentTemplate> templates) {
+    Set<Set<LabelAtom>> seen = new HashSet<Set<LabelAtom>>();
+    if (StringUtils.isNotBlank(cloudLabel)) {
+      seen.add(Label.parse(cloudLabel));
+    }
+    List<CodeBuildAgentTemplate> unique = new ArrayList<CodeBuildAgentTemplate>();
+    for (CodeBuildAgentTemplate t : templates) {
+      if (t.getLabel().isEmpty() || seen.add(t.getLabelAtoms())) {
+        unique.add(t);
+      }
+    }
+    return unique;
+  }
+
+  @NonNull
+  public List<CodeBuildFleet> getFleets() {
+    return Collections.unmodifiableList(fleets);
+  }
+
+  @DataBoundSetter
+  public void setFleets(List<CodeBuildFleet> fleets) {
+    this.fleets = fleets == null ? new ArrayList<CodeBuildFleet>() : new ArrayList<CodeBuildFleet>(fleets);
+  }
+
+  /**
+   * Additional projects, regions or accounts agents overflow to when the cloud's
+   * own project is full.
+   */
+  @NonNull
+  public List<CodeBuildBackend> getBackends() {
+    return Collections.unmodifiableList(backends);
+  }
+
+  @DataBoundSetter
+  public void setBackends(List<CodeBuildBackend> backends) {
+    this.backends = backends == null ? new ArrayList<CodeBuildBackend>()
+        : new ArrayList<CodeBuildBackend>(backends);
+  }
+
+  /**
+   * ORDERED fills backends in order, WEIGHTED spreads agents by weight.
+   */
+  @NonNull
+  public String getBackendStrategy() {
+    return backendStrategy;
+  }
+
+  @DataBoundSetter
+  public void setBackendStrategy(String backendStrategy) {
+    this.backendStrategy = StringUtils.defaultIfBlank(backendStrategy, BACKEND_STRATEGY_ORDERED);
+  }
+
+  /**
+   * The cloud's own credentials, region and project as a backend. Shares the
+   * cloud's client.
+   */
+  @NonNull
+  synchronized CodeBuildBackend getPrimaryBackend() {
+    if (primaryBackend == null) {
+      primaryBackend = new CodeBuildBackend(getCredentialId(), getRegion(), getCodeBuildProjectName(), 0, 1);
+      primaryBackend.setClient(getClient());
+    }
+    return primaryBackend;
+  }
+
+  /**
+   * Primary backend first, then the additional ones in order.
+   */
+  @NonNull
+  List<CodeBuildBackend> getAllBackends() {
+    List<CodeBuildBackend> all = new ArrayList<CodeBuildBackend>();
+    all.add(getPrimaryBackend());
+    all.addAll(getBackends());
+    return all;
+  }
+
+  /**
+   * State of the circuit breaker of each account and region the backends are in,
+   * for the cloud's page.
+   */
+  public List<CodeBuildCircuitBreaker.Status> getCircuitBreakers() {
+    List<CodeBuildCircuitBreaker> breakers = new ArrayList<CodeBuildCircuitBreaker>();
+    for (CodeBuildBackend b : getAllBackends()) {
+      breakers.add(b.getCircuitBreaker());
+    }
+    return CodeBuildCircuitBreaker.statusOf(breakers);
+  }
+
+  /**
+   * Per backend usage for the cloud's page.
+   */
+  public List<CodeBuildBackend.Usage> getBackendUsage() {
+    List<CodeBuildBackend.Usage> result = new ArrayList<CodeBuildBackend.Usage>();
+    for (CodeBuildBackend b : getAllBackends()) {
+      result.add(new CodeBuildBackend.Usage(b, getRegistry().getActive(b.getPool()), backendCanProvision(b)));
+    }
+    return result;
+  }
+
+  @CheckForNull
+  CodeBuildFleet getFleet(@NonNull String fleetName) {
+    for (CodeBuildFleet f : getFleets()) {
+      if (f.getName().equals(fleetName)) {
+        return f;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * OFF, the default, RECOMMEND to only show the smallest compute type that
+   * fits on the cloud's page, or AUTO to start agents with it.
+   */
+  @NonNull
+  public String getRightSizingMode() {
+    return rightSizingMode;
+  }
+
+  @DataBoundSetter
+  public void setRightSizingMode(String rightSizingMode) {
+    this.rightSizingMode = StringUtils.defaultIfBlank(rightSizingMode, RIGHT_SIZING_OFF);
+  }
+
+  /**
+   * How much slower, in percent, jobs may get on a smaller compute type.
+   */
+  @NonNull
+  public Integer getRightSizingTolerance() {
+    return rightSizingTolerance;
+  }
+
+  @DataBoundSetter
+  public void setRightSizingTolerance(Integer rightSizingTolerance) {
+    this.rightSizingTolerance = rightSizingTolerance == null || rightSizingTolerance < 0
+        ? DEFAULT_RIGHT_SIZING_TOLERANCE
+        : rightSizingTolerance;
+    if (rightSizer != null) {
+      rightSizer.invalidate();
+    }
+  }
+
+  boolean isRightSizingEnabled() {
+    return !RIGHT_SIZING_OFF.equals(getRightSizingMode());
+  }
+
+  /**
+   * How long a connected agent may sit idle before it is terminated. Without a
+   * warm pool or predictive provisioning agents are one-shot and go away after a
+   * minute.
+   */
+  int getAgentIdleMinutes() {
+    return getMinIdleAgents() > 0 || getForecastMaxAgents() > 0 ? getWarmPoolIdleMinutes() : 1;
+  }
+
+  /**
+   * Directory of this cloud under JENKINS_HOME for state that outlives a restart.
+   */
+  File getRootDir() {
+    return new File(new File(getJenkins().getRootDir(), "codebuild-cloud"), name);
+  }
+
   @NonNull
   public String getDirect() {
     return direct;
@@ -356,6 +891,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setDirect(String direct) {
     this.direct = direct;
+    this.launchTemplate = null;
   }
 
   @NonNull
@@ -366,6 +902,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setDisableHttpsCertValidation(Boolean disableHttpsCertValidation) {
     this.disableHttpsCertValidation = disableHttpsCertValidation;
+    this.launchTemplate = null;
   }
 
   @NonNull
@@ -376,6 +913,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setNoKeepAlive(Boolean noKeepAlive) {
     this.noKeepAlive = noKeepAlive;
+    this.launchTemplate = null;
   }
 
   @NonNull
@@ -386,6 +924,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setNoReconnect(Boolean noReconnect) {
     this.noReconnect = noReconnect;
+    this.launchTemplate = null;
   }
 
   @NonNull
@@ -396,6 +935,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setProtocols(String protocols) {
     this.protocols = protocols;
+    this.launchTemplate = null;
   }
 
   @NonNull
@@ -406,6 +946,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setProxyCredentialsId(String proxyCredentialsId) {
     this.proxyCredentialsId = proxyCredentialsId;
+    this.launchTemplate = null;
   }
 
   @NonNull
@@ -416,6 +957,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setTunnel(String tunnel) {
     this.tunnel = tunnel;
+    this.launchTemplate = null;
   }
 
   @NonNull
@@ -426,6 +968,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setJenkinsUrl(String jenkinsUrl) {
     this.jenkinsUrl = jenkinsUrl;
+    this.launchTemplate = null;
   }
 
   @NonNull
@@ -436,6 +979,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setWebSocket(Boolean webSocket) {
     this.webSocket = webSocket;
+    this.launchTemplate = null;
   }
 
   @NonNull
@@ -456,6 +1000,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setDockerImage(String dockerImage) {
     this.dockerImage = dockerImage;
+    this.defaultTemplate = null;
   }
 
   @NonNull
@@ -476,6 +1021,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setComputeType(String computeType) {
     this.computeType = computeType;
+    this.defaultTemplate = null;
   }
 
   @NonNull
@@ -486,6 +1032,7 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setEnvironmentType(String environmentType) {
     this.environmentType = environmentType;
+    this.defaultTemplate = null;
   }
 
   @NonNull
@@ -496,23 +1043,31 @@ public class CodeBuildCloud extends Cloud {
   @DataBoundSetter
   public void setBuildSpec(String buildSpec) {
     this.buildSpec = buildSpec;
+    this.defaultTemplate = null;
   }
 
   // Implementation methods for provisioning codebuild cloud agents
 
-  private transient long lastProvisionTime = 0; // keep track of to not create too many agents
+  private transient CodeBuildClientWrapper client;
+
 
-  private long getLastProvisionTime() {
-    LOGGER.finest("Current Provision time: " + String.valueOf(lastProvisionTime));
-    return lastProvisionTime;
-  }
+  private transient CodeBuildBatchLauncher batchLauncher;
 
-  private void setLastProvisionTime(long provisionTime) {
-    LOGGER.finest("Setting Provision time: " + String.valueOf(provisionTime));
-    lastProvisionTime = provisionTime;
-  }
+  private transient volatile CodeBuildLaunchTemplate launchTemplate;
 
-  private transient CodeBuildClientWrapper client;
+  private transient volatile Map<String, Long> phaseTimeoutSeconds;
+
+  private transient CodeBuildAgentRegistry registry;
+
+  private transient CodeBuildDemandForecast demandForecast;
+
+  private transient CodeBuildAgentTemplate defaultTemplate;
+
+  private transient CodeBuildRightSizer rightSizer;
+
+  private transient CodeBuildBackend primaryBackend;
+
+  private transient CodeBuildStartupLatency startupLatency;
 
   /** {@inheritDoc} */
   @Override
@@ -523,82 +1078,331 @@ public class CodeBuildCloud extends Cloud {
   /** {@inheritDoc} */
   @Override
   public boolean canProvision(Label label) {
-    boolean canProv = false;
-    if (label != null) {
-      canProv = label.matches(Arrays.asList(new LabelAtom(getLabel())));
-    }
+    boolean canProv = findTemplate(label) != null;
 
     LOGGER.finest(String.format("Check provisioning capabilities for label '%s': %s", label, canProv));
     return canProv;
   }
 
   /**
-   * Getter for the field <code>client</code>.
-   *
-   * @return a {@link com.amazonaws.services.codebuild.AWSCodeBuild} object.
+   * The cloud's own label, compute type, image and buildspec as a template. Null
+   * when the cloud has no label of its own and only serves its templates.
    */
-  public synchronized CodeBuildClientWrapper getClient() {
-    if (this.client == null) {
-      this.client = CodeBuildClientWrapperFactory.buildClient(this.credentialId, this.region,
-          CodeBuildCloud.getJenkins());
+  @CheckForNull
+  CodeBuildAgentTemplate getDefaultTemplate() {
+    if (StringUtils.isBlank(getLabel())) {
+      return null;
     }
-    return this.client;
+    if (defaultTemplate == null) {
+      defaultTemplate = new CodeBuildAgentTemplate(getLabel(), getComputeType(), getDockerImage(),
+          getEnvironmentType(), true, getBuildSpec(), 0);
+    }
+    return defaultTemplate;
   }
 
   /**
-   * Find the number of {@link CodeBuildAgent} instances still connecting to
-   * Jenkins host.
+   * Template to start an agent with for the label, with the cloud's settings
+   * filled in and right-sized when that is switched on.
    */
-  private long countStillProvisioning() {
+  @CheckForNull
+  CodeBuildAgentTemplate getTemplate(@CheckForNull Label label) {
+    CodeBuildAgentTemplate t = findTemplate(label);
+    return t == null ? null : rightSize(t);
+  }
 
-    long mycount = 0;
-
-    for (Node s : getJenkins().getNodes()) {
-      if (s instanceof CodeBuildAgent) {
-        CodeBuildAgent d = (CodeBuildAgent) s;
-        if (d.cloud.equals(this)) {
-          if (!d.terminated) { // Even if node still exists and not cleaned up yet - time to not count it since
-                               // its on its way out.
-            if (d.getLauncher().isLaunchSupported()) {
-              // Still launching - means still provisioning
-              mycount += 1;
-            } else {
-              // Provisioned and in use - not still provisiong
-            }
-          }
-        }
+  /**
+   * Configured templates are tried in order before the cloud's own label.
+   */
+  @CheckForNull
+  private CodeBuildAgentTemplate findTemplate(@CheckForNull Label label) {
+    for (CodeBuildAgentTemplate t : getTemplates()) {
+      if (t.matches(label)) {
+        return t.resolve(this);
       }
     }
-    return mycount;
-  }
 
-  private long totalProvisionedOrProvisioning() {
+    CodeBuildAgentTemplate d = getDefaultTemplate();
+    if (d != null && d.matches(label)) {
+      return d;
+    }
+    return null;
+  }
 
-    long mycount = 0;
+  /**
+   * Template for agents started without a queued job, IE: the warm pool.
+   */
+  @CheckForNull
+  private CodeBuildAgentTemplate getIdleAgentTemplate() {
+    CodeBuildAgentTemplate d = getDefaultTemplate();
+    if (d == null && !getTemplates().isEmpty()) {
+      d = getTemplates().get(0).resolve(this);
+    }
+    return d == null ? null : rightSize(d);
+  }
 
-    // LOGGER.info("Count of Nodes: " + getJenkins().getNodes().size());
-    for (Node s : getJenkins().getNodes()) {
-      if (s instanceof CodeBuildAgent) {
-        CodeBuildAgent d = (CodeBuildAgent) s;
-        if (d.cloud.equals(this)) {
-          if (!d.terminated) { // if not terminated - assume is a running codebuild project
-            mycount += 1;
-          }
-        }
+  /**
+   * Swap in the recommended compute type when right-sizing is automatic.
+   */
+  @NonNull
+  private CodeBuildAgentTemplate rightSize(@NonNull CodeBuildAgentTemplate template) {
+    if (!RIGHT_SIZING_AUTO.equals(getRightSizingMode())) {
+      return template;
+    }
+    CodeBuildRightSizer.Recommendation rec = recommend(template);
+    if (!rec.isChange()) {
+      return template;
+    }
+    return template.withComputeType(rec.getRecommended());
+  }
+
+  @NonNull
+  private CodeBuildRightSizer.Recommendation recommend(@NonNull CodeBuildAgentTemplate template) {
+    return getRightSizer().recommend(template.getLabel(), template.getEnvironmentType(), template.getComputeType(),
+        getRightSizingTolerance(), RIGHT_SIZING_AUTO.equals(getRightSizingMode()));
+  }
+
+  /**
+   * Model of every template for the cloud's page, default template first.
+   */
+  public List<CodeBuildRightSizer.Recommendation> getRightSizingRecommendations() {
+    List<CodeBuildRightSizer.Recommendation> result = new ArrayList<CodeBuildRightSizer.Recommendation>();
+    if (!isRightSizingEnabled()) {
+      return result;
+    }
+    CodeBuildAgentTemplate d = getDefaultTemplate();
+    if (d != null) {
+      result.add(recommend(d));
+    }
+    for (CodeBuildAgentTemplate t : getTemplates()) {
+      result.add(recommend(t.resolve(this)));
+    }
+    return result;
+  }
+
+  /**
+   * Recent changes of recommendation, newest first, for the cloud's page.
+   */
+  public List<CodeBuildRightSizer.Decision> getRightSizingDecisions() {
+    return getRightSizer().getDecisions();
+  }
+
+  /**
+   * Re-evaluate the right-sizing model with the tasks completed since the last
+   * run and persist it. Called every minute by {@link CodeBuildCloudMaintenance}.
+   */
+  void maintainRightSizing() {
+    if (!isRightSizingEnabled()) {
+      return;
+    }
+    getRightSizingRecommendations();
+    getRightSizer().saveIfDirty();
+  }
+
+  /**
+   * Look up the concurrent build limit of every backend's project, or start
+   * refreshing it when it is due, so provisioning finds it known. Called every
+   * minute by {@link CodeBuildCloudMaintenance}.
+   */
+  @NonNull
+  CompletableFuture<Void> maintainConcurrentBuildLimits() {
+    List<CompletableFuture<Integer>> limits = new ArrayList<CompletableFuture<Integer>>();
+    for (CodeBuildBackend b : getAllBackends()) {
+      if (StringUtils.isNotBlank(b.getCodeBuildProjectName())) {
+        limits.add(b.getClient().getMaxConcurrentJobsAsync(b.getCodeBuildProjectName()));
+      }
+    }
+    return CompletableFuture.allOf(limits.toArray(new CompletableFuture<?>[0]));
+  }
+
+  /**
+   * Getter for the field <code>client</code>.
+   *
+   * @return a {@link com.amazonaws.services.codebuild.AWSCodeBuild} object.
+   */
+  public synchronized CodeBuildClientWrapper getClient() {
+    if (this.client == null) {
+      this.client = CodeBuildClientWrapperFactory.buildClient(this.credentialId, this.region,
+          CodeBuildCloud.getJenkins());
+    }
+    return this.client;
+  }
+
+  // Package level visibility - client is swapped out by tests
+  synchronized void setClient(CodeBuildClientWrapper client) {
+    this.client = client;
+    this.primaryBackend = null;
+  }
+
+  /**
+   * Paces StartBuild calls of the account and region of the backend, the
+   * primary one when null.
+   */
+  @NonNull
+  CodeBuildProvisioningGovernor getGovernor(@CheckForNull CodeBuildBackend backend) {
+    CodeBuildBackend b = backend == null ? getPrimaryBackend() : backend;
+    return CodeBuildProvisioningGovernor.forAccount(b.getCredentialId(), b.getRegion(), getStartBuildRate(),
+        getStartBuildBurst());
+  }
+
+  /**
+   * Environment variables shared by every agent, see
+   * {@link CodeBuildLaunchTemplate}.
+   */
+  CodeBuildLaunchTemplate getLaunchTemplate() {
+    CodeBuildLaunchTemplate t = this.launchTemplate;
+    if (t == null || t.isStale()) {
+      t = CodeBuildLaunchTemplate.of(this);
+      this.launchTemplate = t;
+    }
+    return t;
+  }
+
+  /**
+   * Work the launch template out again on the next launch.
+   */
+  void invalidateLaunchTemplate() {
+    this.launchTemplate = null;
+  }
+
+  /**
+   * Groups the StartBuild calls of agents provisioned together.
+   */
+  synchronized CodeBuildBatchLauncher getBatchLauncher() {
+    if (this.batchLauncher == null) {
+      this.batchLauncher = new CodeBuildBatchLauncher(this);
+    }
+    return this.batchLauncher;
+  }
+
+  /**
+   * Live counts of this cloud's agents. Updated by {@link CodeBuildNodeListener},
+   * {@link CodeBuildLauncher} and {@link CodeBuildAgent}.
+   */
+  CodeBuildAgentRegistry getRegistry() {
+    return registry;
+  }
+
+  /**
+   * Arrival history of the labels this cloud serves. Fed by
+   * {@link CodeBuildQueueListener}.
+   */
+  CodeBuildDemandForecast getDemandForecast() {
+    return demandForecast;
+  }
+
+  /**
+   * Resource usage history of the agents' tasks. Fed by
+   * {@link CodeBuildComputer}.
+   */
+  CodeBuildRightSizer getRightSizer() {
+    return rightSizer;
+  }
+
+  /**
+   * Startup stage timings of this cloud's agents. Fed by
+   * {@link CodeBuildLauncher}, {@link CodeBuildJnlpAgentReceiver} and
+   * {@link CodeBuildComputer}.
+   */
+  CodeBuildStartupLatency getStartupLatency() {
+    return startupLatency;
+  }
+
+  /**
+   * Startup latency percentiles for the cloud's page.
+   */
+  public List<CodeBuildStartupLatency.Summary> getStartupLatencySummaries() {
+    return getStartupLatency().getSummaries();
+  }
+
+  /**
+   * Startup latency percentiles as JSON, IE: for dashboards.
+   * <code>/cloud/NAME/startupLatency</code>
+   */
+  @GET
+  public HttpResponse doStartupLatency() {
+    getJenkins().checkPermission(Jenkins.ADMINISTER);
+    return HttpResponses.okJSON(getStartupLatency().toJSON());
+  }
+
+  /**
+   * CodeBuild API calls by operation and caller of the clients of every backend,
+   * for the cloud's page. Clients are shared, so these include the calls of
+   * other clouds in the same account and region.
+   */
+  public List<CodeBuildApiStats.Summary> getApiCallSummaries() {
+    List<CodeBuildApiStats.Summary> result = new ArrayList<CodeBuildApiStats.Summary>();
+    List<CodeBuildApiStats> seen = new ArrayList<CodeBuildApiStats>();
+    for (CodeBuildBackend b : getAllBackends()) {
+      CodeBuildApiStats stats = b.getClient().getStats();
+      if (!seen.contains(stats)) {
+        seen.add(stats);
+        result.addAll(stats.getSummaries());
       }
     }
-    return mycount;
+    return result;
+  }
+
+  /**
+   * CodeBuild API calls by operation and caller as JSON.
+   * <code>/cloud/NAME/apiCalls</code>
+   */
+  @GET
+  public HttpResponse doApiCalls() {
+    getJenkins().checkPermission(Jenkins.ADMINISTER);
+    return HttpResponses.okJSON(CodeBuildApiStats.toJSON(getApiCallSummaries()));
+  }
+
+  /**
+   * Find the number of {@link CodeBuildAgent} instances still connecting to
+   * Jenkins host.
+   */
+  private long countStillProvisioning() {
+    return getRegistry().getStarting();
+  }
+
+  private long totalProvisionedOrProvisioning() {
+    // Terminated agents whose nodes are not cleaned up yet are not counted since
+    // they are on their way out.
+    return getRegistry().getActive();
+  }
+
+  /**
+   * On-demand agents the backend can still take.
+   */
+  private long backendCanProvision(@NonNull CodeBuildBackend backend) {
+    return backend.canProvision(getRegistry().getActive(backend.getPool()));
+  }
+
+  /**
+   * Agents the cloud can still start, across all backends and within
+   * {@link #getMaxAgents()}.
+   */
+  long getRemainingCapacity() {
+    return Math.max(0, totalCanProvision());
+  }
+
+  /**
+   * Concurrent build limit of the cloud's own project as last read from
+   * CodeBuild, -1 when not known yet or the project has none.
+   */
+  long getCachedConcurrentBuildLimit() {
+    Integer limit = getClient().getCachedMaxConcurrentJobs(getCodeBuildProjectName());
+    return limit == null || limit == Integer.MAX_VALUE ? -1 : limit;
   }
 
   private long totalCanProvision() {
 
-    // Calculating here if CodeBuild Project is configured to limit
-    long totalConcurrentJobsPossibleFromCBP = getClient().getMaxConcurrentJobs(codeBuildProjectName);
+    // Calculating here if the CodeBuild projects are configured to limit. Every
+    // backend is accounted for separately, full or throttled ones add nothing.
+    // Fleet builds run under the fleet's own project and do not count here.
+    long totalPossibleToProvisionFromCB = 0;
+    for (CodeBuildBackend b : getAllBackends()) {
+      totalPossibleToProvisionFromCB += Math.max(0, backendCanProvision(b));
+    }
     long totalProvisioned = totalProvisionedOrProvisioning();
-    LOGGER.finest("Total concurrent jobs from CB: " + totalConcurrentJobsPossibleFromCBP);
+    LOGGER.finest("Total concurrent jobs still possible from CB: " + totalPossibleToProvisionFromCB);
     LOGGER.finest("Total concurrent jobs running/provisioning right now: " + totalProvisioned);
 
-    long totalPossibleToProvisionFromCB = totalConcurrentJobsPossibleFromCBP - totalProvisioned;
     long totalPossibleToProvisionFromPlugin = getMaxAgents() - totalProvisioned;
 
     // Who wins the codebuild project or the plugin config? Which ever one is lower
@@ -610,19 +1414,59 @@ public class CodeBuildCloud extends Cloud {
 
   }
 
+  /**
+   * How many more agents fit on the fleet. maxAgents still applies to them.
+   */
+  private long fleetCanProvision(@NonNull CodeBuildFleet fleet) {
+    // Fleet builds are started with the cloud's own credentials and region
+    if (!getPrimaryBackend().getCircuitBreaker().allowsProvisioning()) {
+      return 0;
+    }
+    long fromFleet = fleet.getCapacity() - getRegistry().getActive(fleet.getComputeType());
+    return Math.min(fromFleet, getMaxAgents() - totalProvisionedOrProvisioning());
+  }
+
+  /**
+   * How many more agents of the template can be started right now: the fleet's
+   * free capacity plus on-demand capacity when the fleet overflows to it, within
+   * {@link #getMaxAgents()} for both together.
+   */
+  private long canProvision(@NonNull CodeBuildAgentTemplate template) {
+    long possible;
+    if (template.getFleet() == null) {
+      possible = totalCanProvision();
+    } else {
+      CodeBuildFleet fleet = getFleet(template.getFleet());
+      if (fleet == null) {
+        LOGGER.warning(String.format("Template %s of cloud %s uses unknown fleet '%s'", template, name,
+            template.getFleet()));
+        return 0;
+      }
+      possible = Math.max(0, fleetCanProvision(fleet));
+      if (StringUtils.isNotBlank(fleet.getOverflowComputeType())) {
+        possible += Math.max(0, totalCanProvision());
+      }
+      // Both already leave room for the same maxAgents headroom
+      possible = Math.min(possible, getMaxAgents() - totalProvisionedOrProvisioning());
+    }
+    return Math.min(possible, templateCanProvision(template));
+  }
+
   /** {@inheritDoc} */
   @Override
   public synchronized Collection<PlannedNode> provision(Label label, int excessWorkload) {
     List<NodeProvisioner.PlannedNode> list = new ArrayList<NodeProvisioner.PlannedNode>();
 
     // guard against non-matching labels
-    if (!canProvision(label)) {
+    CodeBuildAgentTemplate template = getTemplate(label);
+    if (template == null) {
       return list;
     }
 
     // guard against too many provisioned based on CodeBuild project settings or End
-    // user plugin settings
-    long totalPossibleToProvision = totalCanProvision();
+    // user plugin settings. Planned nodes from earlier calls that are not added to
+    // Jenkins yet are counted by the registry - this is what used to need a cooldown.
+    long totalPossibleToProvision = canProvision(template);
     if (totalPossibleToProvision <= 0) {
       LOGGER.finest(
           String.format(
@@ -631,53 +1475,252 @@ public class CodeBuildCloud extends Cloud {
       return list;
     }
 
-    // guard against double-provisioning with a 5 second cooldown clock (Should be
-    // more than enough)
-    long timeDiff = System.currentTimeMillis() - getLastProvisionTime();
-    LOGGER.finest("Diff in provison time: " + String.valueOf(timeDiff));
-    if (timeDiff < 5000) {
-      LOGGER.finest(
-          String.format("Provision of %s skipped, still on cooldown %sms of 5 seconds)", excessWorkload, timeDiff));
-      return list;
-    }
-
-    // If we reach here its time to provision. This is because the label matches and
-    // the cooldown period has been hit. If Jenkins still thinks there is excess
-    // workload - go create it.
+    // If we reach here its time to provision. If Jenkins still thinks there is
+    // excess workload - go create it. StartBuild calls are paced by the governor
+    // within the launcher so there is no need to hold anything back here.
     // We take min here since no matter which case we have - we want the minimum
     // number to launch.
     long numToLaunch = Math.min(totalPossibleToProvision, excessWorkload);
 
-    if (numToLaunch == 0) {
+    if (numToLaunch <= 0) {
       LOGGER.finest(
           String.format("Provision of excess workload (%s) skipped, total can launch is 0", excessWorkload));
-      return list; // Skip setting last provision time. Shouldnt apply since we didnt provision
-                   // anything.
+      return list;
     }
 
     String labelName = label == null ? getLabel() : label.getDisplayName();
-    LOGGER.info(String.format("Provisioning %s nodes for label '%s' (%s already provisioning)", numToLaunch, labelName,
-        countStillProvisioning()));
+    LOGGER.info(String.format("Provisioning %s nodes for label '%s' with %s (%s already provisioning, %s planned)",
+        numToLaunch, labelName, template, countStillProvisioning(), getRegistry().getPlanned()));
 
     for (int i = 0; i < numToLaunch; i++) {
+      NodeProvisioner.PlannedNode node = planNode(template, false);
+      if (node == null) {
+        break;
+      }
+      list.add(node);
+    }
+
+    return list;
+
+  }
+
+  /**
+   * Agents of fleet templates go to the fleet while it has room and to its
+   * overflow compute type after that.
+   */
+  @NonNull
+  private CodeBuildAgentTemplate placeOnFleet(@NonNull CodeBuildAgentTemplate template) {
+    CodeBuildFleet fleet = template.getFleet() == null ? null : getFleet(template.getFleet());
+    if (fleet == null || fleetCanProvision(fleet) > 0 || StringUtils.isBlank(fleet.getOverflowComputeType())) {
+      return template;
+    }
+    return template.withComputeType(fleet.getOverflowComputeType());
+  }
 
-      // Unique node names
-      final String suffix = RandomStringUtils.randomAlphabetic(4);
-      final String displayName = String.format("%s.%s", name, suffix);
+  /**
+   * How many more agents the template's own cap allows.
+   */
+  private long templateCanProvision(@NonNull CodeBuildAgentTemplate template) {
+    if (template.getMaxAgents() <= 0) {
+      return Long.MAX_VALUE;
+    }
+    return template.getMaxAgents() - getRegistry().getActive(template.getLabel());
+  }
 
-      final CodeBuildCloud cloud = this;
-      final Future<Node> nodeResolver = Computer.threadPoolForRemoting.submit(() -> {
+  /**
+   * Backend for the next on-demand agent: the first one with room, or with
+   * {@link #BACKEND_STRATEGY_WEIGHTED} the one with the fewest agents for its
+   * weight.
+   */
+  @CheckForNull
+  private CodeBuildBackend chooseBackend() {
+    CodeBuildBackend best = null;
+    double bestLoad = Double.MAX_VALUE;
+    for (CodeBuildBackend b : getAllBackends()) {
+      if (backendCanProvision(b) <= 0) {
+        continue;
+      }
+      if (!BACKEND_STRATEGY_WEIGHTED.equals(getBackendStrategy())) {
+        return b;
+      }
+      double load = (double) getRegistry().getActive(b.getPool()) / b.getWeight();
+      if (load < bestLoad) {
+        best = b;
+        bestLoad = load;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Capacity pools of {@link CodeBuildAgentRegistry} an agent counts against: its
+   * template, and the fleet or on-demand backend it runs on.
+   */
+  @NonNull
+  static String[] poolsOf(@NonNull CodeBuildAgentTemplate template, @CheckForNull CodeBuildBackend backend) {
+    String[] pools = template.pools();
+    if (template.getFleet() != null || backend == null) {
+      return pools;
+    }
+    String[] withBackend = Arrays.copyOf(pools, pools.length + 1);
+    withBackend[pools.length] = backend.getPool();
+    return withBackend;
+  }
+
+  /**
+   * Create a new agent in the background and add it to Jenkins. Null when the
+   * cloud is at {@link #getMaxAgents()} or no backend has room left. Agents
+   * started ahead of demand have no job waiting for them yet.
+   */
+  @CheckForNull
+  private NodeProvisioner.PlannedNode planNode(@NonNull CodeBuildAgentTemplate template, boolean aheadOfDemand) {
+    // Whatever the caller worked out, maxAgents holds for every single agent
+    if (totalProvisionedOrProvisioning() >= getMaxAgents()) {
+      LOGGER.finest(String.format("Cloud %s is at its maximum of %s agents", name, getMaxAgents()));
+      return null;
+    }
+    final CodeBuildAgentTemplate placed = placeOnFleet(template);
+    // Fleets are reached through the cloud's own credentials and region
+    final CodeBuildBackend backend = placed.getFleet() != null ? getPrimaryBackend() : chooseBackend();
+    if (backend == null) {
+      LOGGER.finest(String.format("No backend of cloud %s has room for another agent", name));
+      return null;
+    }
+
+    // Unique node names
+    final String suffix = RandomStringUtils.randomAlphabetic(4);
+    final String displayName = String.format("%s.%s", name, suffix);
+
+    final CodeBuildCloud cloud = this;
+    // Holds capacity until the node is added to Jenkins
+    getRegistry().agentPlanned(displayName, poolsOf(placed, backend));
+    getStartupLatency().planned(displayName, placed.getLabel(), aheadOfDemand);
+    final Future<Node> nodeResolver = Computer.threadPoolForRemoting.submit(() -> {
+      try {
         CodeBuildLauncher launcher = new CodeBuildLauncher(cloud);
-        CodeBuildAgent agent = new CodeBuildAgent(displayName, cloud, launcher);
+        CodeBuildAgent agent = new CodeBuildAgent(displayName, cloud, placed, backend, launcher);
         getJenkins().addNode(agent);
+        getStartupLatency().mark(displayName, CodeBuildStartupLatency.Stage.ADDED);
         return agent;
-      });
-      list.add(new NodeProvisioner.PlannedNode(displayName, nodeResolver, 1));
+      } catch (Exception e) {
+        getRegistry().agentRemoved(displayName);
+        getStartupLatency().forget(displayName);
+        throw e;
+      }
+    });
+    return new NodeProvisioner.PlannedNode(displayName, nodeResolver, 1);
+  }
+
+  /**
+   * Is the warm pool supposed to be filled at the given time? Always when no
+   * schedule is configured.
+   */
+  boolean isWarmPoolActive(Calendar when) {
+    if (StringUtils.isBlank(getWarmPoolSchedule())) {
+      return true;
     }
+    try {
+      return CronTabList.create(getWarmPoolSchedule()).check(when);
+    } catch (Exception e) {
+      LOGGER.warning(String.format("Invalid warm pool schedule for cloud %s, keeping pool active: %s", name, e));
+      return true;
+    }
+  }
 
-    setLastProvisionTime(System.currentTimeMillis());
-    return list;
+  /**
+   * How many agents the demand forecast wants waiting for work right now, by
+   * the pool of the template that takes the forecast labels' jobs. Together
+   * capped by {@link #getForecastMaxAgents()}, the busiest templates first. The
+   * cap is the overshoot budget: at most that many agents are ever started on a
+   * forecast alone, however wrong the forecast is.
+   *
+   * @param templates gets the template of every pool with a target
+   */
+  @NonNull
+  Map<String, Integer> getForecastTargets(Calendar when, @NonNull Map<String, CodeBuildAgentTemplate> templates) {
+    Map<String, Integer> targets = new LinkedHashMap<String, Integer>();
+    if (getForecastMaxAgents() <= 0) {
+      return targets;
+    }
+
+    Map<String, Double> expected = new HashMap<String, Double>();
+    for (Map.Entry<String, Double> e : getDemandForecast().expectedArrivals(when, getForecastLookaheadMinutes())
+        .entrySet()) {
+      // Labels no template of this cloud can take anymore are left out
+      CodeBuildAgentTemplate t = getTemplate(Label.get(e.getKey()));
+      if (t != null) {
+        templates.putIfAbsent(t.getLabel(), t);
+        expected.merge(t.getLabel(), e.getValue(), Double::sum);
+      }
+    }
 
+    List<Map.Entry<String, Double>> busiest = new ArrayList<Map.Entry<String, Double>>(expected.entrySet());
+    busiest.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+    long budget = getForecastMaxAgents();
+    for (Map.Entry<String, Double> e : busiest) {
+      int target = (int) Math.min(budget, Math.round(e.getValue()));
+      if (target > 0) {
+        targets.put(e.getKey(), target);
+        budget -= target;
+      }
+    }
+    return targets;
+  }
+
+  /**
+   * Top up the idle agents so there are enough connected or connecting agents
+   * of every template waiting for work. For the template of the warm pool that
+   * is the larger of {@link #getMinIdleAgents()} while its schedule is active
+   * and the forecast, for the others the arrivals the demand forecast expects
+   * for their labels within the lookahead. Called every minute by
+   * {@link CodeBuildCloudMaintenance}. Idle agents nobody needs are evicted by
+   * {@link CodeBuildRetentionStrategy} once they have been idle for
+   * {@link #getWarmPoolIdleMinutes()}.
+   */
+  synchronized void maintainIdleAgents() {
+    Calendar now = Calendar.getInstance();
+    if (getForecastMaxAgents() > 0) {
+      getDemandForecast().tick(now);
+    }
+
+    // Agents of one template cannot take the jobs of another, every template is
+    // topped up on its own
+    Map<String, CodeBuildAgentTemplate> templates = new HashMap<String, CodeBuildAgentTemplate>();
+    Map<String, Integer> targets = getForecastTargets(now, templates);
+    CodeBuildAgentTemplate idleTemplate = getIdleAgentTemplate();
+    if (idleTemplate != null && getMinIdleAgents() > 0 && isWarmPoolActive(now)) {
+      templates.putIfAbsent(idleTemplate.getLabel(), idleTemplate);
+      targets.merge(idleTemplate.getLabel(), getMinIdleAgents(), Math::max);
+    }
+
+    for (Map.Entry<String, Integer> e : targets.entrySet()) {
+      topUpIdleAgents(templates.get(e.getKey()), e.getValue());
+    }
+  }
+
+  private void topUpIdleAgents(@NonNull CodeBuildAgentTemplate template, int target) {
+    long waiting = getRegistry().getWaiting(template.getLabel());
+    long missing = target - waiting;
+    if (missing <= 0) {
+      return;
+    }
+
+    // Same limits as provision(): maxAgents, the project concurrent build limit,
+    // fleet capacity and the template's own cap
+    long numToLaunch = Math.min(missing, canProvision(template));
+    if (numToLaunch <= 0) {
+      LOGGER.finest(String.format("Idle agents of %s with %s are %s short but there is no capacity left", name,
+          template, missing));
+      return;
+    }
+
+    LOGGER.info(String.format("Topping up idle agents of %s with %s agents of %s (%s waiting for work, target %s)",
+        name, numToLaunch, template, waiting, target));
+    for (int i = 0; i < numToLaunch; i++) {
+      if (planNode(template, true) == null) {
+        break;
+      }
+    }
   }
 
   @Extension
@@ -773,7 +1816,11 @@ public class CodeBuildCloud extends Cloud {
 
     @POST
     public ListBoxModel doFillRegionItems() {
+      return regionItems();
+    }
 
+    // Shared with CodeBuildBackend
+    static ListBoxModel regionItems() {
       getJenkins().checkPermission(Jenkins.ADMINISTER);
 
       final StandardListBoxModel options = new StandardListBoxModel();
@@ -808,23 +1855,22 @@ public class CodeBuildCloud extends Cloud {
     @POST
     public ListBoxModel doFillCodeBuildProjectNameItems(@QueryParameter String credentialId,
         @QueryParameter String region) {
+      return projectItems(credentialId, region);
+    }
 
+    // Shared with CodeBuildBackend
+    static ListBoxModel projectItems(String credentialId, String region) {
       getJenkins().checkPermission(Jenkins.ADMINISTER);
 
       final StandardListBoxModel options = new StandardListBoxModel();
       options.includeEmptyValue();
 
-      // List of projects from Codebuild
-      final List<String> codebuildProjects = new ArrayList<String>();
+      // List of projects from Codebuild, cached per credentials and region
+      final CodeBuildProjectCatalog.Snapshot codebuildProjects;
 
       try {
         CodeBuildClientWrapper client = CodeBuildClientWrapperFactory.buildClient(credentialId, region, getJenkins());
-        String nextToken = null;
-        do {
-          ListProjectsResult result = client.listProjects(new ListProjectsRequest().withNextToken(nextToken));
-          codebuildProjects.addAll(result.getProjects());
-          nextToken = result.getNextToken();
-        } while (nextToken != null);
+        codebuildProjects = client.getProjectCatalog().get();
       } catch (com.amazonaws.AmazonClientException e) {
         if (e.getMessage().contains("Unable to load AWS credentials")) {
           LOGGER.warning(
@@ -844,12 +1890,14 @@ public class CodeBuildCloud extends Cloud {
 
       }
 
-      // Sort them
-      Collections.sort(codebuildProjects);
-
-      // Add to options
-      for (String item : codebuildProjects) {
-        options.add(item);
+      // Add to options, already sorted
+      for (String item : codebuildProjects.getNames()) {
+        Integer limit = codebuildProjects.getLimit(item);
+        if (limit == null) {
+          options.add(item);
+        } else {
+          options.add(String.format("%s (%d concurrent builds)", item, limit), item);
+        }
       }
 
       return options;
@@ -862,6 +1910,11 @@ public class CodeBuildCloud extends Cloud {
 
     @POST
     public FormValidation doCheckBuildSpec(@QueryParameter String value) {
+      return checkYaml(value);
+    }
+
+    // Shared with CodeBuildAgentTemplate
+    static FormValidation checkYaml(String value) {
       getJenkins().checkPermission(Jenkins.ADMINISTER);
 
       // Validate its correct YAML at least
@@ -875,6 +1928,11 @@ public class CodeBuildCloud extends Cloud {
 
     @POST
     public ListBoxModel doFillEnvironmentTypeItems() {
+      return environmentTypeItems();
+    }
+
+    // Shared with CodeBuildAgentTemplate
+    static ListBoxModel environmentTypeItems() {
       final StandardListBoxModel options = new StandardListBoxModel();
       options.includeEmptyValue();
 
@@ -903,6 +1961,32 @@ public class CodeBuildCloud extends Cloud {
 
     @POST
     public ListBoxModel doFillComputeTypeItems() {
+      return computeTypeItems();
+    }
+
+    // Shared with CodeBuildAgentTemplate. On-demand compute types followed by the
+    // fleets configured on any CodeBuild cloud.
+    static ListBoxModel computeTypeItems() {
+      final ListBoxModel options = onDemandComputeTypeItems();
+
+      // NO AWS API Calls here
+      Set<String> fleets = new TreeSet<String>();
+      for (Cloud c : getJenkins().clouds) {
+        if (c instanceof CodeBuildCloud) {
+          for (CodeBuildFleet f : ((CodeBuildCloud) c).getFleets()) {
+            fleets.add(f.getComputeType());
+          }
+        }
+      }
+      for (String fleet : fleets) {
+        options.add("Fleet " + fleet.substring(CodeBuildFleet.COMPUTE_TYPE_PREFIX.length()), fleet);
+      }
+
+      return options;
+    }
+
+    // Shared with CodeBuildFleet
+    static ListBoxModel onDemandComputeTypeItems() {
       final StandardListBoxModel options = new StandardListBoxModel();
       options.includeEmptyValue();
       // From here:
@@ -917,6 +2001,38 @@ public class CodeBuildCloud extends Cloud {
       return options;
     }
 
+    @POST
+    public ListBoxModel doFillBackendStrategyItems() {
+      getJenkins().checkPermission(Jenkins.ADMINISTER);
+
+      final ListBoxModel options = new ListBoxModel();
+      options.add("Fill backends in order", BACKEND_STRATEGY_ORDERED);
+      options.add("Spread agents by weight", BACKEND_STRATEGY_WEIGHTED);
+      return options;
+    }
+
+    @POST
+    public ListBoxModel doFillRightSizingModeItems() {
+      getJenkins().checkPermission(Jenkins.ADMINISTER);
+
+      final ListBoxModel options = new ListBoxModel();
+      options.add("Off", RIGHT_SIZING_OFF);
+      options.add("Recommend on the cloud page", RIGHT_SIZING_RECOMMEND);
+      options.add("Start agents with the recommended compute type", RIGHT_SIZING_AUTO);
+      return options;
+    }
+
+    @POST
+    public FormValidation doCheckRightSizingTolerance(@QueryParameter String value) {
+      return checkValue(value, 0, 1000, "Invalid Right-Sizing Tolerance Specified. ");
+    }
+
+    // Special naming convention that makes jelly work get****
+    @POST
+    public Integer getDefaultRightSizingTolerance() {
+      return DEFAULT_RIGHT_SIZING_TOLERANCE;
+    }
+
     @POST
     public FormValidation doCheckComputeType(@QueryParameter String value) {
       return checkValue(value, "Must include a Compute Type");
@@ -946,6 +2062,120 @@ public class CodeBuildCloud extends Cloud {
       return checkValue(value, 1, Integer.MAX_VALUE, "Invalid Max Agent Specified. ");
     }
 
+    // Special naming convention that makes jelly work get****
+    @POST
+    public Integer getDefaultStartBuildRate() {
+      return DEFAULT_START_BUILD_RATE;
+    }
+
+    // Special naming convention that makes jelly work get****
+    @POST
+    public Integer getDefaultStartBuildBurst() {
+      return DEFAULT_START_BUILD_BURST;
+    }
+
+    @POST
+    public FormValidation doCheckMinIdleAgents(@QueryParameter String value) {
+      return checkValue(value, 0, Integer.MAX_VALUE, "Invalid Minimum Idle Agents Specified. ");
+    }
+
+    @POST
+    public FormValidation doCheckWarmPoolIdleMinutes(@QueryParameter String value) {
+      return checkValue(value, 1, Integer.MAX_VALUE, "Invalid Idle Agent TTL Specified. ");
+    }
+
+    // Special naming convention that makes jelly work get****
+    @POST
+    public Integer getDefaultWarmPoolIdleMinutes() {
+      return DEFAULT_WARM_POOL_IDLE_MINUTES;
+    }
+
+    @POST
+    public FormValidation doCheckPhaseTimeouts(@QueryParameter String value,
+        @QueryParameter String agentConnectTimeout) {
+      getJenkins().checkPermission(Jenkins.ADMINISTER);
+      Map<String, Long> timeouts;
+      try {
+        timeouts = parsePhaseTimeouts(value);
+      } catch (IllegalArgumentException e) {
+        return FormValidation.error("Invalid phase timeouts: " + e.getMessage());
+      }
+      long connect = NumberUtils.toLong(agentConnectTimeout, DEFAULT_AGENT_CONNECT_TIMEOUT);
+      for (Map.Entry<String, Long> e : timeouts.entrySet()) {
+        if (e.getValue() >= connect) {
+          return FormValidation.warning(String.format(
+              "%s=%s never applies, the Agent Connection Timeout of %s seconds ends the agent first", e.getKey(),
+              e.getValue(), connect));
+        }
+      }
+      return FormValidation.ok();
+    }
+
+    // Special naming convention that makes jelly work get****
+    @POST
+    public String getDefaultPhaseTimeouts() {
+      return DEFAULT_PHASE_TIMEOUTS;
+    }
+
+    @POST
+    public FormValidation doCheckWarmPoolSchedule(@QueryParameter String value) {
+      getJenkins().checkPermission(Jenkins.ADMINISTER);
+      if (StringUtils.isBlank(value)) {
+        return FormValidation.ok();
+      }
+      try {
+        CronTabList.create(value);
+      } catch (Exception e) {
+        return FormValidation.error("Invalid schedule: " + e.getMessage());
+      }
+
+      // The schedule is checked every minute, a line only keeps the pool active
+      // during the minutes it matches
+      for (String line : value.split("\\r?\\n")) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#") || line.startsWith("TZ=")) {
+          continue;
+        }
+        String minutes = line.split("\\s+")[0];
+        if (minutes.startsWith("@") || minutes.contains("H")) {
+          return FormValidation.error(String.format(
+              "'%s' only keeps the pool active for single minutes, use * for the minutes, IE: * 7-18 * * 1-5", line));
+        }
+        if (!"*".equals(minutes)) {
+          return FormValidation.warning(String.format(
+              "'%s' only keeps the pool active during minutes %s, use * to keep it active the whole hour", line,
+              minutes));
+        }
+      }
+      return FormValidation.ok();
+    }
+
+    @POST
+    public FormValidation doCheckForecastMaxAgents(@QueryParameter String value) {
+      return checkValue(value, 0, Integer.MAX_VALUE, "Invalid Predictive Agent Budget Specified. ");
+    }
+
+    @POST
+    public FormValidation doCheckForecastLookaheadMinutes(@QueryParameter String value) {
+      return checkValue(value, 1, 60, "Invalid Forecast Lookahead Specified. ");
+    }
+
+    // Special naming convention that makes jelly work get****
+    @POST
+    public Integer getDefaultForecastLookaheadMinutes() {
+      return DEFAULT_FORECAST_LOOKAHEAD_MINUTES;
+    }
+
+    @POST
+    public FormValidation doCheckStartBuildRate(@QueryParameter String value) {
+      return checkValue(value, 1, Integer.MAX_VALUE, "Invalid StartBuild rate Specified. ");
+    }
+
+    @POST
+    public FormValidation doCheckStartBuildBurst(@QueryParameter String value) {
+      return checkValue(value, 1, Integer.MAX_VALUE, "Invalid StartBuild burst Specified. ");
+    }
+
     @POST
     public String getDefaultJenkinsUrl() {
       JenkinsLocationConfiguration config = JenkinsLocationConfiguration.get();
@@ -0,0 +1,49 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+/**
+ * Background housekeeping for every {@link CodeBuildCloud}, run once a minute.
+ * Keeps the projects' concurrent build limits fresh, the warm pools and
+ * predicted demand topped up, re-evaluates compute type right-sizing and
+ * registers the metrics of new clouds.
+ */
+@Extension
+public class CodeBuildCloudMaintenance extends AsyncPeriodicWork {
+
+  public CodeBuildCloudMaintenance() {
+    super("CodeBuild Cloud Maintenance");
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long getRecurrencePeriod() {
+    return TimeUnit.MINUTES.toMillis(1);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected Level getNormalLoggingLevel() {
+    return Level.FINEST;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void execute(TaskListener listener) {
+    CodeBuildMetrics.syncCloudGauges();
+    for (Cloud c : Jenkins.get().clouds) {
+      if (c instanceof CodeBuildCloud) {
+        ((CodeBuildCloud) c).maintainConcurrentBuildLimits();
+        ((CodeBuildCloud) c).maintainIdleAgents();
+        ((CodeBuildCloud) c).maintainRightSizing();
+      }
+    }
+  }
+}
@@ -1,17 +1,27 @@
 package io.jenkins.plugins.codebuildcloud;
 
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import hudson.model.Executor;
 import hudson.model.Queue;
+import hudson.remoting.VirtualChannel;
 import hudson.slaves.AbstractCloudComputer;
+import jenkins.util.Timer;
 
 public class CodeBuildComputer extends AbstractCloudComputer<CodeBuildAgent> {
 
   private static final Logger LOGGER = Logger.getLogger(CodeBuildComputer.class.getName());
-  private String buildId;
+  private static final long SAMPLE_TIMEOUT_SECONDS = 10;
+  private static final long SAMPLE_CHECK_MILLIS = 500;
+  // Set by the launcher from a client thread
+  private volatile String buildId;
   private boolean completedWithoutErrors;
+  // Resource usage of the build container when the current task started
+  private Future<long[]> taskStartSample;
 
   public CodeBuildComputer(CodeBuildAgent agent) {
     super(agent);
@@ -37,6 +47,14 @@ public class CodeBuildComputer extends AbstractCloudComputer<CodeBuildAgent> {
   @Override
   public void taskAccepted(Executor executor, Queue.Task task) {
     super.taskAccepted(executor, task);
+    CodeBuildAgent node = getNode();
+    if (node != null && node.cloud != null) {
+      node.cloud.getRegistry().agentBusy(node.getNodeName());
+      node.cloud.getStartupLatency().mark(node.getNodeName(), CodeBuildStartupLatency.Stage.FIRST_TASK);
+      if (node.cloud.isRightSizingEnabled()) {
+        sampleTaskStart();
+      }
+    }
     LOGGER.log(Level.INFO, "[{0}]: JobName: {1}", new Object[] { this.getName(), task.getDisplayName() });
     LOGGER.log(Level.INFO, "[{0}]: JobUrl: {1}", new Object[] { this.getName(), task.getUrl() });
     LOGGER.log(Level.FINE, "[{0}]: taskAccepted", this);
@@ -45,6 +63,8 @@ public class CodeBuildComputer extends AbstractCloudComputer<CodeBuildAgent> {
   /** {@inheritDoc} */
   @Override
   public void taskCompleted(Executor executor, Queue.Task task, long durationMS) {
+    // Before the retention strategy gets to terminate the agent
+    recordResourceUsage(task, durationMS);
     super.taskCompleted(executor, task, durationMS);
     LOGGER.log(Level.FINE, "[{0}]: taskCompleted", this);
     completedWithoutErrors = true;
@@ -55,11 +75,82 @@ public class CodeBuildComputer extends AbstractCloudComputer<CodeBuildAgent> {
   @Override
   public void taskCompletedWithProblems(Executor executor, Queue.Task task, long durationMS, Throwable problems) {
     super.taskCompletedWithProblems(executor, task, durationMS, problems);
+    taskStartSample = null;
     LOGGER.severe(String.format("[%s]: Task in job '%s' completed with problems in %sms", this,
         task.getFullDisplayName(), durationMS));
     completedWithoutErrors = false;
   }
 
+  private void sampleTaskStart() {
+    VirtualChannel channel = getChannel();
+    if (channel == null) {
+      return;
+    }
+    try {
+      taskStartSample = channel.callAsync(new CodeBuildResourceSampler());
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, "[{0}]: Failed to sample resource usage: {1}", new Object[] { this, e });
+    }
+  }
+
+  /**
+   * Sample the build container again and feed the task's duration, CPU time and
+   * peak memory to the cloud's {@link CodeBuildRightSizer} once both samples are
+   * in. Returns right away, the samples are waited for on Jenkins' shared
+   * {@link Timer} so a slow or dying agent never holds up the executor.
+   */
+  private void recordResourceUsage(Queue.Task task, long durationMS) {
+    Future<long[]> start = taskStartSample;
+    taskStartSample = null;
+    CodeBuildAgent node = getNode();
+    VirtualChannel channel = getChannel();
+    if (start == null || node == null || node.cloud == null || node.template == null || channel == null) {
+      return;
+    }
+
+    Future<long[]> end;
+    try {
+      end = channel.callAsync(new CodeBuildResourceSampler());
+    } catch (IOException e) {
+      start.cancel(true);
+      LOGGER.log(Level.FINE, "[{0}]: Failed to sample resource usage: {1}", new Object[] { this, e });
+      return;
+    }
+    String taskName = task.getOwnerTask().getFullDisplayName();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SAMPLE_TIMEOUT_SECONDS);
+    Timer.get().schedule(() -> recordWhenSampled(node, taskName, durationMS, start, end, deadline),
+        SAMPLE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  private void recordWhenSampled(CodeBuildAgent node, String taskName, long durationMS, Future<long[]> start,
+      Future<long[]> end, long deadline) {
+    if (!start.isDone() || !end.isDone()) {
+      if (System.nanoTime() - deadline < 0) {
+        Timer.get().schedule(() -> recordWhenSampled(node, taskName, durationMS, start, end, deadline),
+            SAMPLE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+      } else {
+        start.cancel(true);
+        end.cancel(true);
+        LOGGER.log(Level.FINE, "[{0}]: Timed out sampling resource usage", this);
+      }
+      return;
+    }
+
+    try {
+      long[] before = start.get();
+      long[] after = end.get();
+      if (before[0] < 0 || after[0] < 0 || after[1] < 0) {
+        LOGGER.log(Level.FINE, "[{0}]: No cgroup resource usage available on agent", this);
+        return;
+      }
+      node.cloud.getRightSizer().record(node.template.getLabel(),
+          new CodeBuildRightSizer.Observation(node.template.getComputeType(), taskName, durationMS,
+              after[0] - before[0], after[1]));
+    } catch (Exception e) {
+      LOGGER.log(Level.FINE, "[{0}]: Failed to sample resource usage: {1}", new Object[] { this, e });
+    }
+  }
+
   /** {@inheritDoc} */
   @Override
   public String toString() {
@@ -0,0 +1,26 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.SlaveComputer;
+
+/**
+ * Completes the launch of a {@link CodeBuildAgent} once its agent connects, see
+ * {@link CodeBuildLauncher}.
+ */
+@Extension
+public class CodeBuildComputerListener extends ComputerListener {
+
+  /** {@inheritDoc} */
+  @Override
+  public void onOnline(Computer c, TaskListener listener) {
+    if (c instanceof CodeBuildComputer) {
+      SlaveComputer computer = (SlaveComputer) c;
+      if (computer.getLauncher() instanceof CodeBuildLauncher) {
+        ((CodeBuildLauncher) computer.getLauncher()).onOnline();
+      }
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+/**
+ * Drops the cached {@link CodeBuildLaunchTemplate} of every
+ * {@link CodeBuildCloud} when Jenkins' credentials are saved, so the next agent
+ * picks up changed proxy credentials. Shared CodeBuild clients look up their AWS
+ * credentials again too.
+ */
+@Extension
+public class CodeBuildCredentialsListener extends SaveableListener {
+
+  /** {@inheritDoc} */
+  @Override
+  public void onChange(Saveable o, XmlFile file) {
+    if (!(o instanceof SystemCredentialsProvider)) {
+      return;
+    }
+
+    CodeBuildClientWrapperFactory.credentialsChanged();
+    for (Cloud c : Jenkins.get().clouds) {
+      if (c instanceof CodeBuildCloud) {
+        ((CodeBuildCloud) c).invalidateLaunchTemplate();
+      }
+    }
+  }
+}
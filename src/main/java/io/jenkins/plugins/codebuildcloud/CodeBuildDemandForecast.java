@@ -0,0 +1,237 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.AtomicFileWriter;
+
+/**
+ * Remembers how many queue items arrive per label for every hour of the week so
+ * a {@link CodeBuildCloud} can start agents ahead of recurring spikes, IE: the
+ * morning rush or a nightly fan-out.
+ *
+ * Every label keeps 168 buckets (7 days x 24 hours). Once an hour is over its
+ * arrival count is folded into that hour's bucket with an exponential moving
+ * average, so recent weeks count more than old ones. An hour only partly
+ * watched, IE: the one Jenkins started in, is scaled up to a full hour, or left
+ * out when too little of it was watched.
+ *
+ * Arrivals are only counted in memory, the file is read and written by
+ * {@link #tick}, off the queue's lock. Persisted as one line per label, tab
+ * separated from the bucket values, in the cloud's directory under
+ * JENKINS_HOME. There is one instance per file, so the counts of the current
+ * hour outlive the cloud being saved.
+ */
+class CodeBuildDemandForecast {
+
+  private static final Logger LOGGER = Logger.getLogger(CodeBuildDemandForecast.class.getName());
+
+  static final int BUCKETS = 7 * 24;
+  private static final double ALPHA = 0.3;
+  private static final String FORMAT_VERSION = "v1";
+  private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+  // Hours watched for less than this are left out rather than scaled up
+  static final double MIN_WATCHED = 0.25;
+
+  private static final Map<File, CodeBuildDemandForecast> FORECASTS = new ConcurrentHashMap<File, CodeBuildDemandForecast>();
+
+  private final File file;
+  private final Map<String, double[]> rates = new HashMap<String, double[]>();
+  private final Map<String, Integer> currentCounts = new HashMap<String, Integer>();
+  private int currentBucket = -1;
+  // Part of the current bucket's hour the counts were taken in
+  private double currentWatched = 0;
+  private boolean loaded = false;
+
+  // Package level visibility for tests, see forFile
+  CodeBuildDemandForecast(@NonNull File file) {
+    this.file = file;
+  }
+
+  /**
+   * The forecast kept in the given file, shared by every instance of the cloud
+   * owning it.
+   */
+  @NonNull
+  static CodeBuildDemandForecast forFile(@NonNull File file) {
+    return FORECASTS.computeIfAbsent(file.getAbsoluteFile(), CodeBuildDemandForecast::new);
+  }
+
+  static int bucketOf(@NonNull Calendar when) {
+    return (when.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY) * 24 + when.get(Calendar.HOUR_OF_DAY);
+  }
+
+  /**
+   * Part of the hour of the given time still to come, 1 at the full hour.
+   */
+  static double restOfHour(@NonNull Calendar when) {
+    Calendar hour = (Calendar) when.clone();
+    hour.set(Calendar.MINUTE, 0);
+    hour.set(Calendar.SECOND, 0);
+    hour.set(Calendar.MILLISECOND, 0);
+    return 1 - (double) (when.getTimeInMillis() - hour.getTimeInMillis()) / HOUR_MILLIS;
+  }
+
+  /**
+   * A queue item for the given label arrived. Only counted, it goes to the hour
+   * being watched until the next {@link #tick}.
+   */
+  synchronized void recordArrival(@NonNull String label, @NonNull Calendar when) {
+    if (currentBucket == -1) {
+      watch(when);
+    }
+    currentCounts.merge(label, 1, Integer::sum);
+  }
+
+  private void watch(@NonNull Calendar when) {
+    currentBucket = bucketOf(when);
+    currentWatched = restOfHour(when);
+  }
+
+  /**
+   * Fold the last hour into the model once it is over. Called once a minute so
+   * hours without any arrivals count as zero.
+   */
+  synchronized void tick(@NonNull Calendar when) {
+    load();
+    int bucket = bucketOf(when);
+    if (currentBucket == -1) {
+      watch(when);
+      return;
+    }
+    if (bucket == currentBucket) {
+      return;
+    }
+
+    if (currentWatched >= MIN_WATCHED) {
+      Set<String> labels = new HashSet<String>(rates.keySet());
+      labels.addAll(currentCounts.keySet());
+      for (String label : labels) {
+        double[] r = rates.computeIfAbsent(label, k -> new double[BUCKETS]);
+        double count = currentCounts.getOrDefault(label, 0) / currentWatched;
+        r[currentBucket] += ALPHA * (count - r[currentBucket]);
+      }
+    } else {
+      LOGGER.fine(String.format("Leaving out bucket %d of %s, only %.0f%% of it was watched", currentBucket, file,
+          currentWatched * 100));
+    }
+
+    currentCounts.clear();
+    currentBucket = bucket;
+    // Ticks come every minute, the next hour is as good as fully watched
+    currentWatched = 1;
+    save();
+  }
+
+  /**
+   * Expected number of arrivals per label within the next minutes.
+   */
+  @NonNull
+  synchronized Map<String, Double> expectedArrivals(@NonNull Calendar from, int minutes) {
+    load();
+    Map<String, Double> expected = new HashMap<String, Double>();
+    for (Map.Entry<String, double[]> e : rates.entrySet()) {
+      Calendar c = (Calendar) from.clone();
+      double total = 0;
+      for (int m = 0; m < minutes; m++) {
+        total += e.getValue()[bucketOf(c)] / 60;
+        c.add(Calendar.MINUTE, 1);
+      }
+      expected.put(e.getKey(), total);
+    }
+    return expected;
+  }
+
+  // Package level visibility for the cloud page and tests
+  synchronized double getRate(@NonNull String label, int bucket) {
+    load();
+    double[] r = rates.get(label);
+    return r == null ? 0 : r[bucket];
+  }
+
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    if (!file.exists()) {
+      return;
+    }
+
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      if (!FORMAT_VERSION.equals(line)) {
+        LOGGER.warning("Ignoring demand forecast in unknown format: " + file);
+        return;
+      }
+      while ((line = reader.readLine()) != null) {
+        int tab = line.lastIndexOf('\t');
+        if (tab <= 0) {
+          continue;
+        }
+        String[] values = line.substring(tab + 1).split(",");
+        if (values.length != BUCKETS) {
+          continue;
+        }
+        double[] r = new double[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+          r[i] = Double.parseDouble(values[i]);
+        }
+        rates.put(line.substring(0, tab), r);
+      }
+    } catch (IOException | NumberFormatException e) {
+      LOGGER.log(Level.WARNING, "Failed to read demand forecast " + file, e);
+    }
+  }
+
+  private void save() {
+    try {
+      File dir = file.getParentFile();
+      if (dir != null) {
+        Files.createDirectories(dir.toPath());
+      }
+
+      AtomicFileWriter w = new AtomicFileWriter(file.toPath(), StandardCharsets.UTF_8);
+      try {
+        writeTo(w);
+        w.commit();
+      } finally {
+        w.abort();
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to save demand forecast " + file, e);
+    }
+  }
+
+  private void writeTo(Writer w) throws IOException {
+    w.write(FORMAT_VERSION);
+    w.write('\n');
+    for (Map.Entry<String, double[]> e : rates.entrySet()) {
+      w.write(e.getKey());
+      w.write('\t');
+      double[] r = e.getValue();
+      for (int i = 0; i < BUCKETS; i++) {
+        if (i > 0) {
+          w.write(',');
+        }
+        w.write(String.format(Locale.ROOT, "%.3f", r[i]));
+      }
+      w.write('\n');
+    }
+  }
+}
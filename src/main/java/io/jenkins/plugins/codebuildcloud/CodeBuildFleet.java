@@ -0,0 +1,142 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+
+/**
+ * A CodeBuild reserved-capacity fleet a {@link CodeBuildCloud} can start agents
+ * on. Fleets keep hosts warm so builds skip most of the on-demand provisioning
+ * time.
+ *
+ * Builds reach the fleet through a CodeBuild project whose environment is
+ * configured to use it. Agent templates pick the fleet as their compute type,
+ * IE: <code>fleet:linux-small</code>. Agents fill the fleet's capacity first and
+ * spill over to the overflow compute type on the cloud's own project once it is
+ * full.
+ */
+public class CodeBuildFleet extends AbstractDescribableImpl<CodeBuildFleet> {
+
+  static final String COMPUTE_TYPE_PREFIX = "fleet:";
+
+  @NonNull
+  private final String name;
+
+  @NonNull
+  private final String projectName;
+
+  @NonNull
+  private final Integer capacity;
+
+  @NonNull
+  private final String overflowComputeType;
+
+  @DataBoundConstructor
+  public CodeBuildFleet(@NonNull String name,
+      @NonNull String projectName,
+      Integer capacity,
+      String overflowComputeType) {
+    this.name = StringUtils.trimToEmpty(name);
+    this.projectName = StringUtils.trimToEmpty(projectName);
+    this.capacity = capacity == null || capacity < 0 ? 0 : capacity;
+    this.overflowComputeType = StringUtils.trimToEmpty(overflowComputeType);
+  }
+
+  @NonNull
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * CodeBuild project whose environment runs on this fleet.
+   */
+  @NonNull
+  public String getProjectName() {
+    return projectName;
+  }
+
+  /**
+   * Builds the fleet runs at once, IE: its base capacity.
+   */
+  @NonNull
+  public Integer getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * On-demand compute type for agents once the fleet is full, blank to wait for
+   * the fleet instead.
+   */
+  @NonNull
+  public String getOverflowComputeType() {
+    return overflowComputeType;
+  }
+
+  /**
+   * Compute type value agent templates use to select this fleet.
+   */
+  @NonNull
+  String getComputeType() {
+    return COMPUTE_TYPE_PREFIX + name;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return String.format("fleet<%s, %s, %s>", name, projectName, capacity);
+  }
+
+  @Extension
+  public static class DescriptorImpl extends Descriptor<CodeBuildFleet> {
+
+    @POST
+    public FormValidation doCheckName(@QueryParameter String value) {
+      Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+      if (StringUtils.isBlank(value)) {
+        return FormValidation.error("Must include the fleet name");
+      }
+      return FormValidation.ok();
+    }
+
+    @POST
+    public FormValidation doCheckProjectName(@QueryParameter String value) {
+      Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+      if (StringUtils.isBlank(value)) {
+        return FormValidation.error("Must include a CodeBuild project that runs on the fleet");
+      }
+      return FormValidation.ok();
+    }
+
+    @POST
+    public FormValidation doCheckCapacity(@QueryParameter String value) {
+      Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+      try {
+        if (Integer.parseInt(value) >= 1) {
+          return FormValidation.ok();
+        }
+      } catch (NumberFormatException e) {
+        // Fall through
+      }
+      return FormValidation.error("Capacity must be at least 1");
+    }
+
+    @POST
+    public ListBoxModel doFillOverflowComputeTypeItems() {
+      return CodeBuildCloud.DescriptorImpl.onDemandComputeTypeItems();
+    }
+
+    @Override
+    public String getDisplayName() {
+      return "CodeBuild Fleet";
+    }
+  }
+}
@@ -94,6 +94,15 @@ public class CodeBuildJnlpAgentReceiver extends DefaultJnlpSlaveReceiver {
       return;
     }
 
+    allowedIPs = parseAllowedIPs(body);
+    LOGGER.info("Allowed AWS CodeBuild IPs Length refresh: " + allowedIPs.size());
+  }
+
+  /**
+   * CodeBuild ranges of an ip-ranges.json document.
+   */
+  // Package level visibility for benchmarks
+  static List<IPAddressString> parseAllowedIPs(String body) {
     Map<String, List<String>> map = new HashMap<String, List<String>>();
     map.put("EC2", new ArrayList<String>());
     map.put("CODEBUILD", new ArrayList<String>());
@@ -112,9 +121,17 @@ public class CodeBuildJnlpAgentReceiver extends DefaultJnlpSlaveReceiver {
         final_list.add(new IPAddressString(ip));
       }
     }
+    return final_list;
+  }
 
-    LOGGER.info("Allowed AWS CodeBuild IPs Length refresh: " + final_list.size());
-    allowedIPs = final_list;
+  // Package level visibility for benchmarks
+  static boolean isAllowed(List<IPAddressString> allowed, IPAddressString agentRequestIP) {
+    for (IPAddressString amazoncidr : allowed) {
+      if (amazoncidr.contains(agentRequestIP)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   @Override
@@ -145,6 +162,7 @@ public class CodeBuildJnlpAgentReceiver extends DefaultJnlpSlaveReceiver {
 
     // Then it is within our domain to accept/reject
     CodeBuildLauncher ourLauncher = (CodeBuildLauncher) launcher;
+    ourLauncher.cloud.getStartupLatency().mark(clientName, CodeBuildStartupLatency.Stage.HANDSHAKE);
 
     // Is enabled? Use default if not
     if (!ourLauncher.cloud.getVerifyIsCodeBuildIPOnJNLP()) {
@@ -159,13 +177,7 @@ public class CodeBuildJnlpAgentReceiver extends DefaultJnlpSlaveReceiver {
     // Check now
     IPAddressString agentRequestIP = new IPAddressString(event.getSocket().getInetAddress().getHostAddress());
 
-    boolean valid_ip = false;
-    for (IPAddressString amazoncidr : allowedIPs) {
-      if (amazoncidr.contains(agentRequestIP)) {
-        valid_ip = true;
-        break;
-      }
-    }
+    boolean valid_ip = isAllowed(allowedIPs, agentRequestIP);
 
     LOGGER.finest("Is Valid IP: " + valid_ip);
     if (valid_ip) {
@@ -173,6 +185,7 @@ public class CodeBuildJnlpAgentReceiver extends DefaultJnlpSlaveReceiver {
       super.afterProperties(event);
     } else {
       // Is not a CodeBuild IP - Break off any connectivity.
+      CodeBuildMetrics.JNLP_REJECTED.inc();
       event.reject(new ConnectionRefusalException("Invalid Source IP, was not from AWS CodeBuild"));
     }
   }
@@ -0,0 +1,70 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations in milliseconds.
+ *
+ * Buckets grow by {@link #GROWTH} so any percentile is within about 5% of the
+ * true value, from 1ms up to {@link #MAX_MS}. Recording is one increment on an
+ * {@link AtomicLongArray}, percentiles are read by walking the buckets.
+ */
+class CodeBuildLatencyHistogram {
+
+  static final double GROWTH = 1.1;
+  static final long MAX_MS = 24L * 60 * 60 * 1000;
+  private static final double LOG_GROWTH = Math.log(GROWTH);
+  private static final int BUCKETS = bucketOf(MAX_MS) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  static int bucketOf(long ms) {
+    if (ms <= 1) {
+      return 0;
+    }
+    return (int) Math.ceil(Math.log(Math.min(ms, MAX_MS)) / LOG_GROWTH);
+  }
+
+  /** Upper bound of the bucket in milliseconds. */
+  static long upperBound(int bucket) {
+    return Math.min(MAX_MS, Math.round(Math.pow(GROWTH, bucket)));
+  }
+
+  void record(long ms) {
+    counts.incrementAndGet(bucketOf(Math.max(0, ms)));
+  }
+
+  long getCount() {
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += counts.get(i);
+    }
+    return total;
+  }
+
+  /**
+   * Duration in milliseconds at or below which the given fraction of the
+   * recorded durations are, 0 when nothing was recorded.
+   */
+  long percentile(double fraction) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(fraction * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return upperBound(i);
+      }
+    }
+    return MAX_MS;
+  }
+}
@@ -0,0 +1,178 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.amazonaws.services.codebuild.model.EnvironmentVariable;
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.security.ACL;
+
+/**
+ * The environment variables every agent of a {@link CodeBuildCloud} is started
+ * with, worked out once.
+ *
+ * Looking up the proxy credentials scans the whole credential store and the
+ * connection settings take a fair bit of string building, none of which changes
+ * from one agent to the next. A launch only adds the agent's name and JNLP
+ * secret. The cloud drops its template when a connection setting changes and
+ * {@link CodeBuildCredentialsListener} when credentials are saved. Templates
+ * older than {@link #MAX_AGE_MINUTES} are rebuilt in case credentials changed
+ * somewhere nobody is told about, IE: an external credentials provider.
+ */
+final class CodeBuildLaunchTemplate {
+
+  static final long MAX_AGE_MINUTES = 15;
+
+  private final List<EnvironmentVariable> beforeAgent;
+  private final List<EnvironmentVariable> afterAgent;
+  private final long createdAt;
+
+  private CodeBuildLaunchTemplate(List<EnvironmentVariable> beforeAgent, List<EnvironmentVariable> afterAgent) {
+    this.beforeAgent = Collections.unmodifiableList(beforeAgent);
+    this.afterAgent = Collections.unmodifiableList(afterAgent);
+    this.createdAt = System.nanoTime();
+  }
+
+  boolean isStale() {
+    return System.nanoTime() - createdAt > TimeUnit.MINUTES.toNanos(MAX_AGE_MINUTES);
+  }
+
+  /**
+   * The variables of one agent. Shared variables are copied, the request may be
+   * changed by the caller.
+   */
+  @NonNull
+  List<EnvironmentVariable> forAgent(@NonNull String secret, @NonNull String agentName) {
+    List<EnvironmentVariable> mylist = new ArrayList<EnvironmentVariable>(beforeAgent.size() + afterAgent.size() + 2);
+    for (EnvironmentVariable v : beforeAgent) {
+      mylist.add(v.clone());
+    }
+    mylist.add(createEnvVariable("JENKINS_SECRET", secret));
+    mylist.add(createEnvVariable("JENKINS_AGENT_NAME", agentName));
+    for (EnvironmentVariable v : afterAgent) {
+      mylist.add(v.clone());
+    }
+    return mylist;
+  }
+
+  @NonNull
+  static CodeBuildLaunchTemplate of(@NonNull CodeBuildCloud cloud) {
+    List<EnvironmentVariable> mylist = new ArrayList<EnvironmentVariable>();
+
+    String proxyCredentials = lookupProxyCredentials(cloud);
+
+    // Next section based on below script and my own design for buildspec files
+    // https://github.com/jenkinsci/docker-inbound-agent/blob/62ee56932623a0a66179b0130da806c39d5c323f/jenkins-agent#L27-L39
+
+    // 3 primary use cases
+    // Direct
+    // Websocket
+    // Everything else
+
+    // Direct use case
+    if (StringUtils.isNotEmpty(cloud.getDirect())) {
+      // Cannot include URL or Tunnel forbids = {"-url", "-tunnel"}
+
+      mylist.add(createEnvVariable("JENKINS_DIRECT_CONNECTION", cloud.getDirect()));
+      mylist.add(createEnvVariable("JENKINS_INSTANCE_IDENTITY", cloud.getControllerIdentity().getPlainText()));
+
+      if (StringUtils.isNotEmpty(cloud.getProtocols())) {
+        mylist.add(createEnvVariable("JENKINS_PROTOCOLS", cloud.getProtocols()));
+      }
+
+      if (StringUtils.isNotEmpty(proxyCredentials)) {
+        mylist.add(createEnvVariable("JENKINS_CODEBUILD_PROXY_CREDENTIALS",
+            "-proxyCredentials " + proxyCredentials));
+      }
+
+      if (cloud.getNoKeepAlive()) {
+        mylist.add(createEnvVariable("JENKINS_CODEBUILD_NOKEEPALIVE", "-noKeepAlive"));
+      }
+
+      if (cloud.getDisableHttpsCertValidation()) {
+        mylist.add(createEnvVariable("JENKINS_CODEBUILD_DISABLE_SSL_VALIDATION", "-disableHttpsCertValidation"));
+      }
+    } else if (cloud.getWebSocket()) { // websocket use case
+      mylist.add(createEnvVariable("JENKINS_WEB_SOCKET", "true"));
+      mylist.add(createEnvVariable("JENKINS_URL", cloud.getJenkinsUrl()));
+    } else {
+      if (StringUtils.isNotEmpty(cloud.getTunnel())) {
+        mylist.add(createEnvVariable("JENKINS_TUNNEL", cloud.getTunnel()));
+      }
+
+      mylist.add(createEnvVariable("JENKINS_URL", cloud.getJenkinsUrl()));
+
+      if (StringUtils.isNotEmpty(proxyCredentials)) {
+        mylist.add(createEnvVariable("JENKINS_CODEBUILD_PROXY_CREDENTIALS",
+            "-proxyCredentials " + proxyCredentials));
+      }
+
+      if (cloud.getNoKeepAlive()) {
+        mylist.add(createEnvVariable("JENKINS_CODEBUILD_NOKEEPALIVE", "-noKeepAlive"));
+      }
+
+      if (cloud.getDisableHttpsCertValidation()) {
+        mylist.add(createEnvVariable("JENKINS_CODEBUILD_DISABLE_SSL_VALIDATION", "-disableHttpsCertValidation"));
+      }
+    }
+
+    // no forbids or dependencies - all agent types get them
+    if (cloud.getNoReconnect()) {
+      mylist.add(createEnvVariable("JENKINS_CODEBUILD_NORECONNECT", "-noreconnect"));
+    }
+
+    // Extra helper environment variables for downloading the JAR file instead of
+    // over the internet
+    List<EnvironmentVariable> after = new ArrayList<EnvironmentVariable>();
+    try {
+      java.net.URL myurl = new java.net.URL(cloud.getJenkinsUrl());
+
+      after.add(createEnvVariable("JENKINS_CODEBUILD_AGENT_URL",
+          myurl.getProtocol() + "://" + myurl.getAuthority() + "/jnlpJars/agent.jar"));
+    } catch (MalformedURLException e) {
+      after.add(createEnvVariable("JENKINS_CODEBUILD_AGENT_URL", "ERROR"));
+    }
+
+    return new CodeBuildLaunchTemplate(mylist, after);
+  }
+
+  @CheckForNull
+  private static String lookupProxyCredentials(@NonNull CodeBuildCloud cloud) {
+    String proxyCredentialId = cloud.getProxyCredentialsId();
+    String proxyCredentials = null;
+    if (!StringUtils.isBlank(proxyCredentialId)) {
+
+      StandardUsernamePasswordCredentials mycreds = CredentialsMatchers.firstOrNull(
+          CredentialsProvider.lookupCredentials(StandardUsernamePasswordCredentials.class,
+              CodeBuildCloud.getJenkins(),
+              ACL.SYSTEM,
+              Collections.emptyList()),
+          CredentialsMatchers.withId(proxyCredentialId));
+
+      if (mycreds != null) {
+        proxyCredentials = mycreds.getUsername() + ":" + mycreds.getPassword().getPlainText();
+      }
+    }
+
+    return proxyCredentials;
+  }
+
+  private static EnvironmentVariable createEnvVariable(String key, String value) {
+    EnvironmentVariable var1 = new EnvironmentVariable();
+    var1.setName(key);
+    var1.setType("PLAINTEXT");
+    var1.setValue(value);
+
+    return var1;
+  }
+}
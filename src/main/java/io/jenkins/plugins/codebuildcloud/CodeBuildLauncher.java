@@ -2,40 +2,50 @@ package io.jenkins.plugins.codebuildcloud;
 
 import java.io.IOException;
 import java.io.InvalidObjectException;
-import java.net.MalformedURLException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
+import com.amazonaws.services.codebuild.model.Build;
+import com.amazonaws.services.codebuild.model.BuildPhase;
 import com.amazonaws.services.codebuild.model.EnvironmentVariable;
 import com.amazonaws.services.codebuild.model.SourceType;
 import com.amazonaws.services.codebuild.model.StartBuildRequest;
 import com.amazonaws.services.codebuild.model.StartBuildResult;
-import com.cloudbees.plugins.credentials.Credentials;
-import com.cloudbees.plugins.credentials.CredentialsMatchers;
-import com.cloudbees.plugins.credentials.CredentialsProvider;
-import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Computer;
 import hudson.model.Node;
 import hudson.model.TaskListener;
-import hudson.security.ACL;
+import hudson.model.labels.LabelAtom;
 import hudson.slaves.JNLPLauncher;
 import hudson.slaves.SlaveComputer;
 import hudson.util.StreamTaskListener;
-import io.jenkins.cli.shaded.org.apache.commons.lang.StringUtils;
 import io.jenkins.plugins.codebuildcloud.CodeBuildClientWrapper.CodeBuildStatus;
+import jenkins.util.Timer;
 
 public class CodeBuildLauncher extends JNLPLauncher {
-  private static final int sleepMs = 500;
   private static final Logger LOGGER = Logger.getLogger(CodeBuildLauncher.class.getName());
-  private static final int CHECK_WITH_CODEBUILD_STATUS = Math.multiplyExact(30, 1000);
+
+  static final int MAX_START_ATTEMPTS = 5;
+  static final long RETRY_BASE_MILLIS = 1000;
+  static final long RETRY_MAX_MILLIS = 60000;
+  private static final Random RANDOM = new Random();
 
   public final CodeBuildCloud cloud;
-  private boolean launched = false;
+  private volatile boolean launched = false;
+
+  // Made when the launch starts the agent's build. Completed when the agent
+  // comes online, failed when the build could not be started, on a timeout or a
+  // build that ended before the agent connected
+  private transient volatile CompletableFuture<Void> connection;
 
   public CodeBuildLauncher(CodeBuildCloud cloud) {
     super(true);
@@ -48,11 +58,13 @@ public class CodeBuildLauncher extends JNLPLauncher {
     return !launched;
   }
 
-  /** {@inheritDoc} */
+  /**
+   * Start the agent's build. Returns once StartBuild is sent, so a manual launch
+   * or <code>connect</code> may come while the agent is still on its way; those
+   * are ignored rather than starting a second build for the same agent.
+   */
   @Override
-  public void launch(@NonNull SlaveComputer computer, @NonNull TaskListener listener) {
-    launched = false;
-
+  public synchronized void launch(@NonNull SlaveComputer computer, @NonNull TaskListener listener) {
     if (!(computer instanceof CodeBuildComputer)) {
       LOGGER.finest(String.format("Not launching %s since it is not the correct type (%s)", computer,
           CodeBuildComputer.class.getName()));
@@ -60,194 +72,303 @@ public class CodeBuildLauncher extends JNLPLauncher {
     }
 
     CodeBuildComputer codebuildComputer = (CodeBuildComputer) computer;
+    CompletableFuture<Void> pending = connection;
+    if (codebuildComputer.getBuildId() != null || (pending != null && !pending.isDone())) {
+      LOGGER.info(String.format("Not launching %s again, its build was already started", computer));
+      return;
+    }
+    launched = false;
+
     CodeBuildAgent node = codebuildComputer.getNode();
     if (node == null) {
       LOGGER.severe(String.format("Not launching %s since it is missing a node.", computer.getName()));
       return;
     }
 
+    if (node.template == null) {
+      LOGGER.severe(String.format("Not launching %s since it is missing an agent template.", computer.getName()));
+      return;
+    }
+
     LOGGER.info(String.format("Launching %s with %s", computer, listener));
 
     // Extra ENV Variables to add to the
     List<EnvironmentVariable> myenvcollection = buildEnvVariableCollection(computer, node);
 
-    StartBuildRequest req = new StartBuildRequest()
-        .withProjectName(cloud.getCodeBuildProjectName())
-        .withSourceTypeOverride(SourceType.NO_SOURCE)
-        .withImageOverride(cloud.getDockerImage())
-        .withEnvironmentTypeOverride(cloud.getEnvironmentType())
-        .withPrivilegedModeOverride(true)
-        .withEnvironmentVariablesOverride(myenvcollection)
-        .withComputeTypeOverride(cloud.getComputeType())
-        .withImagePullCredentialsTypeOverride(cloud.getDockerImagePullCredentials())
-        .withBuildspecOverride(cloud.getBuildSpec());
-
-    String buildId = null;
-
-    try {
-      StartBuildResult res = cloud.getClient().startBuild(req);
-      buildId = res.getBuild().getId();
-      codebuildComputer.setBuildId(buildId);
-
-      waitForAgentConnection(computer, buildId, node);
+    StartBuildRequest req = buildStartBuildRequest(node.template, node.backend, myenvcollection);
 
-      launched = true;
+    connection = new CompletableFuture<Void>();
+    startBuild(codebuildComputer, node, req, 1);
+  }
 
-    } catch (Exception e) {
+  /**
+   * Jittered exponential backoff before the given attempt, IE: a random delay of
+   * up to {@link #RETRY_BASE_MILLIS} times 2^(attempt - 2), capped at
+   * {@link #RETRY_MAX_MILLIS}.
+   */
+  // Package level visibility for tests
+  static long retryDelayMillis(int attempt, @NonNull Random random) {
+    long ceiling = Math.min(RETRY_MAX_MILLIS, RETRY_BASE_MILLIS << Math.min(20, Math.max(0, attempt - 2)));
+    return 1 + (long) (random.nextDouble() * ceiling);
+  }
 
-      LOGGER.severe(String.format("Exception while starting build: %s.  Exception %s", e.getMessage(), e));
-      listener.fatalError("Exception while starting build: %s", e.getMessage());
+  /**
+   * Start the agent's build. Calls CodeBuild rejects for now, see
+   * {@link CodeBuildCircuitBreaker#isTransient}, are tried again after a backoff
+   * while the node is kept; other failures terminate the agent.
+   */
+  private void startBuild(@NonNull CodeBuildComputer computer, @NonNull CodeBuildAgent node,
+      @NonNull StartBuildRequest req, int attempt) {
+    if (CodeBuildCloud.getJenkins().getNode(node.getNodeName()) == null) {
+      LOGGER.info(String.format("Not starting a build for %s, it was removed", node.getNodeName()));
+      return;
+    }
 
-      // Node will stop the AWS CodeBuild build. See _terminate
-      try {
-        node.terminate();
-      } catch (IOException | InterruptedException e1) {
-        LOGGER.severe(String.format("Failed to terminate agent: %s.  Exception: %s", node.getDisplayName(), e));
-      }
+    // Stay within the account's StartBuild rate instead of getting throttled.
+    // Build batches take their permit when they are flushed.
+    long waitNanos = cloud.getBatchLaunch() ? 0 : cloud.getGovernor(node.backend).reserve();
+    if (waitNanos > 0) {
+      // Wait for the permit on the shared timer, not on a parked thread
+      Timer.get().schedule(() -> sendStartBuild(computer, node, req, attempt), waitNanos, TimeUnit.NANOSECONDS);
+      return;
     }
+    sendStartBuild(computer, node, req, attempt);
   }
 
-  private void waitForAgentConnection(@NonNull SlaveComputer computer, @NonNull String buildId, @NonNull Node node)
-      throws TimeoutException, InvalidObjectException, InterruptedException {
-    LOGGER.info(String.format("Waiting for agent '%s' to connect with build ID: %s...", computer, buildId));
-
-    int checkbuildcounter = 0;
-    for (int i = 0; i < cloud.getAgentConnectTimeout() * (1000 / sleepMs); i++) {
-      if (computer.isOnline() && computer.isAcceptingTasks()) {
-        LOGGER.info(String.format(" Agent '%s' connected to build ID: %s.", computer, buildId));
-        return;
-      }
-      Thread.sleep(sleepMs);
-      checkbuildcounter += sleepMs;
-
-      // Has it been 30 second or longer? Run request to ask Codebuild status of the
-      // build. This allows us to fail fast on this side of the connection.
-      if (checkbuildcounter > 30000) {
-        checkbuildcounter = 0; // Reset
-
-        // Should be inprogress only at this point.
-        cloud.getClient().checkBuildStatus(buildId, Arrays.asList(CodeBuildStatus.FAILED,
-            CodeBuildStatus.FAULT,
-            CodeBuildStatus.STOPPED,
-            CodeBuildStatus.SUCCEEDED,
-            CodeBuildStatus.TIMED_OUT));
+  private void sendStartBuild(@NonNull CodeBuildComputer computer, @NonNull CodeBuildAgent node,
+      @NonNull StartBuildRequest req, int attempt) {
+    final CodeBuildCircuitBreaker breaker = node.backend == null ? cloud.getPrimaryBackend().getCircuitBreaker()
+        : node.backend.getCircuitBreaker();
+    if (!breaker.allowRequest()) {
+      if (attempt >= MAX_START_ATTEMPTS) {
+        // Terminating calls CodeBuild, keep it off the timer
+        Computer.threadPoolForRemoting.submit(() -> launchFailed(node,
+            new IllegalStateException("CodeBuild calls are paused for " + breaker.getKey())));
+      } else {
+        retryStartBuild(computer, node, req, attempt, breaker.getRemainingOpenMillis(), null);
       }
+      return;
     }
-    throw new TimeoutException("Timed out while waiting for agent " + node + " to start for build ID: " + buildId);
-  }
 
-  private String lookupProxyCredentials() {
-    String proxyCredentialId = cloud.getProxyCredentialsId();
-    String proxyCredentials = null;
-    if (!StringUtils.isBlank(proxyCredentialId)) {
-
-      @SuppressWarnings("unchecked")
-      List<StandardUsernamePasswordCredentials> creds = (List<StandardUsernamePasswordCredentials>) CredentialsProvider
-          .lookupCredentials(StandardUsernamePasswordCredentials.class,
-              cloud.getJenkins(),
-              ACL.SYSTEM,
-              Collections.EMPTY_LIST);
+    CompletableFuture<Build> started;
+    if (cloud.getBatchLaunch()) {
+      // Joins the other agents of this provisioning round in one build batch
+      started = cloud.getBatchLauncher().submit(node.getClient(), cloud.getGovernor(node.backend), req);
+    } else {
+      started = node.getClient().startBuildAsync(req).thenApply(StartBuildResult::getBuild);
+    }
 
-      Credentials c = CredentialsMatchers.firstOrNull(creds, CredentialsMatchers.withId(proxyCredentialId));
+    // The launch returns once the request is sent, the build is started and
+    // waited for without holding a thread
+    started.whenComplete((build, e) -> {
+      if (e != null) {
+        // The launch listener may be closed by now, launchFailed logs it instead
+        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+        if (CodeBuildCircuitBreaker.isTransient(cause)) {
+          breaker.onRejected();
+          if (node.backend != null && cause instanceof Exception) {
+            // Later agents go to another backend while this one is saturated
+            node.backend.onStartBuildFailure((Exception) cause);
+          }
+          if (attempt < MAX_START_ATTEMPTS) {
+            retryStartBuild(computer, node, req, attempt, 0, cause);
+            return;
+          }
+        } else {
+          breaker.onSuccess();
+        }
+        // Terminating calls CodeBuild, keep it off the client's threads
+        Computer.threadPoolForRemoting.submit(() -> launchFailed(node, cause));
+        return;
+      }
+      breaker.onSuccess();
 
-      if (c != null) {
-        StandardUsernamePasswordCredentials mycreds = (StandardUsernamePasswordCredentials) c;
-        proxyCredentials = mycreds.getUsername() + ":" + mycreds.getPassword().getPlainText();
-        // LOGGER.info("Proxy Credentials:" + proxyCredentials);
+      String buildId = build.getId();
+      computer.setBuildId(buildId);
+      cloud.getStartupLatency().mark(node.getNodeName(), CodeBuildStartupLatency.Stage.BUILD_STARTED);
+      if (CodeBuildStatus.IN_PROGRESS.name().equals(build.getBuildStatus())) {
+        cloud.getStartupLatency().mark(node.getNodeName(), CodeBuildStartupLatency.Stage.IN_PROGRESS);
       }
-    }
 
-    return proxyCredentials;
+      waitForAgentConnection(computer, buildId, node);
+    });
   }
 
-  private List<EnvironmentVariable> buildEnvVariableCollection(@NonNull SlaveComputer computer, @NonNull Node node) {
-    List<EnvironmentVariable> mylist = new ArrayList<EnvironmentVariable>();
-
-    String proxyCredentials = lookupProxyCredentials();
-
-    // Next section based on below script and my own design for buildspec files
-    // https://github.com/jenkinsci/docker-inbound-agent/blob/62ee56932623a0a66179b0130da806c39d5c323f/jenkins-agent#L27-L39
-
-    // 3 primary use cases
-    // Direct
-    // Websocket
-    // Everything else
-
-    // Direct use case
-    if (StringUtils.isNotEmpty(cloud.getDirect())) {
-      // Cannot include URL or Tunnel forbids = {"-url", "-tunnel"}
+  private void retryStartBuild(@NonNull CodeBuildComputer computer, @NonNull CodeBuildAgent node,
+      @NonNull StartBuildRequest req, int attempt, long atLeastMillis, Throwable cause) {
+    long delay = Math.max(atLeastMillis, retryDelayMillis(attempt + 1, RANDOM));
+    LOGGER.warning(String.format("Starting the build of %s failed on attempt %d, trying again in %d ms: %s",
+        node.getNodeName(), attempt, delay, cause == null ? "CodeBuild calls are paused" : cause.getMessage()));
+    Timer.get().schedule(() -> startBuild(computer, node, req, attempt + 1), delay, TimeUnit.MILLISECONDS);
+  }
 
-      mylist.add(createEnvVariable("JENKINS_DIRECT_CONNECTION", cloud.getDirect()));
-      mylist.add(createEnvVariable("JENKINS_INSTANCE_IDENTITY", cloud.getControllerIdentity().getPlainText()));
+  /**
+   * Give up on the agent. Node will stop the AWS CodeBuild build, see
+   * _terminate.
+   */
+  private void launchFailed(@NonNull CodeBuildAgent node, @NonNull Throwable e) {
+    if (e instanceof TimeoutException) {
+      CodeBuildMetrics.CONNECT_TIMEOUTS.inc();
+    }
+    if (node.backend != null && e instanceof Exception && node.backend.onStartBuildFailure((Exception) e)) {
+      LOGGER.warning(String.format("%s is saturated, no more agents are started there for a while", node.backend));
+    }
+    LOGGER.severe(String.format("Exception while starting build: %s.  Exception %s", e.getMessage(), e));
+    CompletableFuture<Void> pending = connection;
+    if (pending != null) {
+      pending.completeExceptionally(e);
+    }
 
-      if (StringUtils.isNotEmpty(cloud.getProtocols())) {
-        mylist.add(createEnvVariable("JENKINS_PROTOCOLS", cloud.getProtocols()));
-      }
+    try {
+      node.terminate();
+    } catch (IOException | InterruptedException e1) {
+      LOGGER.severe(String.format("Failed to terminate agent: %s.  Exception: %s", node.getDisplayName(), e));
+    }
 
-      if (StringUtils.isNotEmpty(proxyCredentials)) {
-        mylist.add(createEnvVariable("JENKINS_CODEBUILD_PROXY_CREDENTIALS",
-            "-proxyCredentials " + proxyCredentials));
+    if (e instanceof StalledBuildException) {
+      CodeBuildMetrics.STALLED_STARTS.inc();
+      // Do not wait for the next NodeProvisioner tick to replace it
+      for (LabelAtom l : node.getAssignedLabels()) {
+        l.nodeProvisioner.suggestReviewNow();
       }
+    }
+  }
 
-      if (cloud.getNoKeepAlive()) {
-        mylist.add(createEnvVariable("JENKINS_CODEBUILD_NOKEEPALIVE", "-noKeepAlive"));
-      }
+  /**
+   * Compute type, image and buildspec come from the template the agent was
+   * planned with, the project from the backend it was placed on. Agents on a
+   * fleet are started through the fleet's project, which brings its own compute
+   * and environment type.
+   */
+  // Package level visibility for tests
+  StartBuildRequest buildStartBuildRequest(@NonNull CodeBuildAgentTemplate template,
+      CodeBuildBackend backend, @NonNull List<EnvironmentVariable> env) {
+    StartBuildRequest req = new StartBuildRequest()
+        .withProjectName(backend == null ? cloud.getCodeBuildProjectName() : backend.getCodeBuildProjectName())
+        .withSourceTypeOverride(SourceType.NO_SOURCE)
+        .withImageOverride(template.getDockerImage())
+        .withPrivilegedModeOverride(template.getPrivilegedMode())
+        .withEnvironmentVariablesOverride(env)
+        .withImagePullCredentialsTypeOverride(cloud.getDockerImagePullCredentials())
+        .withBuildspecOverride(template.getBuildSpec());
 
-      if (cloud.getDisableHttpsCertValidation()) {
-        mylist.add(createEnvVariable("JENKINS_CODEBUILD_DISABLE_SSL_VALIDATION", "-disableHttpsCertValidation"));
-      }
-    } else if (cloud.getWebSocket()) { // websocket use case
-      mylist.add(createEnvVariable("JENKINS_WEB_SOCKET", "true"));
-      mylist.add(createEnvVariable("JENKINS_URL", cloud.getJenkinsUrl()));
-    } else {
-      if (StringUtils.isNotEmpty(cloud.getTunnel())) {
-        mylist.add(createEnvVariable("JENKINS_TUNNEL", cloud.getTunnel()));
-      }
+    CodeBuildFleet fleet = template.getFleet() == null ? null : cloud.getFleet(template.getFleet());
+    if (fleet != null) {
+      return req.withProjectName(fleet.getProjectName());
+    }
+    return req
+        .withEnvironmentTypeOverride(template.getEnvironmentType())
+        .withComputeTypeOverride(template.getComputeType());
+  }
 
-      mylist.add(createEnvVariable("JENKINS_URL", cloud.getJenkinsUrl()));
+  /**
+   * Wait for the agent to connect without holding a thread. The launch returns
+   * right away; the connection is completed by {@link #onOnline}, the timeout
+   * runs on Jenkins' shared {@link Timer} and the build's status comes from the
+   * client's {@link CodeBuildBuildStatusPoller}.
+   */
+  private void waitForAgentConnection(@NonNull SlaveComputer computer, @NonNull String buildId,
+      @NonNull CodeBuildAgent node) {
+    LOGGER.info(String.format("Waiting for agent '%s' to connect with build ID: %s...", computer, buildId));
 
-      if (StringUtils.isNotEmpty(proxyCredentials)) {
-        mylist.add(createEnvVariable("JENKINS_CODEBUILD_PROXY_CREDENTIALS",
-            "-proxyCredentials " + proxyCredentials));
+    CompletableFuture<Void> current = connection;
+    final CompletableFuture<Void> pending = current == null ? new CompletableFuture<Void>() : current;
+    connection = pending;
+
+    // Follow the status of the build. This allows us to fail fast on this side of
+    // the connection. Stays tracked for the agent's life, see _terminate
+    node.getClient().getStatusPoller().track(buildId, build -> onBuildStatus(pending, node, build));
+    final ScheduledFuture<?> timeout = Timer.get().schedule(
+        () -> pending.completeExceptionally(new TimeoutException(
+            "Timed out while waiting for agent " + node + " to start for build ID: " + buildId)),
+        cloud.getAgentConnectTimeout(), TimeUnit.SECONDS);
+
+    pending.whenComplete((v, e) -> {
+      timeout.cancel(false);
+      if (e == null) {
+        LOGGER.info(String.format(" Agent '%s' connected to build ID: %s.", computer, buildId));
+        launched = true;
+        cloud.getRegistry().agentOnline(node.getNodeName());
+        cloud.getStartupLatency().mark(node.getNodeName(), CodeBuildStartupLatency.Stage.ONLINE);
+      } else {
+        // Terminating calls CodeBuild, keep it off the timer
+        Computer.threadPoolForRemoting.submit(() -> launchFailed(node, e));
       }
+    });
 
-      if (cloud.getNoKeepAlive()) {
-        mylist.add(createEnvVariable("JENKINS_CODEBUILD_NOKEEPALIVE", "-noKeepAlive"));
-      }
+    // It may have connected before we started listening
+    if (computer.isOnline()) {
+      pending.complete(null);
+    }
+  }
 
-      if (cloud.getDisableHttpsCertValidation()) {
-        mylist.add(createEnvVariable("JENKINS_CODEBUILD_DISABLE_SSL_VALIDATION", "-disableHttpsCertValidation"));
+  private void onBuildStatus(@NonNull CompletableFuture<Void> pending, @NonNull CodeBuildAgent node,
+      @NonNull Build build) {
+    if (pending.isDone()) {
+      return;
+    }
+    // Should be inprogress only at this point.
+    CodeBuildStatus status = CodeBuildStatus.valueOf(build.getBuildStatus());
+    if (status != CodeBuildStatus.IN_PROGRESS) {
+      pending.completeExceptionally(new InvalidObjectException(
+          String.format("Invalid CodeBuild status detected for build ID: %s: %s", build.getId(), status)));
+      return;
+    }
+    cloud.getStartupLatency().mark(node.getNodeName(), CodeBuildStartupLatency.Stage.IN_PROGRESS);
+
+    // A build stuck in a phase would hold its capacity slot until the connection
+    // times out
+    String phase = build.getCurrentPhase();
+    long limitSeconds = cloud.getPhaseTimeoutSeconds(phase);
+    Date phaseStarted = phaseStartTime(build, phase);
+    if (limitSeconds > 0 && phaseStarted != null) {
+      long inPhaseSeconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - phaseStarted.getTime());
+      if (inPhaseSeconds > limitSeconds) {
+        pending.completeExceptionally(new StalledBuildException(String.format(
+            "Build ID: %s of agent %s spent %d s in phase %s, the limit is %d s", build.getId(), node, inPhaseSeconds,
+            phase, limitSeconds)));
       }
     }
+  }
 
-    // no forbids or dependencies - all agent types get them
-    if (cloud.getNoReconnect()) {
-      mylist.add(createEnvVariable("JENKINS_CODEBUILD_NORECONNECT", "-noreconnect"));
+  @CheckForNull
+  private static Date phaseStartTime(@NonNull Build build, @CheckForNull String phase) {
+    if (phase == null || build.getPhases() == null) {
+      return null;
     }
-    mylist.add(createEnvVariable("JENKINS_SECRET", computer.getJnlpMac()));
-    mylist.add(createEnvVariable("JENKINS_AGENT_NAME", node.getDisplayName()));
+    Date started = null;
+    for (BuildPhase p : build.getPhases()) {
+      if (phase.equals(p.getPhaseType())) {
+        started = p.getStartTime();
+      }
+    }
+    return started;
+  }
 
-    // Extra helper environment variables for downloading the JAR file instead of
-    // over the internet
-    try {
-      java.net.URL myurl = new java.net.URL(cloud.getJenkinsUrl());
+  /**
+   * The agent's build got stuck in one of its phases before the agent connected.
+   */
+  static final class StalledBuildException extends Exception {
+    private static final long serialVersionUID = 1;
 
-      mylist.add(createEnvVariable("JENKINS_CODEBUILD_AGENT_URL",
-          myurl.getProtocol() + "://" + myurl.getAuthority() + "/jnlpJars/agent.jar"));
-    } catch (MalformedURLException e) {
-      mylist.add(createEnvVariable("JENKINS_CODEBUILD_AGENT_URL", "ERROR"));
+    StalledBuildException(String message) {
+      super(message);
     }
-
-    return mylist;
   }
 
-  private EnvironmentVariable createEnvVariable(String key, String value) {
-    EnvironmentVariable var1 = new EnvironmentVariable();
-    var1.setName(key);
-    var1.setType("PLAINTEXT");
-    var1.setValue(value);
-
-    return var1;
+  /**
+   * The agent connected. Called by {@link CodeBuildComputerListener}.
+   */
+  void onOnline() {
+    CompletableFuture<Void> pending = connection;
+    if (pending != null) {
+      pending.complete(null);
+    }
+  }
 
+  // Package level visibility for benchmarks
+  List<EnvironmentVariable> buildEnvVariableCollection(@NonNull SlaveComputer computer, @NonNull Node node) {
+    // Everything but the agent's own fields comes from the cloud's cached template
+    return cloud.getLaunchTemplate().forAgent(computer.getJnlpMac(), node.getDisplayName());
   }
 }
@@ -0,0 +1,138 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+import com.amazonaws.AmazonServiceException;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.slaves.Cloud;
+import jenkins.metrics.api.MetricProvider;
+import jenkins.metrics.api.Metrics;
+import jenkins.model.Jenkins;
+
+/**
+ * Metrics of the plugin, exported through the Jenkins metrics plugin, IE: to
+ * Prometheus with the prometheus plugin.
+ *
+ * CodeBuild API calls, throttles, connect timeouts and rejected JNLP
+ * connections are counted across all clouds. Calls by operation and caller of
+ * each client are on the cloud's page, see {@link CodeBuildApiStats}. Agent
+ * counts, remaining capacity and the project's concurrent build limit are
+ * gauges per cloud, named <code>codebuild-cloud.cloud.NAME.*</code>. Clouds come and go with the
+ * configuration, so their gauges are kept in sync by
+ * {@link CodeBuildCloudMaintenance}.
+ */
+@Extension
+public class CodeBuildMetrics extends MetricProvider {
+
+  static final String PREFIX = "codebuild-cloud";
+  private static final String CLOUD_PREFIX = PREFIX + ".cloud.";
+
+  // CodeBuild API calls, timed
+  static final Timer START_BUILD = new Timer();
+  static final Timer BATCH_GET_BUILDS = new Timer();
+  static final Timer STOP_BUILD = new Timer();
+  static final Timer BATCH_GET_PROJECTS = new Timer();
+  static final Timer START_BUILD_BATCH = new Timer();
+  static final Timer BATCH_GET_BUILD_BATCHES = new Timer();
+  static final Timer LIST_PROJECTS = new Timer();
+
+  static final Counter API_ERRORS = new Counter();
+  static final Counter THROTTLES = new Counter();
+  static final Counter CONNECT_TIMEOUTS = new Counter();
+  static final Counter JNLP_REJECTED = new Counter();
+  static final Counter STALLED_STARTS = new Counter();
+
+  /** {@inheritDoc} */
+  @NonNull
+  @Override
+  public MetricSet getMetricSet() {
+    final Map<String, Metric> metrics = new HashMap<String, Metric>();
+    metrics.put(MetricRegistry.name(PREFIX, "api", "StartBuild"), START_BUILD);
+    metrics.put(MetricRegistry.name(PREFIX, "api", "BatchGetBuilds"), BATCH_GET_BUILDS);
+    metrics.put(MetricRegistry.name(PREFIX, "api", "StopBuild"), STOP_BUILD);
+    metrics.put(MetricRegistry.name(PREFIX, "api", "BatchGetProjects"), BATCH_GET_PROJECTS);
+    metrics.put(MetricRegistry.name(PREFIX, "api", "StartBuildBatch"), START_BUILD_BATCH);
+    metrics.put(MetricRegistry.name(PREFIX, "api", "BatchGetBuildBatches"), BATCH_GET_BUILD_BATCHES);
+    metrics.put(MetricRegistry.name(PREFIX, "api", "ListProjects"), LIST_PROJECTS);
+    metrics.put(MetricRegistry.name(PREFIX, "api", "errors"), API_ERRORS);
+    metrics.put(MetricRegistry.name(PREFIX, "api", "throttles"), THROTTLES);
+    metrics.put(MetricRegistry.name(PREFIX, "agents", "connect-timeouts"), CONNECT_TIMEOUTS);
+    metrics.put(MetricRegistry.name(PREFIX, "agents", "jnlp-rejected"), JNLP_REJECTED);
+    metrics.put(MetricRegistry.name(PREFIX, "agents", "stalled-starts"), STALLED_STARTS);
+    return () -> metrics;
+  }
+
+  /**
+   * Count a failed CodeBuild API call, and whether CodeBuild throttled it.
+   */
+  static void apiError(Exception e) {
+    API_ERRORS.inc();
+    if (e instanceof AmazonServiceException && isThrottling((AmazonServiceException) e)) {
+      THROTTLES.inc();
+    }
+  }
+
+  static boolean isThrottling(@NonNull AmazonServiceException e) {
+    return e.getStatusCode() == 429
+        || "ThrottlingException".equals(e.getErrorCode())
+        || "TooManyRequestsException".equals(e.getErrorCode());
+  }
+
+  private static void gauge(MetricRegistry registry, String cloudName, String name,
+      ToLongFunction<CodeBuildCloud> value) {
+    String fullName = CLOUD_PREFIX + cloudName + "." + name;
+    if (registry.getGauges().containsKey(fullName)) {
+      return;
+    }
+    registry.register(fullName, (Gauge<Long>) () -> {
+      // Look the cloud up every time, reconfiguring replaces the instance
+      Cloud c = Jenkins.get().getCloud(cloudName);
+      return c instanceof CodeBuildCloud ? value.applyAsLong((CodeBuildCloud) c) : 0L;
+    });
+  }
+
+  /**
+   * Register the gauges of clouds added since the last call and drop those of
+   * clouds that are gone.
+   */
+  static void syncCloudGauges() {
+    MetricRegistry registry = Metrics.metricRegistry();
+    if (registry == null) {
+      return;
+    }
+
+    final Set<String> names = new HashSet<String>();
+    for (Cloud c : Jenkins.get().clouds) {
+      if (c instanceof CodeBuildCloud) {
+        names.add(c.name);
+        gauge(registry, c.name, "agents.planned", cloud -> cloud.getRegistry().getPlanned());
+        gauge(registry, c.name, "agents.starting", cloud -> cloud.getRegistry().getStarting());
+        gauge(registry, c.name, "agents.online", cloud -> cloud.getRegistry().getOnline());
+        gauge(registry, c.name, "agents.busy", cloud -> cloud.getRegistry().getBusy());
+        gauge(registry, c.name, "agents.terminating", cloud -> cloud.getRegistry().getTerminating());
+        gauge(registry, c.name, "capacity.remaining", cloud -> cloud.getRemainingCapacity());
+        gauge(registry, c.name, "project.concurrent-build-limit", cloud -> cloud.getCachedConcurrentBuildLimit());
+      }
+    }
+
+    registry.removeMatching((name, metric) -> {
+      if (!name.startsWith(CLOUD_PREFIX)) {
+        return false;
+      }
+      String rest = name.substring(CLOUD_PREFIX.length());
+      return !names.contains(rest.substring(0, Math.max(0, rest.indexOf('.'))));
+    });
+  }
+}
@@ -0,0 +1,43 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Node;
+import jenkins.model.NodeListener;
+
+/**
+ * Keeps each {@link CodeBuildCloud}'s {@link CodeBuildAgentRegistry} in sync
+ * with the agents added to and removed from Jenkins.
+ */
+@Extension
+public class CodeBuildNodeListener extends NodeListener {
+
+  /** {@inheritDoc} */
+  @Override
+  protected void onCreated(@NonNull Node node) {
+    if (node instanceof CodeBuildAgent) {
+      CodeBuildAgent agent = (CodeBuildAgent) node;
+      // Agents read back from disk on boot have no cloud - they are cleared anyway
+      if (agent.cloud != null) {
+        if (agent.template == null) {
+          agent.cloud.getRegistry().agentAdded(agent.getNodeName(), agent.getLabelString());
+        } else {
+          agent.cloud.getRegistry().agentAdded(agent.getNodeName(),
+              CodeBuildCloud.poolsOf(agent.template, agent.backend));
+        }
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void onDeleted(@NonNull Node node) {
+    if (node instanceof CodeBuildAgent) {
+      CodeBuildAgent agent = (CodeBuildAgent) node;
+      if (agent.cloud != null) {
+        agent.cloud.getRegistry().agentRemoved(agent.getNodeName());
+        agent.cloud.getStartupLatency().forget(agent.getNodeName());
+      }
+    }
+  }
+}
@@ -0,0 +1,210 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazonaws.services.codebuild.model.ListProjectsRequest;
+import com.amazonaws.services.codebuild.model.Project;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * The CodeBuild projects of a {@link CodeBuildClientWrapper}, IE: of one
+ * account and region, with their concurrent build limits, for the project
+ * lists of the configuration forms.
+ *
+ * Listing thousands of projects takes many ListProjects pages. The catalog is
+ * kept and served as is for {@link #FRESH_MINUTES}; after that it is still
+ * served while it is refreshed in the background, up to {@link #MAX_MINUTES}
+ * after which the form waits for a new one. Each page of names is looked up
+ * with one BatchGetProjects call while the next page is listed. A failed
+ * refresh keeps the catalog it had, which is served, however old, with a
+ * warning in the log, rather than leaving the project list empty. A page whose
+ * lookup fails twice is still listed, with the limits known from before.
+ */
+class CodeBuildProjectCatalog {
+
+  private static final Logger LOGGER = Logger.getLogger(CodeBuildProjectCatalog.class.getName());
+
+  static final long FRESH_MINUTES = 5;
+  static final long MAX_MINUTES = 60;
+
+  /**
+   * Projects listed at one time.
+   */
+  static final class Snapshot {
+    private final List<String> names;
+    private final Map<String, Integer> limits;
+    private final long loadedAt;
+
+    Snapshot(List<String> names, Map<String, Integer> limits, long loadedAt) {
+      List<String> sorted = new ArrayList<String>(names);
+      Collections.sort(sorted);
+      this.names = Collections.unmodifiableList(sorted);
+      this.limits = Collections.unmodifiableMap(limits);
+      this.loadedAt = loadedAt;
+    }
+
+    /** Project names, sorted. */
+    @NonNull
+    List<String> getNames() {
+      return names;
+    }
+
+    /** Concurrent build limit of the project, null when it has none. */
+    @CheckForNull
+    Integer getLimit(@NonNull String name) {
+      return limits.get(name);
+    }
+  }
+
+  private final CodeBuildClientWrapper client;
+  private final LongSupplier nanoClock;
+
+  private volatile Snapshot snapshot;
+  // Guarded by this
+  private CompletableFuture<Snapshot> loading;
+
+  CodeBuildProjectCatalog(@NonNull CodeBuildClientWrapper client) {
+    this(client, System::nanoTime);
+  }
+
+  // Package level visibility - clock is swapped out by tests
+  CodeBuildProjectCatalog(@NonNull CodeBuildClientWrapper client, @NonNull LongSupplier nanoClock) {
+    this.client = client;
+    this.nanoClock = nanoClock;
+  }
+
+  /**
+   * The catalog, loaded first when there is none or it is too old. Starts a
+   * refresh in the background when it is no longer fresh.
+   *
+   * @throws RuntimeException what listing the projects failed with, when there
+   *                          was never a catalog to fall back to
+   */
+  @NonNull
+  Snapshot get() {
+    Snapshot s = snapshot;
+    long age = s == null ? Long.MAX_VALUE : nanoClock.getAsLong() - s.loadedAt;
+    if (age < TimeUnit.MINUTES.toNanos(FRESH_MINUTES)) {
+      return s;
+    }
+    CompletableFuture<Snapshot> refresh = refresh();
+    if (age < TimeUnit.MINUTES.toNanos(MAX_MINUTES)) {
+      return s;
+    }
+    try {
+      return refresh.join();
+    } catch (CompletionException e) {
+      if (s != null) {
+        // Logged by the refresh, an old list beats an empty one
+        return s;
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Load the catalog again unless that is already under way.
+   */
+  @NonNull
+  synchronized CompletableFuture<Snapshot> refresh() {
+    if (loading != null) {
+      return loading;
+    }
+    final CompletableFuture<Snapshot> result = new CompletableFuture<Snapshot>();
+    // Callers see the new catalog once the refresh completes
+    loading = result.whenComplete((s, e) -> {
+      if (e != null) {
+        LOGGER.log(Level.WARNING, "Unable to list CodeBuild projects"
+            + (snapshot == null ? "" : ", keeping the projects listed before"), e);
+      } else {
+        snapshot = s;
+      }
+      synchronized (this) {
+        loading = null;
+      }
+    });
+    CompletableFuture<Snapshot> loaded = loading;
+    load(null, new ArrayList<String>(), new HashMap<String, Integer>(), new ArrayList<CompletableFuture<Void>>(),
+        result);
+    return loaded;
+  }
+
+  /**
+   * List the page of projects after the token, look their limits up and go on
+   * with the next page.
+   */
+  private void load(@CheckForNull String nextToken, List<String> names, Map<String, Integer> limits,
+      List<CompletableFuture<Void>> lookups, CompletableFuture<Snapshot> result) {
+    client.listProjectsAsync(new ListProjectsRequest().withNextToken(nextToken)).whenComplete((page, e) -> {
+      if (e != null) {
+        result.completeExceptionally(e);
+        return;
+      }
+      names.addAll(page.getProjects());
+      if (!page.getProjects().isEmpty()) {
+        lookups.add(lookUp(page.getProjects(), limits, true));
+      }
+      if (page.getNextToken() != null) {
+        load(page.getNextToken(), names, limits, lookups, result);
+        return;
+      }
+      // Lookups never fail, see lookUp
+      CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+        synchronized (limits) {
+          result.complete(new Snapshot(names, new HashMap<String, Integer>(limits), nanoClock.getAsLong()));
+        }
+      });
+    });
+  }
+
+  /**
+   * Look the limits of one page of projects up, once more if that fails. When
+   * it fails again the page keeps the limits of the last catalog instead of
+   * failing the whole listing.
+   */
+  @NonNull
+  private CompletableFuture<Void> lookUp(@NonNull List<String> page, Map<String, Integer> limits, boolean retry) {
+    return client.getProjectsAsync(page).handle((projects, e) -> {
+      if (e == null) {
+        synchronized (limits) {
+          for (Project p : projects) {
+            limits.put(p.getName(), p.getConcurrentBuildLimit());
+          }
+        }
+        return CompletableFuture.<Void>completedFuture(null);
+      }
+      if (retry) {
+        return lookUp(page, limits, false);
+      }
+      LOGGER.log(Level.WARNING, String.format("Unable to look up %s CodeBuild projects from %s, listing them with "
+          + "the limits known before", page.size(), page.get(0)), e);
+      Snapshot last = snapshot;
+      if (last != null) {
+        synchronized (limits) {
+          for (String name : page) {
+            Integer limit = last.getLimit(name);
+            if (limit != null) {
+              limits.put(name, limit);
+            }
+          }
+        }
+      }
+      return CompletableFuture.<Void>completedFuture(null);
+    }).thenCompose(f -> f);
+  }
+}
@@ -0,0 +1,93 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.Collection;
+import java.util.logging.Logger;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.LoadStatistics;
+import hudson.slaves.Cloud;
+import hudson.slaves.CloudProvisioningListener;
+import hudson.slaves.NodeProvisioner;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Provisions {@link CodeBuildAgent}s as soon as there is more queued work than
+ * executors for a label a {@link CodeBuildCloud} serves.
+ *
+ * The default strategy smooths the load statistics over several ticks before it
+ * asks a cloud for agents, which adds seconds to minutes of queue latency on top
+ * of CodeBuild's own startup. Executors that are available, connecting, or
+ * planned by earlier rounds are subtracted first, so agents are never started
+ * twice for the same work. {@link CodeBuildQueueListener} asks for a review
+ * when an item becomes buildable, so this runs right away rather than on the
+ * next periodic tick.
+ *
+ * Set the system property
+ * <code>io.jenkins.plugins.codebuildcloud.CodeBuildProvisionerStrategy.disabled</code>
+ * to fall back to the default strategy.
+ */
+@Extension(ordinal = 100)
+public class CodeBuildProvisionerStrategy extends NodeProvisioner.Strategy {
+
+  private static final Logger LOGGER = Logger.getLogger(CodeBuildProvisionerStrategy.class.getName());
+
+  static boolean isEnabled() {
+    return !SystemProperties.getBoolean(CodeBuildProvisionerStrategy.class.getName() + ".disabled");
+  }
+
+  /** {@inheritDoc} */
+  @NonNull
+  @Override
+  public NodeProvisioner.StrategyDecision apply(@NonNull NodeProvisioner.StrategyState state) {
+    if (!isEnabled()) {
+      return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+    }
+
+    Label label = state.getLabel();
+    LoadStatistics.LoadStatisticsSnapshot snapshot = state.getSnapshot();
+    int available = snapshot.getAvailableExecutors()
+        + snapshot.getConnectingExecutors()
+        + state.getPlannedCapacitySnapshot()
+        + state.getAdditionalPlannedCapacity();
+    int demand = snapshot.getQueueLength();
+    if (available >= demand) {
+      return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+    }
+
+    for (Cloud c : Jenkins.get().clouds) {
+      if (available >= demand) {
+        break;
+      }
+      if (!(c instanceof CodeBuildCloud)) {
+        continue;
+      }
+      Cloud.CloudState cloudState = new Cloud.CloudState(label, state.getAdditionalPlannedCapacity());
+      if (!c.canProvision(cloudState)) {
+        continue;
+      }
+
+      int workload = demand - available;
+      Collection<NodeProvisioner.PlannedNode> planned = c.provision(cloudState, workload);
+      if (planned.isEmpty()) {
+        continue;
+      }
+      LOGGER.fine(String.format("Planned %s agents of %s for label '%s' without delay (demand %s, available %s)",
+          planned.size(), c.name, label, demand, available));
+
+      CloudProvisioningListener.fireOnStarted(c, label, planned);
+      state.recordPendingLaunches(planned);
+      for (NodeProvisioner.PlannedNode p : planned) {
+        available += p.numExecutors;
+      }
+    }
+
+    if (available >= demand) {
+      return NodeProvisioner.StrategyDecision.PROVISIONING_COMPLETED;
+    }
+    // Out of CodeBuild capacity - other clouds may still help
+    return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+  }
+}
@@ -0,0 +1,102 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Decides how fast new agents may be started in one account and region.
+ *
+ * Replaces the old fixed 5 second provisioning cooldown. A token bucket sized to
+ * the account's StartBuild rate: launchers reserve a permit before calling
+ * StartBuild and schedule the call on Jenkins' shared timer after whatever debt
+ * the bucket is in, so a burst of agents is paced at the rate CodeBuild accepts
+ * instead of being throttled, without a thread parked per agent. Planned nodes
+ * that are not added to Jenkins yet are counted by
+ * {@link CodeBuildAgentRegistry} so back-to-back provision calls never hand out
+ * the same capacity twice.
+ *
+ * Governors are shared by every cloud and backend using the same credentials
+ * and region since that is what CodeBuild throttles on, the same way as
+ * {@link CodeBuildCircuitBreaker}. Clouds sharing an account should agree on
+ * the rate, the bucket takes the settings of the cloud that reserves.
+ */
+class CodeBuildProvisioningGovernor {
+
+  private static final Map<String, CodeBuildProvisioningGovernor> GOVERNORS = new ConcurrentHashMap<String, CodeBuildProvisioningGovernor>();
+
+  private final LongSupplier nanoClock;
+
+  private double permitsPerNano;
+  private double burst;
+
+  private double tokens;
+  private long lastRefill;
+
+  CodeBuildProvisioningGovernor(double permitsPerSecond, int burst) {
+    this(permitsPerSecond, burst, System::nanoTime);
+  }
+
+  // Package level visibility - clock is swapped out by tests
+  CodeBuildProvisioningGovernor(double permitsPerSecond, int burst, LongSupplier nanoClock) {
+    this.nanoClock = nanoClock;
+    this.lastRefill = nanoClock.getAsLong();
+    setRate(permitsPerSecond, burst);
+    this.tokens = this.burst;
+  }
+
+  /**
+   * The governor of the account behind the credentials, in the region, paced at
+   * the given rate.
+   */
+  @NonNull
+  static CodeBuildProvisioningGovernor forAccount(@NonNull String credentialId, @NonNull String region,
+      double permitsPerSecond, int burst) {
+    CodeBuildProvisioningGovernor governor = GOVERNORS.computeIfAbsent(credentialId + "/" + region,
+        k -> new CodeBuildProvisioningGovernor(permitsPerSecond, burst));
+    governor.setRate(permitsPerSecond, burst);
+    return governor;
+  }
+
+  /**
+   * Change the rate without giving back or taking away permits already earned.
+   */
+  synchronized void setRate(double permitsPerSecond, int burst) {
+    if (permitsPerSecond <= 0) {
+      throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+    }
+    double perNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+    double size = Math.max(1, burst);
+    if (perNano == permitsPerNano && size == this.burst) {
+      return;
+    }
+    refill();
+    this.permitsPerNano = perNano;
+    this.burst = size;
+    this.tokens = Math.min(tokens, size);
+  }
+
+  private void refill() {
+    long now = nanoClock.getAsLong();
+    tokens = Math.min(burst, tokens + (now - lastRefill) * permitsPerNano);
+    lastRefill = now;
+  }
+
+  /**
+   * Reserve one StartBuild permit.
+   *
+   * @return nanoseconds the caller has to wait before using the permit. 0 when a
+   *         permit was available right away.
+   */
+  synchronized long reserve() {
+    refill();
+    tokens -= 1;
+    if (tokens >= 0) {
+      return 0;
+    }
+    return (long) Math.ceil(-tokens / permitsPerNano);
+  }
+}
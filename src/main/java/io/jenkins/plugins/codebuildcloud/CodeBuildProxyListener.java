@@ -0,0 +1,23 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import hudson.Extension;
+import hudson.ProxyConfiguration;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+
+/**
+ * Points the shared CodeBuild clients at the new proxy when Jenkins' proxy
+ * configuration is saved, rather than keeping the one they were built with.
+ */
+@Extension
+public class CodeBuildProxyListener extends SaveableListener {
+
+  /** {@inheritDoc} */
+  @Override
+  public void onChange(Saveable o, XmlFile file) {
+    if (o instanceof ProxyConfiguration) {
+      CodeBuildClientWrapperFactory.proxyChanged((ProxyConfiguration) o);
+    }
+  }
+}
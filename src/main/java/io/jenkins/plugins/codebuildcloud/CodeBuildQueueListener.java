@@ -0,0 +1,58 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.Calendar;
+
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.Queue.BuildableItem;
+import hudson.model.Queue.WaitingItem;
+import hudson.model.queue.QueueListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+/**
+ * Records queue arrivals for the labels a {@link CodeBuildCloud} serves so its
+ * {@link CodeBuildDemandForecast} can learn when demand comes in, and has new
+ * work for those labels provisioned right away by
+ * {@link CodeBuildProvisionerStrategy}.
+ */
+@Extension
+public class CodeBuildQueueListener extends QueueListener {
+
+  /** {@inheritDoc} */
+  @Override
+  public void onEnterWaiting(WaitingItem wi) {
+    Label label = wi.getAssignedLabel();
+    if (label == null) {
+      return;
+    }
+
+    Calendar now = Calendar.getInstance();
+    for (Cloud c : Jenkins.get().clouds) {
+      if (c instanceof CodeBuildCloud) {
+        CodeBuildCloud cloud = (CodeBuildCloud) c;
+        if (cloud.getForecastMaxAgents() > 0 && cloud.canProvision(label)) {
+          // Under the queue's lock, only counted in memory
+          cloud.getDemandForecast().recordArrival(label.getExpression(), now);
+        }
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void onEnterBuildable(BuildableItem bi) {
+    Label label = bi.getAssignedLabel();
+    if (label == null || !CodeBuildProvisionerStrategy.isEnabled()) {
+      return;
+    }
+
+    for (Cloud c : Jenkins.get().clouds) {
+      if (c instanceof CodeBuildCloud && c.canProvision(new Cloud.CloudState(label, 0))) {
+        // Do not wait for the next NodeProvisioner tick
+        label.nodeProvisioner.suggestReviewNow();
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Runs on the agent and reads the resource usage of the CodeBuild build
+ * container from its cgroup.
+ *
+ * Returns the CPU time used so far in nanoseconds and the peak memory in bytes,
+ * -1 for whatever could not be read. Both cgroup v2 and v1 layouts are
+ * supported. The memory peak is since the container started, which for an agent
+ * that ran several tasks overstates the last one - never understates it.
+ */
+class CodeBuildResourceSampler extends MasterToSlaveCallable<long[], IOException> {
+
+  private static final long serialVersionUID = 1;
+
+  private static final String CGROUP = "/sys/fs/cgroup";
+
+  /** {@inheritDoc} */
+  @Override
+  public long[] call() throws IOException {
+    return new long[] { readCpuNanos(), readMemoryPeakBytes() };
+  }
+
+  private static long readCpuNanos() {
+    // cgroup v2
+    for (String line : lines(Paths.get(CGROUP, "cpu.stat"))) {
+      if (line.startsWith("usage_usec ")) {
+        return parse(line.substring("usage_usec ".length())) * 1000;
+      }
+    }
+    // cgroup v1
+    long v1 = first(Paths.get(CGROUP, "cpuacct", "cpuacct.usage"));
+    if (v1 < 0) {
+      v1 = first(Paths.get(CGROUP, "cpu,cpuacct", "cpuacct.usage"));
+    }
+    return v1;
+  }
+
+  private static long readMemoryPeakBytes() {
+    // cgroup v2, memory.peak needs kernel 5.19 so fall back to the current usage
+    long v2 = first(Paths.get(CGROUP, "memory.peak"));
+    if (v2 < 0) {
+      v2 = first(Paths.get(CGROUP, "memory.current"));
+    }
+    if (v2 >= 0) {
+      return v2;
+    }
+    // cgroup v1
+    return first(Paths.get(CGROUP, "memory", "memory.max_usage_in_bytes"));
+  }
+
+  private static List<String> lines(Path path) {
+    try {
+      return Files.readAllLines(path, StandardCharsets.UTF_8);
+    } catch (IOException | SecurityException e) {
+      return Collections.emptyList();
+    }
+  }
+
+  private static long first(Path path) {
+    List<String> lines = lines(path);
+    return lines.isEmpty() ? -1 : parse(lines.get(0));
+  }
+
+  private static long parse(String value) {
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
@@ -17,8 +17,17 @@ public class CodeBuildRetentionStrategy extends CloudRetentionStrategy
   private static final Logger LOGGER = Logger.getLogger(OnceRetentionStrategy.class.getName());
 
   public CodeBuildRetentionStrategy() {
-    super(1);
-    realStrat = new OnceRetentionStrategy(1);
+    this(1);
+  }
+
+  /**
+   * @param idleMinutes how long a connected agent may wait for work before it is
+   *                    terminated. Longer than a minute when the cloud keeps a
+   *                    warm pool.
+   */
+  public CodeBuildRetentionStrategy(int idleMinutes) {
+    super(idleMinutes);
+    realStrat = new OnceRetentionStrategy(idleMinutes);
   }
 
   @Override
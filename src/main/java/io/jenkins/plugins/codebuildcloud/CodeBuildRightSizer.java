@@ -0,0 +1,546 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.AtomicFileWriter;
+
+/**
+ * Learns how much CPU and memory the jobs of every agent template use and works
+ * out the smallest CodeBuild compute type that would run them without slowing
+ * them down by more than a tolerance.
+ *
+ * Observations come from {@link CodeBuildComputer} when a task completes: the
+ * duration plus the CPU time and peak memory of the build container, read by
+ * {@link CodeBuildResourceSampler}. A smaller compute type qualifies when the
+ * peak memory seen fits with some headroom and the jobs would not be slower by
+ * more than the tolerance. Slowdown is measured when jobs have already run on
+ * both compute types (IE: after automatic right-sizing picked the smaller one)
+ * and otherwise estimated from the CPU cores the jobs kept busy.
+ *
+ * Persisted as one line per observation in the cloud's directory under
+ * JENKINS_HOME. Decisions are only kept in memory for the cloud's page.
+ */
+class CodeBuildRightSizer {
+
+  private static final Logger LOGGER = Logger.getLogger(CodeBuildRightSizer.class.getName());
+
+  static final int MIN_SAMPLES = 5;
+  static final int MIN_MEASURED_SAMPLES = 3;
+  static final int MAX_SAMPLES_PER_POOL = 200;
+  static final double MEMORY_HEADROOM = 1.2;
+  private static final int MAX_DECISIONS = 50;
+  private static final String FORMAT_VERSION = "v1";
+  private static final long MB = 1024 * 1024;
+
+  /**
+   * Size of a compute type. From
+   * https://docs.aws.amazon.com/codebuild/latest/userguide/build-env-ref-compute-types.html
+   */
+  static final class ComputeType {
+    final String name;
+    final int vcpus;
+    final long memoryMb;
+
+    ComputeType(String name, int vcpus, long memoryMb) {
+      this.name = name;
+      this.vcpus = vcpus;
+      this.memoryMb = memoryMb;
+    }
+  }
+
+  // Smallest first
+  private static final Map<String, List<ComputeType>> SIZES = new HashMap<String, List<ComputeType>>();
+
+  static {
+    SIZES.put("LINUX_CONTAINER", Arrays.asList(
+        new ComputeType("BUILD_GENERAL1_SMALL", 2, 3 * 1024),
+        new ComputeType("BUILD_GENERAL1_MEDIUM", 4, 7 * 1024),
+        new ComputeType("BUILD_GENERAL1_LARGE", 8, 15 * 1024),
+        new ComputeType("BUILD_GENERAL1_2XLARGE", 72, 145 * 1024)));
+    SIZES.put("ARM_CONTAINER", Arrays.asList(
+        new ComputeType("BUILD_GENERAL1_SMALL", 2, 4 * 1024),
+        new ComputeType("BUILD_GENERAL1_LARGE", 8, 16 * 1024)));
+    SIZES.put("WINDOWS_SERVER_2019_CONTAINER", Arrays.asList(
+        new ComputeType("BUILD_GENERAL1_MEDIUM", 4, 7 * 1024),
+        new ComputeType("BUILD_GENERAL1_LARGE", 8, 15 * 1024)));
+  }
+
+  /**
+   * One completed task.
+   */
+  static final class Observation {
+    final String computeType;
+    final String job;
+    final long durationMs;
+    final long cpuNanos;
+    final long memoryPeakBytes;
+
+    Observation(@NonNull String computeType, @NonNull String job, long durationMs, long cpuNanos,
+        long memoryPeakBytes) {
+      this.computeType = computeType;
+      this.job = clean(job);
+      this.durationMs = durationMs;
+      this.cpuNanos = cpuNanos;
+      this.memoryPeakBytes = memoryPeakBytes;
+    }
+
+    /** Average number of CPU cores kept busy while the task ran. */
+    double getCores() {
+      return durationMs <= 0 ? 0 : cpuNanos / (durationMs * 1e6);
+    }
+  }
+
+  /**
+   * What the model says about one agent template. Getters are for the cloud's
+   * page.
+   */
+  public static final class Recommendation {
+    private final String pool;
+    private final String current;
+    private final String recommended;
+    private final int samples;
+    private final long peakMemoryMb;
+    private final double p90Cores;
+    private final double slowdown;
+    private final String reason;
+    private final List<JobUsage> jobs;
+
+    Recommendation(String pool, String current, String recommended, int samples, long peakMemoryMb, double p90Cores,
+        double slowdown, String reason, List<JobUsage> jobs) {
+      this.pool = pool;
+      this.current = current;
+      this.recommended = recommended;
+      this.samples = samples;
+      this.peakMemoryMb = peakMemoryMb;
+      this.p90Cores = round(p90Cores);
+      this.slowdown = round(slowdown);
+      this.reason = reason;
+      this.jobs = jobs;
+    }
+
+    public String getPool() {
+      return pool;
+    }
+
+    public String getCurrent() {
+      return current;
+    }
+
+    public String getRecommended() {
+      return recommended;
+    }
+
+    public boolean isChange() {
+      return !current.equals(recommended);
+    }
+
+    public int getSamples() {
+      return samples;
+    }
+
+    public long getPeakMemoryMb() {
+      return peakMemoryMb;
+    }
+
+    public double getP90Cores() {
+      return p90Cores;
+    }
+
+    /** Expected duration on the recommended compute type relative to now. */
+    public double getSlowdown() {
+      return slowdown;
+    }
+
+    public String getReason() {
+      return reason;
+    }
+
+    public List<JobUsage> getJobs() {
+      return Collections.unmodifiableList(jobs);
+    }
+  }
+
+  /**
+   * Usage of one job on one compute type.
+   */
+  public static final class JobUsage {
+    private final String job;
+    private final String computeType;
+    private final int samples;
+    private final long medianDurationMs;
+    private final double p90Cores;
+    private final long peakMemoryMb;
+
+    JobUsage(String job, String computeType, List<Observation> obs) {
+      this.job = job;
+      this.computeType = computeType;
+      this.samples = obs.size();
+      this.medianDurationMs = medianDuration(obs);
+      this.p90Cores = round(p90Cores(obs));
+      this.peakMemoryMb = peakMemory(obs) / MB;
+    }
+
+    public String getJob() {
+      return job;
+    }
+
+    public String getComputeType() {
+      return computeType;
+    }
+
+    public int getSamples() {
+      return samples;
+    }
+
+    public long getMedianDurationSeconds() {
+      return medianDurationMs / 1000;
+    }
+
+    public double getP90Cores() {
+      return p90Cores;
+    }
+
+    public long getPeakMemoryMb() {
+      return peakMemoryMb;
+    }
+  }
+
+  /**
+   * A change of recommendation for a template.
+   */
+  public static final class Decision {
+    private final long time;
+    private final String pool;
+    private final String from;
+    private final String to;
+    private final boolean applied;
+    private final String reason;
+
+    Decision(long time, String pool, String from, String to, boolean applied, String reason) {
+      this.time = time;
+      this.pool = pool;
+      this.from = from;
+      this.to = to;
+      this.applied = applied;
+      this.reason = reason;
+    }
+
+    public Date getTime() {
+      return new Date(time);
+    }
+
+    public String getPool() {
+      return pool;
+    }
+
+    public String getFrom() {
+      return from;
+    }
+
+    public String getTo() {
+      return to;
+    }
+
+    public boolean isApplied() {
+      return applied;
+    }
+
+    public String getReason() {
+      return reason;
+    }
+  }
+
+  private final File file;
+  private final Map<String, Deque<Observation>> observations = new HashMap<String, Deque<Observation>>();
+  private final Map<String, Recommendation> cache = new HashMap<String, Recommendation>();
+  private final Map<String, String> lastRecommended = new HashMap<String, String>();
+  private final Deque<Decision> decisions = new ArrayDeque<Decision>();
+  private boolean loaded = false;
+  private boolean dirty = false;
+
+  CodeBuildRightSizer(@NonNull File file) {
+    this.file = file;
+  }
+
+  /**
+   * A task of the given template's pool completed.
+   */
+  synchronized void record(@NonNull String pool, @NonNull Observation o) {
+    load();
+    Deque<Observation> obs = observations.computeIfAbsent(pool, k -> new ArrayDeque<Observation>());
+    obs.addLast(o);
+    while (obs.size() > MAX_SAMPLES_PER_POOL) {
+      obs.removeFirst();
+    }
+    cache.remove(pool);
+    dirty = true;
+  }
+
+  /**
+   * Smallest compute type for the pool that keeps its jobs within the tolerance.
+   *
+   * @param current          compute type the template is configured with
+   * @param tolerancePercent how much slower jobs may get, IE: 10 for 10%
+   * @param applied          whether the cloud starts agents with the result
+   */
+  @NonNull
+  synchronized Recommendation recommend(@NonNull String pool, @NonNull String environmentType,
+      @NonNull String current, int tolerancePercent, boolean applied) {
+    load();
+    Recommendation rec = cache.get(pool);
+    if (rec == null || !rec.current.equals(current)) {
+      rec = compute(pool, environmentType, current, 1 + tolerancePercent / 100.0);
+      cache.put(pool, rec);
+    }
+
+    String previous = lastRecommended.put(pool, rec.recommended);
+    String from = previous == null ? current : previous;
+    if (!from.equals(rec.recommended)) {
+      decisions.addFirst(new Decision(System.currentTimeMillis(), pool, from, rec.recommended, applied, rec.reason));
+      while (decisions.size() > MAX_DECISIONS) {
+        decisions.removeLast();
+      }
+      LOGGER.info(String.format("Compute type for template '%s' %s from %s to %s: %s", pool,
+          applied ? "changed" : "recommended", from, rec.recommended, rec.reason));
+    }
+    return rec;
+  }
+
+  /**
+   * Forget cached results, IE: after the tolerance changed.
+   */
+  synchronized void invalidate() {
+    cache.clear();
+  }
+
+  synchronized List<Decision> getDecisions() {
+    return new ArrayList<Decision>(decisions);
+  }
+
+  private Recommendation compute(String pool, String environmentType, String current, double tolerance) {
+    List<Observation> all = new ArrayList<Observation>(observations.getOrDefault(pool,
+        new ArrayDeque<Observation>()));
+    List<Observation> onCurrent = new ArrayList<Observation>();
+    for (Observation o : all) {
+      if (o.computeType.equals(current)) {
+        onCurrent.add(o);
+      }
+    }
+    List<JobUsage> jobs = jobUsage(all);
+
+    if (onCurrent.size() < MIN_SAMPLES) {
+      return new Recommendation(pool, current, current, onCurrent.size(), peakMemory(all) / MB, p90Cores(onCurrent),
+          1, String.format("Not enough data, %s of %s tasks seen on %s", onCurrent.size(), MIN_SAMPLES, current),
+          jobs);
+    }
+
+    List<ComputeType> sizes = SIZES.get(environmentType);
+    if (sizes == null || sizes.stream().noneMatch(t -> t.name.equals(current))) {
+      return new Recommendation(pool, current, current, onCurrent.size(), peakMemory(all) / MB, p90Cores(onCurrent),
+          1, String.format("No known sizes for %s on %s", current, environmentType), jobs);
+    }
+
+    // Memory does not depend on the compute type, so every observation counts
+    long peakMemory = peakMemory(all);
+    double cores = p90Cores(onCurrent);
+    for (ComputeType t : sizes) {
+      if (t.memoryMb * MB < peakMemory * MEMORY_HEADROOM) {
+        continue;
+      }
+
+      String how = "measured";
+      double slowdown = t.name.equals(current) ? 1 : measuredSlowdown(all, current, t.name);
+      if (slowdown < 0) {
+        how = "estimated";
+        slowdown = Math.max(1, cores / t.vcpus);
+      }
+      if (slowdown <= tolerance) {
+        String reason = t.name.equals(current) ? "Configured compute type is the smallest that fits"
+            : String.format("Peak memory %sMB fits %sMB, %s duration x%.2f", peakMemory / MB, t.memoryMb, how,
+                slowdown);
+        return new Recommendation(pool, current, t.name, onCurrent.size(), peakMemory / MB, cores, slowdown, reason,
+            jobs);
+      }
+    }
+
+    // Nothing fits, not even with more memory - keep what is configured
+    return new Recommendation(pool, current, current, onCurrent.size(), peakMemory / MB, cores, 1,
+        String.format("Peak memory %sMB does not fit any size with headroom", peakMemory / MB), jobs);
+  }
+
+  /**
+   * Worst ratio of median durations on the candidate vs the current compute type
+   * over jobs that ran enough times on both. -1 when no job did.
+   */
+  private static double measuredSlowdown(List<Observation> all, String current, String candidate) {
+    Map<String, List<Observation>> onCurrent = byJob(all, current);
+    Map<String, List<Observation>> onCandidate = byJob(all, candidate);
+    double worst = -1;
+    for (Map.Entry<String, List<Observation>> e : onCandidate.entrySet()) {
+      List<Observation> base = onCurrent.get(e.getKey());
+      if (base == null || base.size() < MIN_MEASURED_SAMPLES || e.getValue().size() < MIN_MEASURED_SAMPLES) {
+        continue;
+      }
+      long baseMedian = medianDuration(base);
+      if (baseMedian <= 0) {
+        continue;
+      }
+      worst = Math.max(worst, (double) medianDuration(e.getValue()) / baseMedian);
+    }
+    return worst;
+  }
+
+  private static Map<String, List<Observation>> byJob(List<Observation> all, String computeType) {
+    Map<String, List<Observation>> result = new HashMap<String, List<Observation>>();
+    for (Observation o : all) {
+      if (o.computeType.equals(computeType)) {
+        result.computeIfAbsent(o.job, k -> new ArrayList<Observation>()).add(o);
+      }
+    }
+    return result;
+  }
+
+  private static List<JobUsage> jobUsage(List<Observation> all) {
+    Map<String, List<Observation>> grouped = new LinkedHashMap<String, List<Observation>>();
+    for (Observation o : all) {
+      grouped.computeIfAbsent(o.job + '\t' + o.computeType, k -> new ArrayList<Observation>()).add(o);
+    }
+    List<JobUsage> result = new ArrayList<JobUsage>();
+    for (List<Observation> obs : grouped.values()) {
+      result.add(new JobUsage(obs.get(0).job, obs.get(0).computeType, obs));
+    }
+    return result;
+  }
+
+  private static long peakMemory(List<Observation> obs) {
+    long peak = 0;
+    for (Observation o : obs) {
+      peak = Math.max(peak, o.memoryPeakBytes);
+    }
+    return peak;
+  }
+
+  private static double p90Cores(List<Observation> obs) {
+    if (obs.isEmpty()) {
+      return 0;
+    }
+    double[] cores = new double[obs.size()];
+    for (int i = 0; i < cores.length; i++) {
+      cores[i] = obs.get(i).getCores();
+    }
+    Arrays.sort(cores);
+    return cores[(int) Math.ceil(0.9 * cores.length) - 1];
+  }
+
+  private static long medianDuration(List<Observation> obs) {
+    long[] d = new long[obs.size()];
+    for (int i = 0; i < d.length; i++) {
+      d[i] = obs.get(i).durationMs;
+    }
+    Arrays.sort(d);
+    return d.length == 0 ? 0 : d[d.length / 2];
+  }
+
+  private static double round(double value) {
+    return Math.round(value * 100) / 100.0;
+  }
+
+  private static String clean(String s) {
+    return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+  }
+
+  /**
+   * Write observations recorded since the last save. Called once a minute so a
+   * busy fleet does not rewrite the file for every task.
+   */
+  synchronized void saveIfDirty() {
+    if (!dirty) {
+      return;
+    }
+    dirty = false;
+    try {
+      File dir = file.getParentFile();
+      if (dir != null) {
+        Files.createDirectories(dir.toPath());
+      }
+
+      AtomicFileWriter w = new AtomicFileWriter(file.toPath(), StandardCharsets.UTF_8);
+      try {
+        writeTo(w);
+        w.commit();
+      } finally {
+        w.abort();
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to save right-sizing history " + file, e);
+    }
+  }
+
+  private void writeTo(Writer w) throws IOException {
+    w.write(FORMAT_VERSION);
+    w.write('\n');
+    for (Map.Entry<String, Deque<Observation>> e : observations.entrySet()) {
+      for (Observation o : e.getValue()) {
+        w.write(String.join("\t", clean(e.getKey()), o.computeType, o.job, Long.toString(o.durationMs),
+            Long.toString(o.cpuNanos), Long.toString(o.memoryPeakBytes)));
+        w.write('\n');
+      }
+    }
+  }
+
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    if (!file.exists()) {
+      return;
+    }
+
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      if (!FORMAT_VERSION.equals(line)) {
+        LOGGER.warning("Ignoring right-sizing history in unknown format: " + file);
+        return;
+      }
+      while ((line = reader.readLine()) != null) {
+        String[] f = line.split("\t");
+        if (f.length != 6) {
+          continue;
+        }
+        Deque<Observation> obs = observations.computeIfAbsent(f[0], k -> new ArrayDeque<Observation>());
+        obs.addLast(new Observation(f[1], f[2], Long.parseLong(f[3]), Long.parseLong(f[4]), Long.parseLong(f[5])));
+        while (obs.size() > MAX_SAMPLES_PER_POOL) {
+          obs.removeFirst();
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      LOGGER.log(Level.WARNING, "Failed to read right-sizing history " + file, e);
+    }
+  }
+
+  // Package level visibility for tests
+  synchronized int getSampleCount(@NonNull String pool) {
+    load();
+    Deque<Observation> obs = observations.get(pool);
+    return obs == null ? 0 : obs.size();
+  }
+}
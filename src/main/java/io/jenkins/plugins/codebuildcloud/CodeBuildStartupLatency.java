@@ -0,0 +1,246 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Where the startup time of a {@link CodeBuildCloud}'s agents goes.
+ *
+ * Every agent gets a timestamp for each {@link Stage} it reaches, from the
+ * planned node being created to its first task being accepted. Once the first
+ * task is accepted the time spent in every stage, and the total, is recorded in
+ * a {@link CodeBuildLatencyHistogram} for the whole cloud and one for the
+ * agent's label. Agents removed before they got a task are dropped.
+ *
+ * Agents started ahead of demand, IE: for the warm pool or the forecast, have no
+ * job waiting for them, the time until their first task is idle time rather
+ * than startup. Theirs is recorded once they come online.
+ *
+ * Kept in memory only, the histograms start empty when Jenkins restarts.
+ */
+class CodeBuildStartupLatency {
+
+  /**
+   * Steps of an agent's startup in the order they normally happen. The time of
+   * a stage is measured from the previous stage the agent reached.
+   */
+  enum Stage {
+    PLANNED("Planned"),
+    ADDED("Node added"),
+    BUILD_STARTED("StartBuild returned"),
+    IN_PROGRESS("Build in progress"),
+    HANDSHAKE("JNLP handshake"),
+    ONLINE("Computer online"),
+    FIRST_TASK("First task accepted");
+
+    final String displayName;
+
+    Stage(String displayName) {
+      this.displayName = displayName;
+    }
+  }
+
+  static final String TOTAL = "Total";
+  static final String ALL_LABELS = "";
+
+  private static final class Timeline {
+    final String label;
+    // Stage the startup is over at
+    final Stage last;
+    // System.nanoTime() per stage, 0 until reached
+    final long[] nanos = new long[Stage.values().length];
+
+    Timeline(String label, Stage last) {
+      this.label = label;
+      this.last = last;
+    }
+  }
+
+  private static final class Histograms {
+    // Time spent in each stage, the PLANNED slot holds the total
+    final CodeBuildLatencyHistogram[] byStage = new CodeBuildLatencyHistogram[Stage.values().length];
+
+    Histograms() {
+      for (int i = 0; i < byStage.length; i++) {
+        byStage[i] = new CodeBuildLatencyHistogram();
+      }
+    }
+  }
+
+  private final ConcurrentHashMap<String, Timeline> timelines = new ConcurrentHashMap<String, Timeline>();
+  private final ConcurrentHashMap<String, Histograms> histograms = new ConcurrentHashMap<String, Histograms>();
+
+  void planned(@NonNull String agentName, @NonNull String label) {
+    planned(agentName, label, false);
+  }
+
+  /**
+   * A new agent was planned, ahead of demand when no job is waiting for it.
+   */
+  void planned(@NonNull String agentName, @NonNull String label, boolean aheadOfDemand) {
+    Timeline t = new Timeline(label, aheadOfDemand ? Stage.ONLINE : Stage.FIRST_TASK);
+    t.nanos[Stage.PLANNED.ordinal()] = System.nanoTime();
+    timelines.put(agentName, t);
+  }
+
+  /**
+   * The agent reached the stage. Only the first time counts.
+   */
+  void mark(@NonNull String agentName, @NonNull Stage stage) {
+    mark(agentName, stage, System.nanoTime());
+  }
+
+  // Package level visibility for tests
+  void mark(@NonNull String agentName, @NonNull Stage stage, long nanoTime) {
+    Timeline t = timelines.get(agentName);
+    if (t == null) {
+      return;
+    }
+    synchronized (t) {
+      if (t.nanos[stage.ordinal()] != 0) {
+        return;
+      }
+      t.nanos[stage.ordinal()] = nanoTime;
+    }
+    if (stage == t.last && timelines.remove(agentName, t)) {
+      record(t);
+    }
+  }
+
+  void forget(@NonNull String agentName) {
+    timelines.remove(agentName);
+  }
+
+  private Histograms histogramsOf(String label) {
+    return histograms.computeIfAbsent(label, k -> new Histograms());
+  }
+
+  private void record(Timeline t) {
+    Histograms all = histogramsOf(ALL_LABELS);
+    Histograms label = histogramsOf(t.label);
+    long previous = t.nanos[Stage.PLANNED.ordinal()];
+    for (Stage s : Stage.values()) {
+      long at = t.nanos[s.ordinal()];
+      if (s.ordinal() > t.last.ordinal()) {
+        break;
+      }
+      if (s == Stage.PLANNED || at == 0) {
+        continue;
+      }
+      long ms = Math.max(0, (at - previous) / 1000000);
+      all.byStage[s.ordinal()].record(ms);
+      label.byStage[s.ordinal()].record(ms);
+      previous = Math.max(previous, at);
+    }
+    long totalMs = Math.max(0, (t.nanos[t.last.ordinal()] - t.nanos[Stage.PLANNED.ordinal()]) / 1000000);
+    all.byStage[Stage.PLANNED.ordinal()].record(totalMs);
+    label.byStage[Stage.PLANNED.ordinal()].record(totalMs);
+  }
+
+  /**
+   * Percentiles of one stage for one label, or for the whole cloud.
+   */
+  public static final class Summary {
+    private final String label;
+    private final String stage;
+    private final long count;
+    private final long p50;
+    private final long p95;
+    private final long p99;
+
+    Summary(String label, String stage, CodeBuildLatencyHistogram h) {
+      this.label = label;
+      this.stage = stage;
+      this.count = h.getCount();
+      this.p50 = h.percentile(0.50);
+      this.p95 = h.percentile(0.95);
+      this.p99 = h.percentile(0.99);
+    }
+
+    /** Blank for all labels of the cloud. */
+    public String getLabel() {
+      return label;
+    }
+
+    public String getStage() {
+      return stage;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    /** Milliseconds. */
+    public long getP50() {
+      return p50;
+    }
+
+    /** Milliseconds. */
+    public long getP95() {
+      return p95;
+    }
+
+    /** Milliseconds. */
+    public long getP99() {
+      return p99;
+    }
+
+    JSONObject toJSON() {
+      JSONObject json = new JSONObject();
+      json.put("label", label);
+      json.put("stage", stage);
+      json.put("count", count);
+      json.put("p50", p50);
+      json.put("p95", p95);
+      json.put("p99", p99);
+      return json;
+    }
+  }
+
+  /**
+   * Every stage of the cloud as a whole, then of every label by name. Stages
+   * nothing was recorded for are left out.
+   */
+  @NonNull
+  List<Summary> getSummaries() {
+    Map<String, Histograms> sorted = new TreeMap<String, Histograms>(histograms);
+    List<Summary> result = new ArrayList<Summary>();
+    for (Map.Entry<String, Histograms> e : sorted.entrySet()) {
+      for (Stage s : Stage.values()) {
+        if (s == Stage.PLANNED) {
+          continue;
+        }
+        CodeBuildLatencyHistogram h = e.getValue().byStage[s.ordinal()];
+        if (h.getCount() > 0) {
+          result.add(new Summary(e.getKey(), s.displayName, h));
+        }
+      }
+      CodeBuildLatencyHistogram total = e.getValue().byStage[Stage.PLANNED.ordinal()];
+      if (total.getCount() > 0) {
+        result.add(new Summary(e.getKey(), TOTAL, total));
+      }
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  @NonNull
+  JSONObject toJSON() {
+    JSONArray stages = new JSONArray();
+    for (Summary s : getSummaries()) {
+      stages.add(s.toJSON());
+    }
+    JSONObject json = new JSONObject();
+    json.put("unit", "ms");
+    json.put("stages", stages);
+    json.put("starting", timelines.size());
+    return json;
+  }
+}
@@ -0,0 +1,169 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.amazonaws.services.codebuild.model.ResourceNotFoundException;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.jenkins.plugins.codebuildcloud.CodeBuildClientWrapper.CodeBuildStatus;
+import jenkins.util.Timer;
+
+/**
+ * Stops the builds of terminated agents of a {@link CodeBuildClientWrapper} in
+ * the background.
+ *
+ * Builds queued within {@link #WINDOW_MILLIS} of each other are handled
+ * together: builds the {@link CodeBuildBuildStatusPoller} tracks are read from
+ * memory, the others are looked up with one BatchGetBuilds call per
+ * {@link CodeBuildBuildStatusPoller#MAX_IDS_PER_CALL} builds. Builds still in
+ * progress are stopped with at most {@link #MAX_CONCURRENT_STOPS} StopBuild
+ * calls in flight, so a wave of one-shot agents finishing together does not
+ * flood CodeBuild or the client's threads.
+ */
+class CodeBuildTerminationQueue {
+
+  private static final Logger LOGGER = Logger.getLogger(CodeBuildTerminationQueue.class.getName());
+
+  static final long WINDOW_MILLIS = 200;
+  // Half of the client's background threads, the rest stay free for polls.
+  // Launches have threads of their own.
+  static final int MAX_CONCURRENT_STOPS = Math.max(1, CodeBuildClientWrapper.BACKGROUND_THREADS / 2);
+
+  private static final class Stop {
+    final String buildId;
+    final CompletableFuture<Void> done;
+
+    Stop(String buildId, CompletableFuture<Void> done) {
+      this.buildId = buildId;
+      this.done = done;
+    }
+  }
+
+  private final CodeBuildClientWrapper client;
+
+  // Guarded by this
+  private final Map<String, CompletableFuture<Void>> queued = new LinkedHashMap<String, CompletableFuture<Void>>();
+  private final Deque<Stop> toStop = new ArrayDeque<Stop>();
+  private boolean scheduled;
+  private int stopsInFlight;
+
+  CodeBuildTerminationQueue(@NonNull CodeBuildClientWrapper client) {
+    this.client = client;
+  }
+
+  /**
+   * Stop the build if it is still running. Completes once it is stopped, never
+   * fails, problems are logged.
+   */
+  @NonNull
+  synchronized CompletableFuture<Void> stop(@NonNull String buildId) {
+    CompletableFuture<Void> done = queued.get(buildId);
+    if (done == null) {
+      done = new CompletableFuture<Void>();
+      queued.put(buildId, done);
+    }
+    if (!scheduled) {
+      scheduled = true;
+      Timer.get().schedule(this::drain, WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    return done;
+  }
+
+  /**
+   * Builds queued or being stopped.
+   */
+  synchronized int getPending() {
+    return queued.size() + toStop.size() + stopsInFlight;
+  }
+
+  private void drain() {
+    Map<String, CompletableFuture<Void>> batch;
+    synchronized (this) {
+      batch = new LinkedHashMap<String, CompletableFuture<Void>>(queued);
+      queued.clear();
+      scheduled = false;
+    }
+
+    List<String> unknown = new ArrayList<String>();
+    for (Map.Entry<String, CompletableFuture<Void>> e : batch.entrySet()) {
+      CodeBuildStatus polled = client.getStatusPoller().getStatus(e.getKey());
+      if (polled == null) {
+        unknown.add(e.getKey());
+      } else {
+        resolved(e.getKey(), polled, e.getValue());
+      }
+    }
+
+    for (int from = 0; from < unknown.size(); from += CodeBuildBuildStatusPoller.MAX_IDS_PER_CALL) {
+      final List<String> ids = new ArrayList<String>(unknown.subList(from,
+          Math.min(unknown.size(), from + CodeBuildBuildStatusPoller.MAX_IDS_PER_CALL)));
+      client.getBuildStatusesAsync(ids, CodeBuildApiStats.Caller.TERMINATION).whenComplete((statuses, e) -> {
+        for (String buildId : ids) {
+          if (e != null) {
+            LOGGER.severe(String.format("Exception while attempting to stop build: %s.  Exception %s",
+                buildId, e));
+            batch.get(buildId).complete(null);
+          } else if (statuses.get(buildId) == null) {
+            // this is fine. really.
+            batch.get(buildId).complete(null);
+          } else {
+            resolved(buildId, statuses.get(buildId), batch.get(buildId));
+          }
+        }
+      });
+    }
+    startStops();
+  }
+
+  private void resolved(@NonNull String buildId, @NonNull CodeBuildStatus status,
+      @NonNull CompletableFuture<Void> done) {
+    // No other use cases make sense to stop the build right?
+    if (status != CodeBuildStatus.IN_PROGRESS) {
+      LOGGER.finest(String.format("Build ID: %s already stopped", buildId));
+      done.complete(null);
+      return;
+    }
+    synchronized (this) {
+      toStop.add(new Stop(buildId, done));
+    }
+    startStops();
+  }
+
+  private void startStops() {
+    while (true) {
+      final Stop s;
+      synchronized (this) {
+        if (stopsInFlight >= MAX_CONCURRENT_STOPS || toStop.isEmpty()) {
+          return;
+        }
+        s = toStop.poll();
+        stopsInFlight++;
+      }
+
+      LOGGER.finest(String.format("Stopping build ID: %s", s.buildId));
+      client.stopBuildNowAsync(s.buildId).whenComplete((r, e) -> {
+        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+        if (cause instanceof ResourceNotFoundException) {
+          // this is fine. really.
+        } else if (cause != null) {
+          LOGGER.severe(String.format("Exception while attempting to stop build: %s.  Exception %s",
+              cause.getMessage(), cause));
+        }
+        synchronized (this) {
+          stopsInFlight--;
+        }
+        s.done.complete(null);
+        startStops();
+      });
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import jenkins.benchmark.jmh.BenchmarkFinder;
+
+/**
+ * Runs the JMH benchmarks of the plugin's hot paths. Not picked up by a normal
+ * build, run with <code>mvn test -P jmh-benchmark</code>. Results are written
+ * to <code>jmh-report.json</code>.
+ */
+public class BenchmarkRunner {
+
+  @Test
+  public void runJmhBenchmarks() throws Exception {
+    ChainedOptionsBuilder options = new OptionsBuilder()
+        .mode(Mode.AverageTime)
+        .timeUnit(TimeUnit.MICROSECONDS)
+        .warmupIterations(3)
+        .measurementIterations(5)
+        .threads(1)
+        .forks(1)
+        .shouldFailOnError(true)
+        .shouldDoGC(true)
+        .resultFormat(ResultFormatType.JSON)
+        .result("jmh-report.json");
+
+    new BenchmarkFinder(getClass()).findBenchmarks(options);
+    new Runner(options.build()).run();
+  }
+}
@@ -0,0 +1,181 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CodeBuildAgentRegistryTest {
+
+  private static void assertCounts(CodeBuildAgentRegistry registry, int planned, int starting, int idle, int busy,
+      int terminating) {
+    Assert.assertEquals("planned", planned, registry.getPlanned());
+    Assert.assertEquals("starting", starting, registry.getStarting());
+    Assert.assertEquals("idle", idle, registry.getIdle());
+    Assert.assertEquals("busy", busy, registry.getBusy());
+    Assert.assertEquals("terminating", terminating, registry.getTerminating());
+  }
+
+  @Test
+  public void testForwardMoves() {
+    CodeBuildAgentRegistry registry = new CodeBuildAgentRegistry();
+
+    registry.agentPlanned("a", "linux", "fleet:warm");
+    assertCounts(registry, 1, 0, 0, 0, 0);
+    Assert.assertEquals(1, registry.getActive("linux"));
+    Assert.assertEquals(1, registry.getWaiting("fleet:warm"));
+
+    registry.agentAdded("a", "linux", "fleet:warm");
+    assertCounts(registry, 0, 1, 0, 0, 0);
+    Assert.assertEquals(1, registry.getActive("linux"));
+    Assert.assertEquals(1, registry.getWaiting("linux"));
+
+    registry.agentOnline("a");
+    assertCounts(registry, 0, 0, 1, 0, 0);
+    Assert.assertEquals(1, registry.getWaiting("linux"));
+
+    registry.agentBusy("a");
+    assertCounts(registry, 0, 0, 0, 1, 0);
+    Assert.assertEquals(1, registry.getActive("linux"));
+    Assert.assertEquals(0, registry.getWaiting("linux"));
+    Assert.assertEquals(1, registry.getActive());
+
+    registry.agentTerminating("a");
+    assertCounts(registry, 0, 0, 0, 0, 1);
+    Assert.assertEquals(0, registry.getActive("linux"));
+    Assert.assertEquals(0, registry.getActive("fleet:warm"));
+    Assert.assertEquals(0, registry.getActive());
+  }
+
+  @Test
+  public void testTerminatingWhileWaitingFreesBothCounts() {
+    CodeBuildAgentRegistry registry = new CodeBuildAgentRegistry();
+    registry.agentAdded("a", "linux");
+
+    registry.agentTerminating("a");
+    Assert.assertEquals(0, registry.getActive("linux"));
+    Assert.assertEquals(0, registry.getWaiting("linux"));
+  }
+
+  @Test
+  public void testBackwardMovesAreIgnored() {
+    CodeBuildAgentRegistry registry = new CodeBuildAgentRegistry();
+    registry.agentAdded("a", "linux");
+    registry.agentOnline("a");
+    registry.agentBusy("a");
+
+    // A late online event does not make a busy agent wait for work again
+    registry.agentOnline("a");
+    assertCounts(registry, 0, 0, 0, 1, 0);
+    Assert.assertEquals(0, registry.getWaiting("linux"));
+
+    // A late added event does not plan it again either
+    registry.agentAdded("a", "linux");
+    assertCounts(registry, 0, 0, 0, 1, 0);
+
+    // A terminating agent never comes back
+    registry.agentTerminating("a");
+    registry.agentOnline("a");
+    registry.agentBusy("a");
+    assertCounts(registry, 0, 0, 0, 0, 1);
+    Assert.assertEquals(0, registry.getActive("linux"));
+    Assert.assertEquals(0, registry.getWaiting("linux"));
+  }
+
+  @Test
+  public void testUnknownAgentsAreIgnored() {
+    CodeBuildAgentRegistry registry = new CodeBuildAgentRegistry();
+    registry.agentOnline("unknown");
+    registry.agentTerminating("unknown");
+    registry.agentRemoved("unknown");
+    assertCounts(registry, 0, 0, 0, 0, 0);
+  }
+
+  @Test
+  public void testRemovedFromEveryState() {
+    CodeBuildAgentRegistry registry = new CodeBuildAgentRegistry();
+    registry.agentPlanned("planned", "linux");
+    registry.agentAdded("starting", "linux");
+    registry.agentAdded("idle", "linux");
+    registry.agentOnline("idle");
+    registry.agentAdded("busy", "linux");
+    registry.agentOnline("busy");
+    registry.agentBusy("busy");
+    registry.agentAdded("terminating", "linux");
+    registry.agentTerminating("terminating");
+    Assert.assertEquals(4, registry.getActive("linux"));
+    Assert.assertEquals(3, registry.getWaiting("linux"));
+
+    registry.agentRemoved("planned");
+    Assert.assertEquals(3, registry.getActive("linux"));
+    Assert.assertEquals(2, registry.getWaiting("linux"));
+
+    registry.agentRemoved("starting");
+    Assert.assertEquals(2, registry.getActive("linux"));
+    Assert.assertEquals(1, registry.getWaiting("linux"));
+
+    registry.agentRemoved("idle");
+    Assert.assertEquals(1, registry.getActive("linux"));
+    Assert.assertEquals(0, registry.getWaiting("linux"));
+
+    registry.agentRemoved("busy");
+    Assert.assertEquals(0, registry.getActive("linux"));
+    Assert.assertEquals(0, registry.getWaiting("linux"));
+
+    // Already gave its slot back when it started terminating
+    registry.agentRemoved("terminating");
+    Assert.assertEquals(0, registry.getActive("linux"));
+    Assert.assertEquals(0, registry.getWaiting("linux"));
+    assertCounts(registry, 0, 0, 0, 0, 0);
+
+    // Removed twice
+    registry.agentRemoved("busy");
+    Assert.assertEquals(0, registry.getActive("linux"));
+  }
+
+  @Test
+  public void testConcurrentAddAndRemove() throws Exception {
+    CodeBuildAgentRegistry registry = new CodeBuildAgentRegistry();
+    int threads = 8;
+    int agentsPerThread = 2000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> done = new ArrayList<Future<?>>();
+      for (int t = 0; t < threads; t++) {
+        String prefix = "agent-" + t + ".";
+        done.add(executor.submit(() -> {
+          for (int i = 0; i < agentsPerThread; i++) {
+            String name = prefix + i;
+            registry.agentAdded(name, "linux", "fleet:warm");
+            // Every other agent runs a job before it goes
+            if (i % 2 == 0) {
+              registry.agentOnline(name);
+              registry.agentBusy(name);
+            }
+            registry.agentTerminating(name);
+            registry.agentRemoved(name);
+          }
+        }));
+      }
+      // Meanwhile agents that stay
+      for (int i = 0; i < agentsPerThread; i++) {
+        registry.agentAdded("stays." + i, "linux");
+      }
+      for (Future<?> f : done) {
+        f.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertCounts(registry, 0, agentsPerThread, 0, 0, 0);
+    Assert.assertEquals(agentsPerThread, registry.getActive("linux"));
+    Assert.assertEquals(agentsPerThread, registry.getWaiting("linux"));
+    Assert.assertEquals(0, registry.getActive("fleet:warm"));
+    Assert.assertEquals(0, registry.getWaiting("fleet:warm"));
+  }
+}
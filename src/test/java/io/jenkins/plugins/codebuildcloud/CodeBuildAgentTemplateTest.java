@@ -0,0 +1,141 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.amazonaws.services.codebuild.model.StartBuildRequest;
+
+import hudson.model.Label;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+import jenkins.model.Jenkins;
+
+public class CodeBuildAgentTemplateTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  private static CodeBuildCloud cloud(FakeCodeBuild fake, CodeBuildAgentTemplate... templates) {
+    fake.setConcurrentBuildLimit("project", 10);
+    CodeBuildCloud cloud = TestClouds.cloud("templates").label("default").client(fake).build();
+    cloud.setTemplates(Arrays.asList(templates));
+    cloud.maintainConcurrentBuildLimits().join();
+    return cloud;
+  }
+
+  /** StartBuild of the one agent provisioned for the label. */
+  private static StartBuildRequest startBuild(FakeCodeBuild fake, CodeBuildCloud cloud, String label)
+      throws Exception {
+    int before = fake.getStartBuildRequests().size();
+    for (PlannedNode p : cloud.provision(Label.get(label), 1)) {
+      p.future.get();
+    }
+    TestClouds.awaitUntil(() -> fake.getStartBuildRequests().size() > before);
+    List<StartBuildRequest> requests = fake.getStartBuildRequests();
+    Assert.assertEquals(before + 1, requests.size());
+    return requests.get(before);
+  }
+
+  @Test
+  public void testFirstMatchingTemplateWins() {
+    CodeBuildCloud cloud = cloud(new FakeCodeBuild(),
+        new CodeBuildAgentTemplate("linux small", "BUILD_GENERAL1_SMALL", null, null, null, null, null),
+        new CodeBuildAgentTemplate("linux", "BUILD_GENERAL1_LARGE", null, null, null, null, null));
+
+    Assert.assertEquals("BUILD_GENERAL1_SMALL", cloud.getTemplate(Label.get("linux")).getComputeType());
+    Assert.assertEquals("BUILD_GENERAL1_LARGE",
+        cloud.getTemplate(Label.parseExpression("linux && !small")).getComputeType());
+    // Templates before the cloud's own label, which is still served
+    Assert.assertEquals("default", cloud.getTemplate(Label.get("default")).getLabel());
+    Assert.assertNull(cloud.getTemplate(Label.get("windows")));
+  }
+
+  @Test
+  public void testTemplateOverridesStartBuild() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    CodeBuildCloud cloud = cloud(fake, new CodeBuildAgentTemplate("arm", "BUILD_GENERAL1_LARGE", "arm-image",
+        "ARM_CONTAINER", false, null, null));
+
+    StartBuildRequest request = startBuild(fake, cloud, "arm");
+    Assert.assertEquals("project", request.getProjectName());
+    Assert.assertEquals("BUILD_GENERAL1_LARGE", request.getComputeTypeOverride());
+    Assert.assertEquals("arm-image", request.getImageOverride());
+    Assert.assertEquals("ARM_CONTAINER", request.getEnvironmentTypeOverride());
+    Assert.assertEquals(Boolean.FALSE, request.getPrivilegedModeOverride());
+  }
+
+  @Test
+  public void testBlankFieldsFallBackToTheCloud() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    CodeBuildCloud cloud = cloud(fake, new CodeBuildAgentTemplate("plain", " ", "", null, null, null, null));
+
+    StartBuildRequest request = startBuild(fake, cloud, "plain");
+    Assert.assertEquals("project", request.getProjectName());
+    Assert.assertEquals(cloud.getComputeType(), request.getComputeTypeOverride());
+    Assert.assertEquals(cloud.getDockerImage(), request.getImageOverride());
+    Assert.assertEquals(cloud.getEnvironmentType(), request.getEnvironmentTypeOverride());
+    Assert.assertEquals(Boolean.TRUE, request.getPrivilegedModeOverride());
+  }
+
+  @Test
+  public void testTemplateCap() {
+    CodeBuildCloud cloud = cloud(new FakeCodeBuild(),
+        new CodeBuildAgentTemplate("capped", null, null, null, null, null, 2),
+        new CodeBuildAgentTemplate("other", null, null, null, null, null, null));
+
+    Assert.assertEquals(2, cloud.provision(Label.get("capped"), 5).size());
+    Assert.assertEquals(0, cloud.provision(Label.get("capped"), 1).size());
+    Assert.assertEquals(2, cloud.getRegistry().getActive("capped"));
+
+    // Only the capped template is full
+    Assert.assertEquals(3, cloud.provision(Label.get("other"), 3).size());
+    Assert.assertEquals(1, cloud.provision(Label.get("default"), 1).size());
+    Assert.assertEquals(6, cloud.getRegistry().getActive());
+  }
+
+  @Test
+  public void testDuplicateLabelsAreRejected() {
+    CodeBuildCloud cloud = cloud(new FakeCodeBuild());
+    try {
+      cloud.setTemplates(Arrays.asList(
+          new CodeBuildAgentTemplate("linux small", null, null, null, null, null, 2),
+          new CodeBuildAgentTemplate("small linux", null, null, null, null, null, 2)));
+      Assert.fail("Same labels in another order");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    try {
+      cloud.setTemplates(Arrays.asList(new CodeBuildAgentTemplate("default", null, null, null, null, null, 2)));
+      Assert.fail("Same label as the cloud");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    Assert.assertTrue(cloud.getTemplates().isEmpty());
+
+    cloud.setTemplates(Arrays.asList(new CodeBuildAgentTemplate("linux", null, null, null, null, null, 2)));
+    try {
+      cloud.setLabel("linux");
+      Assert.fail("Same label as a template");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    Assert.assertEquals("default", cloud.getLabel());
+  }
+
+  @Test
+  public void testDuplicateLabelsAreDroppedOnLoad() {
+    CodeBuildCloud cloud = cloud(new FakeCodeBuild(),
+        new CodeBuildAgentTemplate("small", "BUILD_GENERAL1_SMALL", null, null, null, null, 2),
+        new CodeBuildAgentTemplate("large", "BUILD_GENERAL1_LARGE", null, null, null, null, 2));
+    // Saved by a version that did not check
+    String xml = Jenkins.XSTREAM2.toXML(cloud).replace("<label>large</label>", "<label>small</label>");
+
+    CodeBuildCloud loaded = (CodeBuildCloud) Jenkins.XSTREAM2.fromXML(xml);
+    Assert.assertEquals(1, loaded.getTemplates().size());
+    Assert.assertEquals("BUILD_GENERAL1_SMALL", loaded.getTemplates().get(0).getComputeType());
+  }
+}
@@ -0,0 +1,104 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.amazonaws.AmazonServiceException;
+
+import hudson.model.Label;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+
+public class CodeBuildBackendTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  private CodeBuildCloud createCloud(FakeCodeBuild primary) {
+    return TestClouds.cloud("backends").project("primary").label("backends").client(primary).build();
+  }
+
+  @Test
+  public void testOverflowWhenPrimaryIsFull() throws Exception {
+    FakeCodeBuild primary = new FakeCodeBuild();
+    primary.setConcurrentBuildLimit("primary", 2);
+    FakeCodeBuild other = new FakeCodeBuild();
+    other.setConcurrentBuildLimit("other", 10);
+
+    CodeBuildCloud cloud = createCloud(primary);
+    CodeBuildBackend backend = new CodeBuildBackend("", "us-west-2", "other", 3, 1);
+    backend.setClient(new CodeBuildClientWrapper(other));
+    cloud.setBackends(Arrays.asList(backend));
+    cloud.maintainConcurrentBuildLimits().join();
+
+    Collection<PlannedNode> planned = cloud.provision(Label.get("backends"), 10);
+    Assert.assertEquals(5, planned.size());
+    Assert.assertEquals(2, cloud.getRegistry().getActive(cloud.getPrimaryBackend().getPool()));
+    Assert.assertEquals(3, cloud.getRegistry().getActive(backend.getPool()));
+
+    // Both full
+    Assert.assertEquals(0, cloud.provision(Label.get("backends"), 1).size());
+  }
+
+  @Test
+  public void testWeightedSpreadsAgents() throws Exception {
+    FakeCodeBuild primary = new FakeCodeBuild();
+    primary.setConcurrentBuildLimit("primary", 10);
+    FakeCodeBuild other = new FakeCodeBuild();
+    other.setConcurrentBuildLimit("other", 10);
+
+    CodeBuildCloud cloud = createCloud(primary);
+    CodeBuildBackend backend = new CodeBuildBackend("", "us-west-2", "other", 0, 2);
+    backend.setClient(new CodeBuildClientWrapper(other));
+    cloud.setBackends(Arrays.asList(backend));
+    cloud.maintainConcurrentBuildLimits().join();
+    cloud.setBackendStrategy(CodeBuildCloud.BACKEND_STRATEGY_WEIGHTED);
+
+    Assert.assertEquals(6, cloud.provision(Label.get("backends"), 6).size());
+    Assert.assertEquals(2, cloud.getRegistry().getActive(cloud.getPrimaryBackend().getPool()));
+    Assert.assertEquals(4, cloud.getRegistry().getActive(backend.getPool()));
+  }
+
+  @Test
+  public void testThrottledBackendIsSkipped() throws Exception {
+    FakeCodeBuild other = new FakeCodeBuild();
+    other.setConcurrentBuildLimit("other", 10);
+    CodeBuildBackend backend = new CodeBuildBackend("", "us-west-2", "other", 0, 1);
+    backend.setClient(new CodeBuildClientWrapper(other));
+    backend.getClient().getMaxConcurrentJobsAsync("other").join();
+    Assert.assertEquals(10, backend.canProvision(0));
+
+    Assert.assertFalse(backend.onStartBuildFailure(new IllegalStateException("not a throttle")));
+    AmazonServiceException throttled = new AmazonServiceException("Rate exceeded");
+    throttled.setErrorCode("ThrottlingException");
+    Assert.assertTrue(backend.onStartBuildFailure(throttled));
+    Assert.assertTrue(backend.isThrottled());
+    Assert.assertEquals(0, backend.canProvision(0));
+  }
+
+  @Test
+  public void testUnknownLimitDoesNotBlockProvisioning() throws Exception {
+    FakeCodeBuild other = new FakeCodeBuild();
+    other.setConcurrentBuildLimit("other", 10);
+    CountDownLatch release = new CountDownLatch(1);
+    other.holdCalls(release);
+    CodeBuildBackend backend = new CodeBuildBackend("", "us-west-2", "other", 0, 1);
+    backend.setClient(new CodeBuildClientWrapper(other));
+
+    // Returns while the lookup it started is still held inside CodeBuild
+    Assert.assertEquals(0, backend.canProvision(0));
+    TestClouds.awaitUntil(() -> other.getCalls("BatchGetProjects") == 1);
+    Assert.assertEquals(0, backend.canProvision(0));
+    Assert.assertFalse(backend.getClient().getMaxConcurrentJobsAsync("other").isDone());
+
+    release.countDown();
+    backend.getClient().getMaxConcurrentJobsAsync("other").join();
+    Assert.assertEquals(10, backend.canProvision(0));
+    Assert.assertEquals(1, other.getCalls("BatchGetProjects"));
+  }
+}
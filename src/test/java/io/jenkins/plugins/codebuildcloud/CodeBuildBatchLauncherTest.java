@@ -0,0 +1,78 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.amazonaws.services.codebuild.model.StartBuildBatchRequest;
+
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+
+public class CodeBuildBatchLauncherTest {
+
+  private static final String BUILDSPEC = "version: 0.2\nphases:\n  build:\n    commands:\n      - ./agent.sh\n";
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  private CodeBuildCloud cloud(FakeCodeBuild fake, String buildSpec) {
+    CodeBuildCloud cloud = TestClouds.cloud("batch").label("batch").agentConnectTimeout(60).buildSpec(buildSpec)
+        .client(fake).build();
+    cloud.setBatchLaunch(true);
+    cloud.maintainConcurrentBuildLimits().join();
+    return cloud;
+  }
+
+  private static void waitForBuilds(Collection<PlannedNode> planned) throws Exception {
+    for (PlannedNode p : planned) {
+      Node node = p.future.get();
+      TestClouds.awaitUntil(() -> {
+        Computer c = node.toComputer();
+        return c != null && ((CodeBuildComputer) c).getBuildId() != null;
+      });
+      Assert.assertNotNull(((CodeBuildComputer) node.toComputer()).getBuildId());
+    }
+  }
+
+  @Test
+  public void testOneBatchPerProvisioningRound() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("project", 10);
+    CodeBuildCloud cloud = cloud(fake, BUILDSPEC);
+
+    Collection<PlannedNode> planned = cloud.provision(Label.get("batch"), 5);
+    Assert.assertEquals(5, planned.size());
+    waitForBuilds(planned);
+
+    Assert.assertEquals(0, fake.getCalls("StartBuild"));
+    Assert.assertEquals(1, fake.getCalls("StartBuildBatch"));
+    Assert.assertEquals(5, fake.getInProgress("project"));
+
+    // Every agent connects with its own name
+    List<StartBuildBatchRequest> requests = fake.getStartBuildBatchRequests();
+    for (PlannedNode p : planned) {
+      Assert.assertTrue(requests.get(0).getBuildspecOverride()
+          .contains("JENKINS_AGENT_NAME: \"" + p.future.get().getNodeName() + "\""));
+    }
+  }
+
+  @Test
+  public void testProjectBuildspecIsNotBatched() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("project", 10);
+    CodeBuildCloud cloud = cloud(fake, "");
+
+    Collection<PlannedNode> planned = cloud.provision(Label.get("batch"), 3);
+    waitForBuilds(planned);
+
+    Assert.assertEquals(3, fake.getCalls("StartBuild"));
+    Assert.assertEquals(0, fake.getCalls("StartBuildBatch"));
+  }
+}
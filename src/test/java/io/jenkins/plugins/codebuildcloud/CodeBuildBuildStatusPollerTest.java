@@ -0,0 +1,55 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.amazonaws.services.codebuild.model.Build;
+import com.amazonaws.services.codebuild.model.StartBuildRequest;
+import com.amazonaws.services.codebuild.model.StopBuildRequest;
+
+import io.jenkins.plugins.codebuildcloud.CodeBuildClientWrapper.CodeBuildStatus;
+
+public class CodeBuildBuildStatusPollerTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Test
+  public void testPollsInBatches() {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    CodeBuildClientWrapper client = new CodeBuildClientWrapper(fake);
+    CodeBuildBuildStatusPoller poller = client.getStatusPoller();
+
+    final List<Build> seen = new ArrayList<Build>();
+    List<String> ids = new ArrayList<String>();
+    for (int i = 0; i < 250; i++) {
+      String id = client.startBuild(new StartBuildRequest().withProjectName("project")).getBuild().getId();
+      ids.add(id);
+      poller.track(id, i == 0 ? seen::add : null);
+    }
+
+    poller.poll().join();
+    Assert.assertEquals(3, fake.getCalls("BatchGetBuilds"));
+    Assert.assertEquals(CodeBuildStatus.IN_PROGRESS, poller.getStatus(ids.get(42)));
+    Assert.assertEquals(1, seen.size());
+    Assert.assertEquals(ids.get(0), seen.get(0).getId());
+
+    // Tracked builds are read from memory
+    Assert.assertEquals(CodeBuildStatus.IN_PROGRESS, client.getBuildStatus(ids.get(0)));
+    Assert.assertEquals(3, fake.getCalls("BatchGetBuilds"));
+
+    fake.stopBuild(new StopBuildRequest().withId(ids.get(0)));
+    poller.poll().join();
+    Assert.assertEquals(6, fake.getCalls("BatchGetBuilds"));
+    Assert.assertEquals("STOPPED", seen.get(1).getBuildStatus());
+
+    poller.untrack(ids.get(0));
+    Assert.assertNull(poller.getStatus(ids.get(0)));
+    Assert.assertEquals(249, poller.getTracked());
+  }
+}
@@ -0,0 +1,92 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.codebuild.model.AccountLimitExceededException;
+import com.amazonaws.services.codebuild.model.InvalidInputException;
+
+public class CodeBuildCircuitBreakerTest {
+
+  private final long[] now = new long[] { 0 };
+
+  private static AmazonServiceException throttled() {
+    AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+    e.setErrorCode("ThrottlingException");
+    e.setStatusCode(400);
+    return e;
+  }
+
+  @Test
+  public void testTransientErrors() {
+    Assert.assertTrue(CodeBuildCircuitBreaker.isTransient(throttled()));
+    AccountLimitExceededException limit = new AccountLimitExceededException("limit");
+    limit.setErrorCode("AccountLimitExceededException");
+    Assert.assertTrue(CodeBuildCircuitBreaker.isTransient(limit));
+    AmazonServiceException serverError = new AmazonServiceException("oops");
+    serverError.setStatusCode(503);
+    Assert.assertTrue(CodeBuildCircuitBreaker.isTransient(serverError));
+    Assert.assertTrue(CodeBuildCircuitBreaker.isTransient(new SdkClientException("Unable to connect")));
+
+    InvalidInputException invalid = new InvalidInputException("bad image");
+    invalid.setStatusCode(400);
+    Assert.assertFalse(CodeBuildCircuitBreaker.isTransient(invalid));
+    Assert.assertFalse(CodeBuildCircuitBreaker.isTransient(new IllegalStateException()));
+  }
+
+  @Test
+  public void testOpensAfterRejectionsAndRecovers() {
+    CodeBuildCircuitBreaker breaker = new CodeBuildCircuitBreaker("creds/us-east-1", () -> now[0]);
+
+    for (int i = 0; i < CodeBuildCircuitBreaker.REJECTIONS_TO_OPEN - 1; i++) {
+      Assert.assertTrue(breaker.allowRequest());
+      breaker.onRejected();
+    }
+    Assert.assertEquals(CodeBuildCircuitBreaker.State.CLOSED, breaker.getState());
+    breaker.onRejected();
+    Assert.assertEquals(CodeBuildCircuitBreaker.State.OPEN, breaker.getState());
+    Assert.assertFalse(breaker.allowRequest());
+    Assert.assertFalse(breaker.allowsProvisioning());
+    Assert.assertEquals(TimeUnit.SECONDS.toMillis(CodeBuildCircuitBreaker.OPEN_SECONDS),
+        breaker.getRemainingOpenMillis());
+
+    // One trial call once the open period is over
+    now[0] += TimeUnit.SECONDS.toNanos(CodeBuildCircuitBreaker.OPEN_SECONDS);
+    Assert.assertTrue(breaker.allowsProvisioning());
+    Assert.assertTrue(breaker.allowRequest());
+    Assert.assertFalse(breaker.allowRequest());
+
+    // Rejected again, open for twice as long
+    breaker.onRejected();
+    Assert.assertEquals(CodeBuildCircuitBreaker.State.OPEN, breaker.getState());
+    Assert.assertEquals(TimeUnit.SECONDS.toMillis(2 * CodeBuildCircuitBreaker.OPEN_SECONDS),
+        breaker.getRemainingOpenMillis());
+
+    now[0] += TimeUnit.SECONDS.toNanos(2 * CodeBuildCircuitBreaker.OPEN_SECONDS);
+    Assert.assertTrue(breaker.allowRequest());
+    breaker.onSuccess();
+    Assert.assertEquals(CodeBuildCircuitBreaker.State.CLOSED, breaker.getState());
+    Assert.assertTrue(breaker.allowRequest());
+    Assert.assertTrue(breaker.allowRequest());
+    Assert.assertEquals(0, breaker.getRejections());
+  }
+
+  @Test
+  public void testRetryDelayIsJitteredAndCapped() {
+    Random random = new Random(42);
+    for (int attempt = 2; attempt < 30; attempt++) {
+      long ceiling = Math.min(CodeBuildLauncher.RETRY_MAX_MILLIS,
+          CodeBuildLauncher.RETRY_BASE_MILLIS << Math.min(20, attempt - 2));
+      for (int i = 0; i < 100; i++) {
+        long delay = CodeBuildLauncher.retryDelayMillis(attempt, random);
+        Assert.assertTrue(delay >= 1);
+        Assert.assertTrue(delay <= ceiling + 1);
+      }
+    }
+  }
+}
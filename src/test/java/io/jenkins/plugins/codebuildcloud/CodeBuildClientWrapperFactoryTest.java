@@ -0,0 +1,65 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.ProxyConfiguration;
+
+public class CodeBuildClientWrapperFactoryTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Test
+  public void testClientsAreSharedPerCredentialsAndRegion() {
+    CodeBuildClientWrapper client = CodeBuildClientWrapperFactory.buildClient("shared", "us-east-1", j.jenkins);
+    Assert.assertSame(client, CodeBuildClientWrapperFactory.buildClient("shared", "us-east-1", j.jenkins));
+    Assert.assertNotSame(client, CodeBuildClientWrapperFactory.buildClient("shared", "eu-west-1", j.jenkins));
+    Assert.assertNotSame(client, CodeBuildClientWrapperFactory.buildClient("other", "us-east-1", j.jenkins));
+
+    // Rotated credentials keep the client and its connections
+    int clients = CodeBuildClientWrapperFactory.getClientCount();
+    CodeBuildClientWrapperFactory.credentialsChanged();
+    Assert.assertSame(client, CodeBuildClientWrapperFactory.buildClient("shared", "us-east-1", j.jenkins));
+    Assert.assertEquals(clients, CodeBuildClientWrapperFactory.getClientCount());
+  }
+
+  @Test
+  public void testProxyChangesReachSharedClients() throws Exception {
+    j.jenkins.proxy = new ProxyConfiguration("proxy.example.com", 3128);
+    CodeBuildClientWrapper client = CodeBuildClientWrapperFactory.buildClient("proxied", "us-east-1", j.jenkins);
+    Assert.assertTrue(client.getProxyKey().startsWith("proxy.example.com:3128:"));
+
+    // Saved from the proxy configuration page
+    j.jenkins.proxy = new ProxyConfiguration("other.example.com", 8080, "user", "secret");
+    j.jenkins.proxy.save();
+    Assert.assertTrue(client.getProxyKey().startsWith("other.example.com:8080:user:"));
+    Assert.assertSame(client, CodeBuildClientWrapperFactory.buildClient("proxied", "us-east-1", j.jenkins));
+
+    // Only the password changed and nothing was saved
+    String key = client.getProxyKey();
+    j.jenkins.proxy = new ProxyConfiguration("other.example.com", 8080, "user", "rotated");
+    Assert.assertSame(client, CodeBuildClientWrapperFactory.buildClient("proxied", "us-east-1", j.jenkins));
+    Assert.assertNotEquals(key, client.getProxyKey());
+    Assert.assertFalse(client.getProxyKey().contains("rotated"));
+
+    j.jenkins.proxy = null;
+    CodeBuildClientWrapperFactory.buildClient("proxied", "us-east-1", j.jenkins);
+    Assert.assertEquals("", client.getProxyKey());
+  }
+
+  @Test
+  public void testEndpointOverride() {
+    String property = CodeBuildClientWrapperFactory.class.getName() + ".endpoint";
+    Assert.assertEquals("", CodeBuildClientWrapperFactory.endpointFor("us-east-1"));
+    System.setProperty(property, "https://codebuild-fips.{region}.amazonaws.com");
+    try {
+      Assert.assertEquals("https://codebuild-fips.us-east-1.amazonaws.com",
+          CodeBuildClientWrapperFactory.endpointFor("us-east-1"));
+    } finally {
+      System.clearProperty(property);
+    }
+  }
+}
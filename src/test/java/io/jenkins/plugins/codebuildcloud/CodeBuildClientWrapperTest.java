@@ -0,0 +1,106 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazonaws.services.codebuild.model.AccountLimitExceededException;
+import com.amazonaws.services.codebuild.model.StartBuildRequest;
+import com.amazonaws.services.codebuild.model.StartBuildResult;
+
+import io.jenkins.plugins.codebuildcloud.CodeBuildClientWrapper.CodeBuildStatus;
+
+public class CodeBuildClientWrapperTest {
+
+  @Test
+  public void testCallsDoNotBlockTheCaller() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    CountDownLatch release = new CountDownLatch(1);
+    fake.holdCalls(release);
+    CodeBuildClientWrapper client = new CodeBuildClientWrapper(fake);
+
+    // Returns with every call still held inside CodeBuild
+    List<CompletableFuture<StartBuildResult>> started = new ArrayList<CompletableFuture<StartBuildResult>>();
+    for (int i = 0; i < CodeBuildClientWrapper.PROVISIONING_THREADS; i++) {
+      started.add(client.startBuildAsync(new StartBuildRequest().withProjectName("project")));
+    }
+    for (CompletableFuture<StartBuildResult> f : started) {
+      Assert.assertFalse(f.isDone());
+    }
+
+    // Side by side: all of them reached CodeBuild before any was answered
+    TestClouds.awaitUntil(() -> fake.getCalls("StartBuild") == CodeBuildClientWrapper.PROVISIONING_THREADS);
+    Assert.assertEquals(CodeBuildClientWrapper.PROVISIONING_THREADS, fake.getCalls("StartBuild"));
+    for (CompletableFuture<StartBuildResult> f : started) {
+      Assert.assertFalse(f.isDone());
+    }
+
+    release.countDown();
+    List<CompletableFuture<CodeBuildStatus>> statuses = new ArrayList<CompletableFuture<CodeBuildStatus>>();
+    for (CompletableFuture<StartBuildResult> f : started) {
+      statuses.add(client.getBuildStatusAsync(f.join().getBuild().getId()));
+    }
+    for (CompletableFuture<CodeBuildStatus> f : statuses) {
+      Assert.assertEquals(CodeBuildStatus.IN_PROGRESS, f.join());
+    }
+  }
+
+  @Test
+  public void testBackgroundCallsDoNotHoldUpProvisioning() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setLatencyMs(200);
+    CodeBuildClientWrapper client = new CodeBuildClientWrapper(fake);
+
+    // Three rounds of polls queue on the background threads
+    List<CompletableFuture<?>> polls = new ArrayList<CompletableFuture<?>>();
+    for (int i = 0; i < 3 * CodeBuildClientWrapper.BACKGROUND_THREADS; i++) {
+      polls.add(client.getBuildStatusesAsync(Arrays.asList("build-" + i), CodeBuildApiStats.Caller.STATUS_POLLING));
+    }
+
+    client.startBuildAsync(new StartBuildRequest().withProjectName("project")).join();
+    Assert.assertFalse(polls.get(polls.size() - 1).isDone());
+    CompletableFuture.allOf(polls.toArray(new CompletableFuture<?>[0])).join();
+  }
+
+  @Test
+  public void testFailedCallFailsTheFuture() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("project", 0);
+    fake.setEnforceConcurrentBuildLimit(true);
+    CodeBuildClientWrapper client = new CodeBuildClientWrapper(fake);
+
+    try {
+      client.startBuildAsync(new StartBuildRequest().withProjectName("project")).join();
+      Assert.fail("StartBuild should have failed");
+    } catch (CompletionException e) {
+      Assert.assertTrue(e.getCause() instanceof AccountLimitExceededException);
+    }
+
+    // The synchronous API throws what the call failed with
+    try {
+      client.startBuild(new StartBuildRequest().withProjectName("project"));
+      Assert.fail("StartBuild should have failed");
+    } catch (AccountLimitExceededException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testConcurrentBuildLimitIsCached() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("project", 7);
+    CodeBuildClientWrapper client = new CodeBuildClientWrapper(fake);
+
+    Assert.assertNull(client.getCachedMaxConcurrentJobs("project"));
+    Assert.assertEquals(Integer.valueOf(7), client.getMaxConcurrentJobs("project"));
+    Assert.assertEquals(Integer.valueOf(7), client.getCachedMaxConcurrentJobs("project"));
+    Assert.assertEquals(Integer.valueOf(7), client.getMaxConcurrentJobs("project"));
+    Assert.assertEquals(1, fake.getCalls("BatchGetProjects"));
+  }
+}
@@ -1,10 +1,15 @@
 package io.jenkins.plugins.codebuildcloud;
 
+import java.util.Map;
+
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+
 public class CodeBuildCloudTest {
 
   @Rule
@@ -20,4 +25,30 @@ public class CodeBuildCloudTest {
     Assert.assertEquals("hello", cloud.getCodeBuildProjectName());
   }
 
+  @Test
+  public void testDefaultPhaseTimeoutsApplyBeforeTheConnectionTimeout() {
+    Map<String, Long> timeouts = CodeBuildCloud.parsePhaseTimeouts(CodeBuildCloud.DEFAULT_PHASE_TIMEOUTS);
+    Assert.assertFalse(timeouts.isEmpty());
+    for (Map.Entry<String, Long> e : timeouts.entrySet()) {
+      Assert.assertTrue(e.getKey(), e.getValue() < CodeBuildCloud.DEFAULT_AGENT_CONNECT_TIMEOUT);
+    }
+
+    CodeBuildCloud.DescriptorImpl descriptor = j.jenkins.getDescriptorByType(CodeBuildCloud.DescriptorImpl.class);
+    Assert.assertEquals(FormValidation.Kind.OK,
+        descriptor.doCheckPhaseTimeouts(CodeBuildCloud.DEFAULT_PHASE_TIMEOUTS, "180").kind);
+    Assert.assertEquals(FormValidation.Kind.WARNING, descriptor.doCheckPhaseTimeouts("QUEUED=120", "60").kind);
+    Assert.assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckPhaseTimeouts("QUEUED", "60").kind);
+  }
+
+  @Test
+  public void testPhaseTimeoutsStayEmptyForExistingClouds() {
+    CodeBuildCloud cloud = TestClouds.cloud("existing").build();
+    Assert.assertEquals(CodeBuildCloud.DEFAULT_PHASE_TIMEOUTS, cloud.getPhaseTimeouts());
+
+    // Saved before phase timeouts existed
+    String xml = Jenkins.XSTREAM2.toXML(cloud).replaceAll("<phaseTimeouts>[^<]*</phaseTimeouts>", "");
+    CodeBuildCloud loaded = (CodeBuildCloud) Jenkins.XSTREAM2.fromXML(xml);
+    Assert.assertEquals("", loaded.getPhaseTimeouts());
+  }
+
 }
@@ -0,0 +1,119 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.io.File;
+import java.util.Calendar;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CodeBuildDemandForecastTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static Calendar at(int dayOfWeek, int hour, int minute) {
+    // 7th of January 2024 is a Sunday
+    Calendar c = Calendar.getInstance();
+    c.clear();
+    c.set(2024, Calendar.JANUARY, 7 + dayOfWeek - Calendar.SUNDAY, hour, minute);
+    return c;
+  }
+
+  @Test
+  public void testArrivalsFoldIntoHourOfWeek() throws Exception {
+    File file = new File(tmp.getRoot(), "cloud/demand-forecast.txt");
+    CodeBuildDemandForecast forecast = new CodeBuildDemandForecast(file);
+
+    for (int i = 0; i < 100; i++) {
+      forecast.recordArrival("codebuild", at(Calendar.MONDAY, 8, i % 60));
+    }
+    // Nothing is learned until the hour is over
+    Assert.assertEquals(0, forecast.getRate("codebuild", CodeBuildDemandForecast.bucketOf(at(Calendar.MONDAY, 8, 0))),
+        0.0001);
+
+    forecast.tick(at(Calendar.MONDAY, 9, 0));
+    int monday8 = CodeBuildDemandForecast.bucketOf(at(Calendar.MONDAY, 8, 0));
+    Assert.assertEquals(30, forecast.getRate("codebuild", monday8), 0.0001);
+
+    // 30 per hour is expected for the Monday 08:00 hour, so 5 within 10 minutes
+    Assert.assertEquals(5, forecast.expectedArrivals(at(Calendar.MONDAY, 8, 0), 10).get("codebuild"), 0.0001);
+    Assert.assertEquals(0, forecast.expectedArrivals(at(Calendar.TUESDAY, 8, 0), 10).get("codebuild"), 0.0001);
+
+    // The model survives a restart
+    Assert.assertTrue(file.exists());
+    CodeBuildDemandForecast reloaded = new CodeBuildDemandForecast(file);
+    Assert.assertEquals(30, reloaded.getRate("codebuild", monday8), 0.0001);
+  }
+
+  @Test
+  public void testQuietHoursDecay() throws Exception {
+    CodeBuildDemandForecast forecast = new CodeBuildDemandForecast(new File(tmp.getRoot(), "forecast.txt"));
+    int bucket = CodeBuildDemandForecast.bucketOf(at(Calendar.FRIDAY, 22, 0));
+
+    for (int i = 0; i < 10; i++) {
+      forecast.recordArrival("nightly", at(Calendar.FRIDAY, 22, 0));
+    }
+    forecast.tick(at(Calendar.FRIDAY, 23, 0));
+    Assert.assertEquals(3, forecast.getRate("nightly", bucket), 0.0001);
+
+    // A week later the same hour passes without arrivals
+    forecast.tick(at(Calendar.FRIDAY, 22, 0));
+    forecast.tick(at(Calendar.FRIDAY, 23, 0));
+    Assert.assertEquals(2.1, forecast.getRate("nightly", bucket), 0.0001);
+  }
+
+  @Test
+  public void testPartlyWatchedHourIsScaled() throws Exception {
+    CodeBuildDemandForecast forecast = new CodeBuildDemandForecast(new File(tmp.getRoot(), "forecast.txt"));
+    int bucket = CodeBuildDemandForecast.bucketOf(at(Calendar.MONDAY, 8, 0));
+
+    // Jenkins started at half past, 10 arrivals in half an hour are 20 an hour
+    for (int i = 0; i < 10; i++) {
+      forecast.recordArrival("codebuild", at(Calendar.MONDAY, 8, 30 + i));
+    }
+    forecast.tick(at(Calendar.MONDAY, 9, 0));
+    Assert.assertEquals(6, forecast.getRate("codebuild", bucket), 0.0001);
+
+    // The next hours are watched in full
+    for (int i = 0; i < 10; i++) {
+      forecast.recordArrival("codebuild", at(Calendar.MONDAY, 9, i));
+    }
+    forecast.tick(at(Calendar.MONDAY, 10, 0));
+    Assert.assertEquals(3, forecast.getRate("codebuild", bucket + 1), 0.0001);
+  }
+
+  @Test
+  public void testBarelyWatchedHourIsLeftOut() throws Exception {
+    CodeBuildDemandForecast forecast = new CodeBuildDemandForecast(new File(tmp.getRoot(), "forecast.txt"));
+    int bucket = CodeBuildDemandForecast.bucketOf(at(Calendar.MONDAY, 8, 0));
+
+    forecast.tick(at(Calendar.MONDAY, 8, 55));
+    for (int i = 0; i < 10; i++) {
+      forecast.recordArrival("codebuild", at(Calendar.MONDAY, 8, 55));
+    }
+    forecast.tick(at(Calendar.MONDAY, 9, 0));
+    Assert.assertEquals(0, forecast.getRate("codebuild", bucket), 0.0001);
+  }
+
+  @Test
+  public void testArrivalsDoNotTouchTheFile() throws Exception {
+    File file = new File(tmp.getRoot(), "forecast.txt");
+    CodeBuildDemandForecast forecast = new CodeBuildDemandForecast(file);
+    forecast.recordArrival("codebuild", at(Calendar.MONDAY, 8, 0));
+    Assert.assertFalse(file.exists());
+
+    // Read and written by the tick of the maintenance task
+    forecast.tick(at(Calendar.MONDAY, 9, 0));
+    Assert.assertTrue(file.exists());
+  }
+
+  @Test
+  public void testOneInstancePerFile() {
+    File file = new File(tmp.getRoot(), "shared/demand-forecast.txt");
+    Assert.assertSame(CodeBuildDemandForecast.forFile(file), CodeBuildDemandForecast.forFile(new File(file.getPath())));
+    Assert.assertNotSame(CodeBuildDemandForecast.forFile(file),
+        CodeBuildDemandForecast.forFile(new File(tmp.getRoot(), "other/demand-forecast.txt")));
+  }
+}
@@ -0,0 +1,87 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.amazonaws.services.codebuild.model.StartBuildRequest;
+
+import hudson.model.Label;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+
+public class CodeBuildFleetTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Test
+  public void testFleetFillsBeforeOnDemand() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("on-demand", 10);
+
+    CodeBuildCloud cloud = TestClouds.cloud("fleets").project("on-demand").client(fake).build();
+    cloud.setFleets(Arrays.asList(new CodeBuildFleet("warm", "fleet-project", 2, "BUILD_GENERAL1_MEDIUM")));
+    cloud.setTemplates(
+        Arrays.asList(new CodeBuildAgentTemplate("fleet", "fleet:warm", null, null, null, null, null)));
+    cloud.maintainConcurrentBuildLimits().join();
+
+    Collection<PlannedNode> planned = cloud.provision(Label.get("fleet"), 5);
+    Assert.assertEquals(5, planned.size());
+    Assert.assertEquals(2, cloud.getRegistry().getActive("fleet:warm"));
+    Assert.assertEquals(5, cloud.getRegistry().getActive("fleet"));
+    for (PlannedNode p : planned) {
+      p.future.get();
+    }
+
+    TestClouds.awaitUntil(() -> fake.getStartBuildRequests().size() >= 5);
+    List<StartBuildRequest> requests = fake.getStartBuildRequests();
+    Assert.assertEquals(5, requests.size());
+
+    int onFleet = 0;
+    for (StartBuildRequest r : requests) {
+      if ("fleet-project".equals(r.getProjectName())) {
+        onFleet++;
+        // The fleet brings its own compute
+        Assert.assertNull(r.getComputeTypeOverride());
+        Assert.assertNull(r.getEnvironmentTypeOverride());
+      } else {
+        Assert.assertEquals("on-demand", r.getProjectName());
+        Assert.assertEquals("BUILD_GENERAL1_MEDIUM", r.getComputeTypeOverride());
+      }
+    }
+    Assert.assertEquals(2, onFleet);
+  }
+
+  @Test
+  public void testFleetWithoutOverflowWaits() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    CodeBuildCloud cloud = TestClouds.cloud("fleets").project("on-demand").computeType("fleet:warm").label("fleet")
+        .client(fake).build();
+    cloud.setFleets(Arrays.asList(new CodeBuildFleet("warm", "fleet-project", 3, "")));
+    cloud.maintainConcurrentBuildLimits().join();
+
+    Assert.assertEquals(3, cloud.provision(Label.get("fleet"), 5).size());
+    Assert.assertEquals(0, cloud.provision(Label.get("fleet"), 2).size());
+  }
+
+  @Test
+  public void testFleetOverflowStaysWithinMaxAgents() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("on-demand", 10);
+    CodeBuildCloud cloud = TestClouds.cloud("fleets").project("on-demand").maxAgents(4).client(fake).build();
+    cloud.setFleets(Arrays.asList(new CodeBuildFleet("warm", "fleet-project", 4, "BUILD_GENERAL1_MEDIUM")));
+    cloud.setTemplates(
+        Arrays.asList(new CodeBuildAgentTemplate("fleet", "fleet:warm", null, null, null, null, null)));
+    cloud.maintainConcurrentBuildLimits().join();
+
+    // Fleet and overflow each have room for all four, together they still do
+    Assert.assertEquals(4, cloud.provision(Label.get("fleet"), 20).size());
+    Assert.assertEquals(0, cloud.provision(Label.get("fleet"), 20).size());
+    Assert.assertEquals(4, cloud.getRegistry().getActive());
+  }
+}
@@ -0,0 +1,136 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.Arrays;
+import java.util.Calendar;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+
+public class CodeBuildIdleAgentsTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  private CodeBuildCloud newCloud(FakeCodeBuild fake, int maxAgents) {
+    return TestClouds.cloud("idle").label("codebuild").maxAgents(maxAgents).client(fake).build();
+  }
+
+  @Test
+  public void testForecastStartsAgentsOfTheLabelsTemplate() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    CodeBuildCloud cloud = newCloud(fake, 50);
+    cloud.setTemplates(Arrays.asList(
+        new CodeBuildAgentTemplate("gpu", "BUILD_GENERAL1_LARGE", null, null, null, null, null)));
+    cloud.setForecastMaxAgents(3);
+    cloud.maintainConcurrentBuildLimits().join();
+
+    // Plenty of gpu jobs arrived in this hour of the week before, watched from
+    // its start
+    Calendar now = Calendar.getInstance();
+    cloud.getDemandForecast().tick(startOfHour(now));
+    for (int i = 0; i < 1000; i++) {
+      cloud.getDemandForecast().recordArrival("gpu", now);
+    }
+    Calendar later = (Calendar) now.clone();
+    later.add(Calendar.HOUR_OF_DAY, 1);
+    cloud.getDemandForecast().tick(later);
+
+    cloud.maintainIdleAgents();
+    Assert.assertEquals(3, cloud.getRegistry().getWaiting("gpu"));
+    Assert.assertEquals(0, cloud.getRegistry().getWaiting("codebuild"));
+
+    // Already waiting, nothing more is started
+    cloud.maintainIdleAgents();
+    Assert.assertEquals(3, cloud.getRegistry().getActive());
+  }
+
+  @Test
+  public void testForecastSurvivesSavingTheCloud() throws Exception {
+    CodeBuildCloud cloud = newCloud(new FakeCodeBuild(), 50);
+    cloud.setForecastMaxAgents(3);
+    Calendar hour = startOfHour(Calendar.getInstance());
+    cloud.getDemandForecast().tick(hour);
+    for (int i = 0; i < 10; i++) {
+      cloud.getDemandForecast().recordArrival("codebuild", hour);
+    }
+
+    // The hour's arrivals are not on disk yet
+    CodeBuildCloud saved = (CodeBuildCloud) Jenkins.XSTREAM2.fromXML(Jenkins.XSTREAM2.toXML(cloud));
+    Assert.assertSame(cloud.getDemandForecast(), saved.getDemandForecast());
+    Calendar later = (Calendar) hour.clone();
+    later.add(Calendar.HOUR_OF_DAY, 1);
+    saved.getDemandForecast().tick(later);
+    Assert.assertEquals(3, saved.getDemandForecast().getRate("codebuild", CodeBuildDemandForecast.bucketOf(hour)),
+        0.0001);
+  }
+
+  private static Calendar startOfHour(Calendar when) {
+    Calendar hour = (Calendar) when.clone();
+    hour.set(Calendar.MINUTE, 0);
+    hour.set(Calendar.SECOND, 0);
+    hour.set(Calendar.MILLISECOND, 0);
+    return hour;
+  }
+
+  @Test
+  public void testWarmPoolIsToppedUpToMinIdleAgents() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    CodeBuildCloud cloud = newCloud(fake, 50);
+    cloud.setMinIdleAgents(3);
+    cloud.maintainConcurrentBuildLimits().join();
+
+    cloud.maintainIdleAgents();
+    Assert.assertEquals(3, cloud.getRegistry().getWaiting("codebuild"));
+
+    // Already waiting, nothing more is started
+    cloud.maintainIdleAgents();
+    Assert.assertEquals(3, cloud.getRegistry().getActive());
+  }
+
+  @Test
+  public void testWarmPoolStaysWithinMaxAgents() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    CodeBuildCloud cloud = newCloud(fake, 2);
+    cloud.setMinIdleAgents(5);
+    cloud.maintainConcurrentBuildLimits().join();
+
+    cloud.maintainIdleAgents();
+    Assert.assertEquals(2, cloud.getRegistry().getActive());
+  }
+
+  @Test
+  public void testWarmPoolOffSchedule() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    CodeBuildCloud cloud = newCloud(fake, 50);
+    cloud.setMinIdleAgents(3);
+    // Twelve hours away from now
+    int hour = (Calendar.getInstance().get(Calendar.HOUR_OF_DAY) + 12) % 24;
+    cloud.setWarmPoolSchedule("* " + hour + " * * *");
+    cloud.maintainConcurrentBuildLimits().join();
+
+    cloud.maintainIdleAgents();
+    Assert.assertEquals(0, cloud.getRegistry().getActive());
+
+    // Active for every minute of the scheduled hour
+    Calendar scheduled = Calendar.getInstance();
+    scheduled.set(Calendar.HOUR_OF_DAY, hour);
+    for (int minute = 0; minute < 60; minute++) {
+      scheduled.set(Calendar.MINUTE, minute);
+      Assert.assertTrue(cloud.isWarmPoolActive(scheduled));
+    }
+  }
+
+  @Test
+  public void testScheduleWithHashedMinutesIsRejected() {
+    CodeBuildCloud.DescriptorImpl descriptor = j.jenkins.getDescriptorByType(CodeBuildCloud.DescriptorImpl.class);
+    Assert.assertEquals(FormValidation.Kind.OK, descriptor.doCheckWarmPoolSchedule("* 7-18 * * 1-5").kind);
+    Assert.assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckWarmPoolSchedule("H 7-18 * * 1-5").kind);
+    Assert.assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckWarmPoolSchedule("@hourly").kind);
+    Assert.assertEquals(FormValidation.Kind.WARNING, descriptor.doCheckWarmPoolSchedule("0 7 * * *").kind);
+  }
+}
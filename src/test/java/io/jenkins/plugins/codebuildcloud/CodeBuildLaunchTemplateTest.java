@@ -0,0 +1,65 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.amazonaws.services.codebuild.model.EnvironmentVariable;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+
+public class CodeBuildLaunchTemplateTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  private static String valueOf(List<EnvironmentVariable> env, String name) {
+    for (EnvironmentVariable v : env) {
+      if (v.getName().equals(name)) {
+        return v.getValue();
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void testTemplateIsCachedUntilSomethingChanges() throws Exception {
+    SystemCredentialsProvider.getInstance().getCredentials().add(
+        new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "proxy", "", "user", "old"));
+    SystemCredentialsProvider.getInstance().save();
+
+    CodeBuildCloud cloud = TestClouds.cloud("template").proxyCredentialsId("proxy")
+        .jenkinsUrl("http://localhost:8080/jenkins/").build();
+    j.jenkins.clouds.add(cloud);
+
+    CodeBuildLaunchTemplate template = cloud.getLaunchTemplate();
+    Assert.assertSame(template, cloud.getLaunchTemplate());
+
+    List<EnvironmentVariable> env = template.forAgent("secret", "agent-1");
+    Assert.assertEquals("secret", valueOf(env, "JENKINS_SECRET"));
+    Assert.assertEquals("agent-1", valueOf(env, "JENKINS_AGENT_NAME"));
+    Assert.assertEquals("-proxyCredentials user:old", valueOf(env, "JENKINS_CODEBUILD_PROXY_CREDENTIALS"));
+    Assert.assertEquals("http://localhost:8080/jnlpJars/agent.jar", valueOf(env, "JENKINS_CODEBUILD_AGENT_URL"));
+    // Agents do not share variables
+    Assert.assertNotSame(env.get(0), template.forAgent("other", "agent-2").get(0));
+
+    // Credentials changed
+    SystemCredentialsProvider.getInstance().getCredentials().set(0,
+        new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "proxy", "", "user", "new"));
+    SystemCredentialsProvider.getInstance().save();
+    Assert.assertNotSame(template, cloud.getLaunchTemplate());
+    Assert.assertEquals("-proxyCredentials user:new",
+        valueOf(cloud.getLaunchTemplate().forAgent("secret", "agent-1"), "JENKINS_CODEBUILD_PROXY_CREDENTIALS"));
+
+    // Configuration changed
+    template = cloud.getLaunchTemplate();
+    cloud.setJenkinsUrl("https://jenkins.example.com/");
+    Assert.assertNotSame(template, cloud.getLaunchTemplate());
+    Assert.assertEquals("https://jenkins.example.com/",
+        valueOf(cloud.getLaunchTemplate().forAgent("secret", "agent-1"), "JENKINS_URL"));
+  }
+}
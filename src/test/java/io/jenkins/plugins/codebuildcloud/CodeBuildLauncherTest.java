@@ -0,0 +1,121 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+
+public class CodeBuildLauncherTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Test
+  public void testConnectTimeoutTerminatesAgent() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("project", 10);
+    // Nothing ever connects to the fake
+    CodeBuildCloud cloud = TestClouds.cloud("launcher").label("launcher").agentConnectTimeout(2).client(fake).build();
+    cloud.maintainConcurrentBuildLimits().join();
+
+    PlannedNode planned = cloud.provision(Label.get("launcher"), 1).iterator().next();
+    Node node = planned.future.get();
+
+    // Launch returns once the build is started, the wait does not hold a thread
+    TestClouds.awaitUntil(() -> !fake.getStartBuildRequests().isEmpty());
+    Assert.assertEquals(1, fake.getStartBuildRequests().size());
+    Assert.assertNotNull(j.jenkins.getNode(node.getNodeName()));
+
+    TestClouds.awaitUntil(() -> j.jenkins.getNode(node.getNodeName()) == null);
+    Assert.assertNull(j.jenkins.getNode(node.getNodeName()));
+    // The build is stopped in the background
+    TestClouds.awaitUntil(() -> fake.getCalls("StopBuild") > 0);
+    Assert.assertEquals(1, fake.getCalls("StopBuild"));
+    Assert.assertEquals(0, cloud.getRegistry().getActive());
+  }
+
+  @Test
+  public void testThrottledStartBuildIsRetried() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("project", 10);
+    // Only one StartBuild a second gets through
+    fake.setStartBuildsPerSecond(1);
+    CodeBuildCloud cloud = TestClouds.cloud("retry").region("eu-west-1").label("retry").agentConnectTimeout(60)
+        .client(fake).build();
+    cloud.maintainConcurrentBuildLimits().join();
+
+    Collection<PlannedNode> planned = cloud.provision(Label.get("retry"), 3);
+    TestClouds.awaitUntil(15000, () -> fake.getStartBuildRequests().size() >= 3);
+
+    // Every agent got its build, none was given up on
+    Assert.assertEquals(3, fake.getStartBuildRequests().size());
+    Assert.assertTrue(fake.getCalls("StartBuild") > 3);
+    for (PlannedNode p : planned) {
+      Assert.assertNotNull(j.jenkins.getNode(p.future.get().getNodeName()));
+    }
+    Assert.assertEquals(CodeBuildCircuitBreaker.State.CLOSED,
+        cloud.getPrimaryBackend().getCircuitBreaker().getState());
+  }
+
+  @Test
+  public void testBuildStuckInPhaseIsReplaced() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("project", 10);
+    fake.setPhase("QUEUED");
+    CodeBuildCloud cloud = TestClouds.cloud("stalled").label("stalled").agentConnectTimeout(60).client(fake).build();
+    CodeBuildClientWrapper client = cloud.getClient();
+    cloud.setPhaseTimeouts("QUEUED=1");
+    cloud.maintainConcurrentBuildLimits().join();
+
+    Node node = cloud.provision(Label.get("stalled"), 1).iterator().next().future.get();
+    TestClouds.awaitUntil(() -> client.getStatusPoller().getTracked() > 0);
+    long stalled = CodeBuildMetrics.STALLED_STARTS.getCount();
+
+    // Still within the QUEUED limit
+    client.getStatusPoller().poll().join();
+    Assert.assertNotNull(j.jenkins.getNode(node.getNodeName()));
+
+    // Long before the connect timeout
+    Thread.sleep(1500);
+    client.getStatusPoller().poll().join();
+    TestClouds.awaitUntil(() -> j.jenkins.getNode(node.getNodeName()) == null);
+    Assert.assertNull(j.jenkins.getNode(node.getNodeName()));
+    Assert.assertEquals(stalled + 1, CodeBuildMetrics.STALLED_STARTS.getCount());
+    TestClouds.awaitUntil(() -> fake.getCalls("StopBuild") > 0);
+    Assert.assertEquals(1, fake.getCalls("StopBuild"));
+  }
+
+  @Test
+  public void testConnectWhileConnectingStartsNoSecondBuild() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("project", 10);
+    CodeBuildCloud cloud = TestClouds.cloud("reconnect").label("reconnect").agentConnectTimeout(60).client(fake)
+        .build();
+    cloud.maintainConcurrentBuildLimits().join();
+    CountDownLatch release = new CountDownLatch(1);
+    fake.holdCalls(release);
+
+    Node node = cloud.provision(Label.get("reconnect"), 1).iterator().next().future.get();
+    CodeBuildComputer computer = (CodeBuildComputer) node.toComputer();
+    TestClouds.awaitUntil(() -> fake.getCalls("StartBuild") == 1);
+
+    // StartBuild is still held inside CodeBuild
+    computer.connect(true).get();
+    release.countDown();
+    TestClouds.awaitUntil(() -> computer.getBuildId() != null);
+    Assert.assertNotNull(computer.getBuildId());
+
+    // The build is started, the agent has yet to connect
+    computer.connect(true).get();
+    Assert.assertEquals(1, fake.getCalls("StartBuild"));
+    Assert.assertEquals(1, fake.getStartBuildRequests().size());
+    Assert.assertNotNull(j.jenkins.getNode(node.getNodeName()));
+  }
+}
@@ -0,0 +1,135 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.ParametersAction;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.Queue;
+import hudson.model.StringParameterDefinition;
+import hudson.model.StringParameterValue;
+
+/**
+ * Queues thousands of builds for a CodeBuild cloud backed by
+ * {@link FakeCodeBuild} and logs how fast agents get started, how many API
+ * calls that took and how many controller threads it used. Agents never
+ * connect, so this measures the controller side of provisioning only. Fails
+ * when an agent is started twice, when threads grow with the number of agents
+ * or when a build is left running after its agent is gone.
+ *
+ * Not part of a normal build, run with
+ * <code>mvn test -Dtest=CodeBuildLoadTest -Dcodebuild.loadTest=true</code>.
+ * <code>codebuild.loadTest.jobs</code>, <code>.latencyMs</code>,
+ * <code>.startBuildsPerSecond</code> and <code>.failureRate</code> shape the
+ * load and the fake API, <code>.maxExtraThreads</code> is how many threads
+ * provisioning may add.
+ */
+public class CodeBuildLoadTest {
+
+  private static final Logger LOGGER = Logger.getLogger(CodeBuildLoadTest.class.getName());
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @After
+  public void tearDown() {
+    CodeBuildClientWrapperFactory.setClientOverride(null);
+  }
+
+  @Test
+  public void testQueueThousandsOfJobs() throws Exception {
+    Assume.assumeTrue("Run with -Dcodebuild.loadTest=true", Boolean.getBoolean("codebuild.loadTest"));
+    int jobs = Integer.getInteger("codebuild.loadTest.jobs", 2000);
+    int maxExtraThreads = Integer.getInteger("codebuild.loadTest.maxExtraThreads", 200);
+
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("load", jobs);
+    fake.setEnforceConcurrentBuildLimit(true);
+    fake.setLatencyMs(Long.getLong("codebuild.loadTest.latencyMs", 50));
+    int startBuildsPerSecond = Integer.getInteger("codebuild.loadTest.startBuildsPerSecond", 0);
+    fake.setStartBuildsPerSecond(startBuildsPerSecond);
+    fake.setFailureRate(Double.parseDouble(System.getProperty("codebuild.loadTest.failureRate", "0")));
+    CodeBuildClientWrapperFactory.setClientOverride(fake);
+
+    CodeBuildCloud cloud = TestClouds.cloud("load").project("load").label("load").agentConnectTimeout(300)
+        .maxAgents(jobs).build();
+    j.jenkins.clouds.add(cloud);
+
+    FreeStyleProject p = j.createFreeStyleProject();
+    p.setAssignedLabel(Label.get("load"));
+    p.setConcurrentBuild(true);
+    p.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("N", "")));
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    threads.resetPeakThreadCount();
+    int threadsBefore = threads.getThreadCount();
+
+    List<Long> queued = new ArrayList<Long>();
+    for (int i = 0; i < jobs; i++) {
+      queued.add(System.nanoTime());
+      p.scheduleBuild2(0, new ParametersAction(new StringParameterValue("N", Integer.toString(i))));
+    }
+
+    TestClouds.awaitUntil(TimeUnit.MINUTES.toMillis(10), () -> fake.getStartBuildTimes().size() >= jobs);
+    List<Long> started = fake.getStartBuildTimes();
+
+    // i-th build queued against the i-th agent started
+    List<Long> latencies = new ArrayList<Long>();
+    for (int i = 0; i < Math.min(queued.size(), started.size()); i++) {
+      latencies.add(TimeUnit.NANOSECONDS.toMillis(started.get(i) - queued.get(i)));
+    }
+    Collections.sort(latencies);
+
+    int peakThreads = threads.getPeakThreadCount();
+    LOGGER.info(String.format("CodeBuild load test: %s jobs, %s agents started", jobs, started.size()));
+    if (!latencies.isEmpty()) {
+      LOGGER.info(String.format("Queue to StartBuild ms: p50 %s p95 %s p99 %s max %s",
+          percentile(latencies, 0.50), percentile(latencies, 0.95), percentile(latencies, 0.99),
+          latencies.get(latencies.size() - 1)));
+    }
+    LOGGER.info(String.format("API calls: StartBuild %s BatchGetBuilds %s StopBuild %s BatchGetProjects %s",
+        fake.getCalls("StartBuild"), fake.getCalls("BatchGetBuilds"), fake.getCalls("StopBuild"),
+        fake.getCalls("BatchGetProjects")));
+    LOGGER.info(String.format("Threads: %s before, %s now, %s peak", threadsBefore, threads.getThreadCount(),
+        peakThreads));
+
+    Queue.getInstance().clear();
+    // One build per job, none started twice
+    Assert.assertEquals(jobs, started.size());
+    if (startBuildsPerSecond <= 0) {
+      // Nothing throttled, so not one StartBuild was sent again
+      Assert.assertEquals(jobs, fake.getCalls("StartBuild"));
+    }
+    Assert.assertTrue(String.format("%s threads at peak, %s before", peakThreads, threadsBefore),
+        peakThreads - threadsBefore <= maxExtraThreads);
+
+    // Every build is stopped once its agent is gone
+    for (Node n : j.jenkins.getNodes()) {
+      if (n instanceof CodeBuildAgent) {
+        ((CodeBuildAgent) n).terminate();
+      }
+    }
+    TestClouds.awaitUntil(TimeUnit.MINUTES.toMillis(2), () -> fake.getInProgress("load") == 0);
+    Assert.assertEquals(0, fake.getInProgress("load"));
+    Assert.assertEquals(0, cloud.getRegistry().getActive());
+  }
+
+  private static long percentile(List<Long> sorted, double fraction) {
+    return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(fraction * sorted.size()) - 1));
+  }
+}
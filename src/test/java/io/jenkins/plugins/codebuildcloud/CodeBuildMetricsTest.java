@@ -0,0 +1,93 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.codebuild.model.AccountLimitExceededException;
+import com.amazonaws.services.codebuild.model.StartBuildRequest;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import hudson.model.Label;
+import jenkins.metrics.api.Metrics;
+
+public class CodeBuildMetricsTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Test
+  public void testCloudGauges() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("project", 10);
+    CodeBuildCloud cloud = TestClouds.cloud("metrics").label("metrics").client(fake).build();
+    cloud.maintainConcurrentBuildLimits().join();
+    j.jenkins.clouds.add(cloud);
+
+    CodeBuildMetrics.syncCloudGauges();
+    MetricRegistry registry = Metrics.metricRegistry();
+    Gauge<?> remaining = registry.getGauges().get("codebuild-cloud.cloud.metrics.capacity.remaining");
+    Assert.assertNotNull(remaining);
+    Assert.assertEquals(10L, remaining.getValue());
+    Assert.assertEquals(10L, registry.getGauges().get("codebuild-cloud.cloud.metrics.project.concurrent-build-limit")
+        .getValue());
+
+    cloud.provision(Label.get("metrics"), 3);
+    Assert.assertEquals(7L, remaining.getValue());
+
+    j.jenkins.clouds.remove(cloud);
+    CodeBuildMetrics.syncCloudGauges();
+    Assert.assertNull(registry.getGauges().get("codebuild-cloud.cloud.metrics.capacity.remaining"));
+  }
+
+  @Test
+  public void testApiCallsAreTimed() {
+    long before = CodeBuildMetrics.START_BUILD.getCount();
+    new CodeBuildClientWrapper(new FakeCodeBuild()).startBuild(new StartBuildRequest().withProjectName("project"));
+    Assert.assertEquals(before + 1, CodeBuildMetrics.START_BUILD.getCount());
+
+    long throttles = CodeBuildMetrics.THROTTLES.getCount();
+    AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+    e.setErrorCode("ThrottlingException");
+    CodeBuildMetrics.apiError(e);
+    Assert.assertEquals(throttles + 1, CodeBuildMetrics.THROTTLES.getCount());
+  }
+
+  @Test
+  public void testApiCallsByCaller() {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("project", 1);
+    fake.setEnforceConcurrentBuildLimit(true);
+    CodeBuildClientWrapper client = new CodeBuildClientWrapper(fake);
+
+    String buildId = client.startBuild(new StartBuildRequest().withProjectName("project")).getBuild().getId();
+    try {
+      client.startBuild(new StartBuildRequest().withProjectName("project"));
+      Assert.fail("Project is full");
+    } catch (AccountLimitExceededException e) {
+      // expected
+    }
+    client.getStatusPoller().track(buildId, null);
+    client.getStatusPoller().poll().join();
+    client.getBuildStatusesAsync(Arrays.asList(buildId), CodeBuildApiStats.Caller.TERMINATION).join();
+
+    List<CodeBuildApiStats.Summary> summaries = client.getStats().getSummaries();
+    Assert.assertEquals(3, summaries.size());
+    Assert.assertEquals("BatchGetBuilds", summaries.get(0).getOperation());
+    Assert.assertEquals("STATUS_POLLING", summaries.get(0).getCaller());
+    Assert.assertEquals(1, summaries.get(0).getCount());
+    Assert.assertEquals("TERMINATION", summaries.get(1).getCaller());
+    CodeBuildApiStats.Summary starts = summaries.get(2);
+    Assert.assertEquals("StartBuild", starts.getOperation());
+    Assert.assertEquals("PROVISIONING", starts.getCaller());
+    Assert.assertEquals(2, starts.getCount());
+    Assert.assertEquals(1, starts.getErrors());
+    Assert.assertEquals(0, starts.getThrottles());
+  }
+}
@@ -0,0 +1,101 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class CodeBuildProjectCatalogTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  private final long[] now = new long[] { 0 };
+
+  @Test
+  public void testCatalogIsCachedAndRefreshedInTheBackground() {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    for (int i = 0; i < 250; i++) {
+      fake.setConcurrentBuildLimit(String.format("project-%03d", i), i % 2 == 0 ? null : i);
+    }
+    CodeBuildProjectCatalog catalog = new CodeBuildProjectCatalog(new CodeBuildClientWrapper(fake), () -> now[0]);
+
+    CodeBuildProjectCatalog.Snapshot first = catalog.get();
+    Assert.assertEquals(250, first.getNames().size());
+    Assert.assertEquals("project-000", first.getNames().get(0));
+    Assert.assertNull(first.getLimit("project-000"));
+    Assert.assertEquals(Integer.valueOf(7), first.getLimit("project-007"));
+    // One BatchGetProjects per page of names
+    Assert.assertEquals(3, fake.getCalls("ListProjects"));
+    Assert.assertEquals(3, fake.getCalls("BatchGetProjects"));
+
+    // Fresh, no calls
+    now[0] += TimeUnit.MINUTES.toNanos(CodeBuildProjectCatalog.FRESH_MINUTES - 1);
+    Assert.assertSame(first, catalog.get());
+    Assert.assertEquals(3, fake.getCalls("ListProjects"));
+
+    // Stale, served while it is refreshed
+    fake.setConcurrentBuildLimit("project-new", 3);
+    now[0] += TimeUnit.MINUTES.toNanos(2);
+    Assert.assertSame(first, catalog.get());
+    CodeBuildProjectCatalog.Snapshot second = catalog.refresh().join();
+    Assert.assertEquals(251, second.getNames().size());
+    Assert.assertSame(second, catalog.get());
+
+    // Too old, waits for a new one
+    now[0] += TimeUnit.MINUTES.toNanos(CodeBuildProjectCatalog.MAX_MINUTES);
+    Assert.assertNotSame(second, catalog.get());
+  }
+
+  @Test
+  public void testLastCatalogIsServedWhenRefreshesFail() {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("project", 5);
+    CodeBuildProjectCatalog catalog = new CodeBuildProjectCatalog(new CodeBuildClientWrapper(fake), () -> now[0]);
+    CodeBuildProjectCatalog.Snapshot first = catalog.get();
+
+    // Long past the point where the form waits for a new one
+    fake.failNext("ListProjects", 100);
+    now[0] += TimeUnit.MINUTES.toNanos(2 * CodeBuildProjectCatalog.MAX_MINUTES);
+    Assert.assertSame(first, catalog.get());
+    Assert.assertEquals(Integer.valueOf(5), catalog.get().getLimit("project"));
+  }
+
+  @Test
+  public void testFailedPageLookupDoesNotFailTheListing() {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    for (int i = 0; i < 250; i++) {
+      fake.setConcurrentBuildLimit(String.format("project-%03d", i), i);
+    }
+    CodeBuildProjectCatalog catalog = new CodeBuildProjectCatalog(new CodeBuildClientWrapper(fake), () -> now[0]);
+
+    // Tried again
+    fake.failNext("BatchGetProjects", 1);
+    CodeBuildProjectCatalog.Snapshot first = catalog.refresh().join();
+    Assert.assertEquals(250, first.getNames().size());
+    Assert.assertEquals(4, fake.getCalls("BatchGetProjects"));
+    for (String name : first.getNames()) {
+      Assert.assertNotNull(name, first.getLimit(name));
+    }
+
+  }
+
+  @Test
+  public void testPageFailingTwiceKeepsItsLimits() {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("project", 5);
+    CodeBuildProjectCatalog catalog = new CodeBuildProjectCatalog(new CodeBuildClientWrapper(fake), () -> now[0]);
+    catalog.refresh().join();
+
+    // One page, its lookup and the retry fail
+    fake.setConcurrentBuildLimit("project", 8);
+    fake.setConcurrentBuildLimit("project-new", 1);
+    fake.failNext("BatchGetProjects", 2);
+    CodeBuildProjectCatalog.Snapshot second = catalog.refresh().join();
+    Assert.assertEquals(2, second.getNames().size());
+    Assert.assertEquals(Integer.valueOf(5), second.getLimit("project"));
+    Assert.assertNull(second.getLimit("project-new"));
+  }
+}
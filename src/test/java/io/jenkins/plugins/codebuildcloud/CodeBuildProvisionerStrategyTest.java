@@ -0,0 +1,32 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Label;
+
+public class CodeBuildProvisionerStrategyTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Test
+  public void testProvisionsWithoutDelay() throws Exception {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("project", 10);
+    CodeBuildCloud cloud = TestClouds.cloud("nodelay").label("nodelay").client(fake).build();
+    j.jenkins.clouds.add(cloud);
+
+    FreeStyleProject p = j.createFreeStyleProject();
+    p.setAssignedLabel(Label.get("nodelay"));
+    p.scheduleBuild2(0);
+
+    // The default strategy would not ask the cloud for several NodeProvisioner
+    // ticks
+    TestClouds.awaitUntil(5000, () -> cloud.getRegistry().getActive() > 0);
+    Assert.assertEquals(1, cloud.getRegistry().getActive());
+  }
+}
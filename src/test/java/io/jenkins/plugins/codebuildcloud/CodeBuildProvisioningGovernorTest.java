@@ -0,0 +1,107 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.Label;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+
+public class CodeBuildProvisioningGovernorTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  private final long[] now = new long[] { 0 };
+
+  @Test
+  public void testBurstIsPacedAtConfiguredRate() {
+    CodeBuildProvisioningGovernor governor = new CodeBuildProvisioningGovernor(10, 5, () -> now[0]);
+
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(0, governor.reserve());
+    }
+    Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), governor.reserve());
+    Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(200), governor.reserve());
+
+    // Debt is paid back after 200ms, one second later the bucket is full again
+    now[0] += TimeUnit.MILLISECONDS.toNanos(1200);
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(0, governor.reserve());
+    }
+    Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), governor.reserve());
+  }
+
+  @Test
+  public void testRateChangeKeepsEarnedPermits() {
+    CodeBuildProvisioningGovernor governor = new CodeBuildProvisioningGovernor(10, 5, () -> now[0]);
+    governor.reserve();
+    governor.reserve();
+
+    // Three permits left, a smaller bucket takes the surplus away
+    governor.setRate(1, 2);
+    Assert.assertEquals(0, governor.reserve());
+    Assert.assertEquals(0, governor.reserve());
+    Assert.assertEquals(TimeUnit.SECONDS.toNanos(1), governor.reserve());
+  }
+
+  @Test
+  public void testInFlightPlannedNodes() {
+    // Planned nodes not added to Jenkins yet hold capacity in the registry
+    CodeBuildAgentRegistry registry = new CodeBuildAgentRegistry();
+    registry.agentPlanned("a", "linux");
+    registry.agentPlanned("b", "linux");
+    Assert.assertEquals(2, registry.getPlanned());
+    registry.agentAdded("a", "linux");
+    Assert.assertEquals(1, registry.getPlanned());
+    Assert.assertEquals(2, registry.getActive());
+  }
+
+  @Test
+  public void testSharedByAccountAndRegion() {
+    CodeBuildCloud a = TestClouds.cloud("a").region("sa-east-1").client(new FakeCodeBuild()).build();
+    CodeBuildCloud b = TestClouds.cloud("b").region("sa-east-1").project("other").client(new FakeCodeBuild())
+        .build();
+    CodeBuildBackend elsewhere = new CodeBuildBackend("", "eu-north-1", "project", 0, 1);
+
+    Assert.assertSame(a.getGovernor(null), b.getGovernor(null));
+    Assert.assertSame(a.getGovernor(null), a.getGovernor(a.getPrimaryBackend()));
+    Assert.assertNotSame(a.getGovernor(null), a.getGovernor(elsewhere));
+    Assert.assertSame(a.getGovernor(elsewhere), CodeBuildProvisioningGovernor.forAccount("", "eu-north-1", 1, 1));
+  }
+
+  /**
+   * A burst provisioned in one go is started at the account's StartBuild rate
+   * instead of being throttled by CodeBuild and retried.
+   */
+  @Test
+  public void testProvisionedBurstIsNotThrottled() throws Exception {
+    int agents = 15;
+    FakeCodeBuild fake = new FakeCodeBuild();
+    fake.setConcurrentBuildLimit("project", agents);
+    // Twice the rate the cloud is set to, timer jitter never adds up to that
+    fake.setStartBuildsPerSecond(10);
+    CodeBuildCloud cloud = TestClouds.cloud("paced").region("ap-south-1").label("paced").agentConnectTimeout(60)
+        .client(fake).build();
+    cloud.setStartBuildRate(5);
+    cloud.setStartBuildBurst(1);
+    cloud.maintainConcurrentBuildLimits().join();
+
+    Collection<PlannedNode> planned = cloud.provision(Label.get("paced"), agents);
+    Assert.assertEquals(agents, planned.size());
+    TestClouds.awaitUntil(20000, () -> fake.getStartBuildTimes().size() >= agents);
+
+    List<Long> started = fake.getStartBuildTimes();
+    Assert.assertEquals(agents, started.size());
+    // Not one StartBuild was throttled and sent again
+    Assert.assertEquals(agents, fake.getCalls("StartBuild"));
+    // One permit right away, the rest 200ms apart
+    long spreadMs = TimeUnit.NANOSECONDS.toMillis(started.get(agents - 1) - started.get(0));
+    Assert.assertTrue("Started within " + spreadMs + "ms", spreadMs >= (agents - 2) * 200);
+  }
+}
@@ -0,0 +1,94 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CodeBuildRightSizerTest {
+
+  private static final long GB = 1024L * 1024 * 1024;
+  private static final String LARGE = "BUILD_GENERAL1_LARGE";
+  private static final String MEDIUM = "BUILD_GENERAL1_MEDIUM";
+  private static final String SMALL = "BUILD_GENERAL1_SMALL";
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static CodeBuildRightSizer.Observation task(String computeType, String job, long seconds, double cores,
+      double memoryGb) {
+    long durationMs = seconds * 1000;
+    return new CodeBuildRightSizer.Observation(computeType, job, durationMs, (long) (cores * durationMs * 1e6),
+        (long) (memoryGb * GB));
+  }
+
+  private CodeBuildRightSizer sizer() {
+    return new CodeBuildRightSizer(new File(tmp.getRoot(), "cloud/right-sizing.txt"));
+  }
+
+  @Test
+  public void testLightJobsMoveToSmallest() throws Exception {
+    CodeBuildRightSizer sizer = sizer();
+    for (int i = 0; i < 4; i++) {
+      sizer.record("lint", task(LARGE, "lint", 60, 1.2, 1));
+    }
+    CodeBuildRightSizer.Recommendation rec = sizer.recommend("lint", "LINUX_CONTAINER", LARGE, 10, false);
+    Assert.assertEquals("Not enough data yet", LARGE, rec.getRecommended());
+
+    sizer.record("lint", task(LARGE, "lint", 60, 1.5, 1.5));
+    rec = sizer.recommend("lint", "LINUX_CONTAINER", LARGE, 10, false);
+    Assert.assertEquals(SMALL, rec.getRecommended());
+    Assert.assertEquals(5, rec.getSamples());
+    Assert.assertEquals(1, sizer.getDecisions().size());
+  }
+
+  @Test
+  public void testMemoryAndCpuKeepLargerType() throws Exception {
+    CodeBuildRightSizer sizer = sizer();
+    for (int i = 0; i < 5; i++) {
+      // Too much memory for SMALL with headroom
+      sizer.record("mem", task(LARGE, "mem", 60, 1, 5));
+      // 6 cores would be 50% slower on MEDIUM
+      sizer.record("cpu", task(LARGE, "cpu", 60, 6, 1));
+    }
+    Assert.assertEquals(MEDIUM, sizer.recommend("mem", "LINUX_CONTAINER", LARGE, 10, false).getRecommended());
+    Assert.assertEquals(LARGE, sizer.recommend("cpu", "LINUX_CONTAINER", LARGE, 10, false).getRecommended());
+    // Unless that is within the tolerance
+    sizer.invalidate();
+    Assert.assertEquals(MEDIUM, sizer.recommend("cpu", "LINUX_CONTAINER", LARGE, 50, false).getRecommended());
+  }
+
+  @Test
+  public void testMeasuredSlowdownOverridesEstimate() throws Exception {
+    CodeBuildRightSizer sizer = sizer();
+    for (int i = 0; i < 5; i++) {
+      sizer.record("unit", task(LARGE, "unit", 100, 1, 1));
+    }
+    Assert.assertEquals(SMALL, sizer.recommend("unit", "LINUX_CONTAINER", LARGE, 10, true).getRecommended());
+
+    // On SMALL the job turns out to be IO bound and much slower than CPU predicted
+    for (int i = 0; i < 3; i++) {
+      sizer.record("unit", task(SMALL, "unit", 150, 1, 1));
+    }
+    CodeBuildRightSizer.Recommendation rec = sizer.recommend("unit", "LINUX_CONTAINER", LARGE, 10, true);
+    Assert.assertEquals(MEDIUM, rec.getRecommended());
+    Assert.assertEquals(2, sizer.getDecisions().size());
+    Assert.assertEquals(SMALL, sizer.getDecisions().get(0).getFrom());
+  }
+
+  @Test
+  public void testHistorySurvivesRestart() throws Exception {
+    CodeBuildRightSizer sizer = sizer();
+    for (int i = 0; i < 7; i++) {
+      sizer.record("linux docker", task(LARGE, "folder » job", 60, 1, 1));
+    }
+    sizer.saveIfDirty();
+
+    CodeBuildRightSizer reloaded = sizer();
+    Assert.assertEquals(7, reloaded.getSampleCount("linux docker"));
+    Assert.assertEquals(SMALL,
+        reloaded.recommend("linux docker", "LINUX_CONTAINER", LARGE, 10, false).getRecommended());
+  }
+}
@@ -0,0 +1,87 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.jenkins.plugins.codebuildcloud.CodeBuildStartupLatency.Stage;
+
+public class CodeBuildStartupLatencyTest {
+
+  private static final long MS = 1000000;
+
+  @Test
+  public void testHistogramPercentiles() {
+    CodeBuildLatencyHistogram h = new CodeBuildLatencyHistogram();
+    Assert.assertEquals(0, h.percentile(0.5));
+    for (int i = 1; i <= 100; i++) {
+      h.record(i * 1000);
+    }
+    Assert.assertEquals(100, h.getCount());
+    // Within a bucket of the true value
+    Assert.assertEquals(50000, h.percentile(0.50), 50000 * 0.1);
+    Assert.assertEquals(95000, h.percentile(0.95), 95000 * 0.1);
+    Assert.assertEquals(99000, h.percentile(0.99), 99000 * 0.1);
+  }
+
+  @Test
+  public void testStagesRecordedOnFirstTask() {
+    CodeBuildStartupLatency latency = new CodeBuildStartupLatency();
+    latency.planned("agent-1", "linux");
+    long start = System.nanoTime();
+    latency.mark("agent-1", Stage.ADDED, start + 100 * MS);
+    latency.mark("agent-1", Stage.BUILD_STARTED, start + 300 * MS);
+    latency.mark("agent-1", Stage.ONLINE, start + 60000 * MS);
+    // Only the first time counts
+    latency.mark("agent-1", Stage.ONLINE, start + 90000 * MS);
+    Assert.assertTrue(latency.getSummaries().isEmpty());
+
+    latency.mark("agent-1", Stage.FIRST_TASK, start + 61000 * MS);
+    List<CodeBuildStartupLatency.Summary> summaries = latency.getSummaries();
+    // Cloud and label, each with 4 stages and the total
+    Assert.assertEquals(10, summaries.size());
+    CodeBuildStartupLatency.Summary online = summaries.get(2);
+    Assert.assertEquals(CodeBuildStartupLatency.ALL_LABELS, online.getLabel());
+    Assert.assertEquals("Computer online", online.getStage());
+    Assert.assertEquals(59700, online.getP50(), 59700 * 0.1);
+    Assert.assertEquals("linux", summaries.get(9).getLabel());
+    Assert.assertEquals(CodeBuildStartupLatency.TOTAL, summaries.get(9).getStage());
+
+    // Marks after the first task are ignored
+    latency.mark("agent-1", Stage.FIRST_TASK);
+    Assert.assertEquals(1, latency.getSummaries().get(0).getCount());
+  }
+
+  @Test
+  public void testForgottenAgentIsNotRecorded() {
+    CodeBuildStartupLatency latency = new CodeBuildStartupLatency();
+    latency.planned("agent-1", "linux");
+    latency.forget("agent-1");
+    latency.mark("agent-1", Stage.FIRST_TASK);
+    Assert.assertTrue(latency.getSummaries().isEmpty());
+  }
+
+  @Test
+  public void testAgentsAheadOfDemandEndOnline() {
+    CodeBuildStartupLatency latency = new CodeBuildStartupLatency();
+    latency.planned("warm-1", "linux", true);
+    long start = System.nanoTime();
+    latency.mark("warm-1", Stage.ADDED, start + 100 * MS);
+    latency.mark("warm-1", Stage.BUILD_STARTED, start + 300 * MS);
+    latency.mark("warm-1", Stage.ONLINE, start + 60000 * MS);
+
+    // Cloud and label, each with 3 stages and the total
+    List<CodeBuildStartupLatency.Summary> summaries = latency.getSummaries();
+    Assert.assertEquals(8, summaries.size());
+    CodeBuildStartupLatency.Summary total = summaries.get(3);
+    Assert.assertEquals(CodeBuildStartupLatency.TOTAL, total.getStage());
+    Assert.assertEquals(60000, total.getP50(), 60000 * 0.1);
+
+    // Idle for ten minutes until a job came, not part of its startup
+    latency.mark("warm-1", Stage.FIRST_TASK, start + 660000 * MS);
+    Assert.assertEquals(summaries.size(), latency.getSummaries().size());
+    Assert.assertEquals(60000, latency.getSummaries().get(3).getP50(), 60000 * 0.1);
+    Assert.assertEquals(1, latency.getSummaries().get(3).getCount());
+  }
+}
@@ -0,0 +1,46 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.amazonaws.services.codebuild.model.StartBuildRequest;
+import com.amazonaws.services.codebuild.model.StopBuildRequest;
+
+public class CodeBuildTerminationQueueTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Test
+  public void testStopsInBatches() {
+    FakeCodeBuild fake = new FakeCodeBuild();
+    CodeBuildClientWrapper client = new CodeBuildClientWrapper(fake);
+
+    List<String> ids = new ArrayList<String>();
+    for (int i = 0; i < 250; i++) {
+      ids.add(client.startBuild(new StartBuildRequest().withProjectName("project")).getBuild().getId());
+    }
+    // Already over, nothing to stop
+    fake.stopBuild(new StopBuildRequest().withId(ids.get(0)));
+    long stops = fake.getCalls("StopBuild");
+
+    List<CompletableFuture<Void>> stopped = new ArrayList<CompletableFuture<Void>>();
+    for (String id : ids) {
+      stopped.add(client.stopBuildAsync(id));
+    }
+    // A second termination of the same agent is not stopped twice
+    stopped.add(client.stopBuildAsync(ids.get(1)));
+    CompletableFuture.allOf(stopped.toArray(new CompletableFuture<?>[0])).join();
+
+    Assert.assertEquals(3, fake.getCalls("BatchGetBuilds"));
+    Assert.assertEquals(stops + 249, fake.getCalls("StopBuild"));
+    Assert.assertEquals(0, fake.getInProgress("project"));
+    Assert.assertEquals(0, client.getTerminationQueue().getPending());
+  }
+}
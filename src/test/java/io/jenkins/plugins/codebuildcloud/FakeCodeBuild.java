@@ -0,0 +1,324 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.codebuild.AbstractAWSCodeBuild;
+import com.amazonaws.services.codebuild.model.AccountLimitExceededException;
+import com.amazonaws.services.codebuild.model.BatchGetBuildBatchesRequest;
+import com.amazonaws.services.codebuild.model.BatchGetBuildBatchesResult;
+import com.amazonaws.services.codebuild.model.BatchGetBuildsRequest;
+import com.amazonaws.services.codebuild.model.BatchGetBuildsResult;
+import com.amazonaws.services.codebuild.model.BatchGetProjectsRequest;
+import com.amazonaws.services.codebuild.model.BatchGetProjectsResult;
+import com.amazonaws.services.codebuild.model.Build;
+import com.amazonaws.services.codebuild.model.BuildBatch;
+import com.amazonaws.services.codebuild.model.BuildGroup;
+import com.amazonaws.services.codebuild.model.BuildPhase;
+import com.amazonaws.services.codebuild.model.BuildSummary;
+import com.amazonaws.services.codebuild.model.InvalidInputException;
+import com.amazonaws.services.codebuild.model.ListProjectsRequest;
+import com.amazonaws.services.codebuild.model.ListProjectsResult;
+import com.amazonaws.services.codebuild.model.Project;
+import com.amazonaws.services.codebuild.model.StartBuildBatchRequest;
+import com.amazonaws.services.codebuild.model.StartBuildBatchResult;
+import com.amazonaws.services.codebuild.model.StartBuildRequest;
+import com.amazonaws.services.codebuild.model.StartBuildResult;
+import com.amazonaws.services.codebuild.model.StopBuildRequest;
+import com.amazonaws.services.codebuild.model.StopBuildResult;
+
+/**
+ * In-memory stand-in for the CodeBuild API. Builds start IN_PROGRESS and stay
+ * there until they are stopped. Every StartBuild request is kept so tests can
+ * check what the plugin asked for.
+ *
+ * Can be made to behave like a busy account: a delay on every call, a
+ * StartBuild rate above which calls are throttled with a 429, the project's
+ * concurrent build limit enforced, and a share of builds that fail right after
+ * they start. Point every client at it with
+ * {@link CodeBuildClientWrapperFactory#setClientOverride}.
+ */
+class FakeCodeBuild extends AbstractAWSCodeBuild {
+
+  private static final Pattern BUILD_LIST_ENTRY = Pattern.compile("- identifier: (\\w+)");
+  private static final String BUILD_ARN_PREFIX = "arn:aws:codebuild:us-east-1:000000000000:build/";
+
+  private final List<StartBuildRequest> startBuildRequests = new ArrayList<StartBuildRequest>();
+  private final List<Long> startBuildTimes = new ArrayList<Long>();
+  private final List<StartBuildBatchRequest> startBuildBatchRequests = new ArrayList<StartBuildBatchRequest>();
+  private final Map<String, Build> builds = new HashMap<String, Build>();
+  private final Map<String, BuildBatch> buildBatches = new HashMap<String, BuildBatch>();
+  private final Map<String, Integer> concurrentBuildLimits = new HashMap<String, Integer>();
+  private final Map<String, AtomicLong> calls = new ConcurrentHashMap<String, AtomicLong>();
+  private final Map<String, AtomicLong> failures = new ConcurrentHashMap<String, AtomicLong>();
+  private final Random random = new Random(42);
+
+  private volatile long latencyMs;
+  private volatile CountDownLatch hold;
+  private int startBuildsPerSecond;
+  private boolean enforceConcurrentBuildLimit;
+  private double failureRate;
+  private String phase;
+
+  // StartBuild calls in the current second, for throttling
+  private long throttleWindow;
+  private int throttleWindowCalls;
+
+  synchronized void setConcurrentBuildLimit(String projectName, Integer limit) {
+    concurrentBuildLimits.put(projectName, limit);
+  }
+
+  /** Delay of every API call. */
+  void setLatencyMs(long latencyMs) {
+    this.latencyMs = latencyMs;
+  }
+
+  /**
+   * Every API call, once counted, waits until the latch is released. Lets a
+   * test look at callers while calls are in flight without relying on timing.
+   */
+  void holdCalls(CountDownLatch release) {
+    this.hold = release;
+  }
+
+  /** The next calls of the API fail with a server error. */
+  void failNext(String api, int times) {
+    failures.put(api, new AtomicLong(times));
+  }
+
+  /** StartBuild calls per second before they are throttled, 0 for no limit. */
+  synchronized void setStartBuildsPerSecond(int startBuildsPerSecond) {
+    this.startBuildsPerSecond = startBuildsPerSecond;
+  }
+
+  /** Reject StartBuild once a project has as many builds in progress as its limit. */
+  synchronized void setEnforceConcurrentBuildLimit(boolean enforceConcurrentBuildLimit) {
+    this.enforceConcurrentBuildLimit = enforceConcurrentBuildLimit;
+  }
+
+  /** Share of builds, 0 to 1, that are FAILED when first looked at. */
+  synchronized void setFailureRate(double failureRate) {
+    this.failureRate = failureRate;
+  }
+
+  /** Phase every build reports as its current one, entered when it started. */
+  synchronized void setPhase(String phase) {
+    this.phase = phase;
+  }
+
+  synchronized List<StartBuildRequest> getStartBuildRequests() {
+    return new ArrayList<StartBuildRequest>(startBuildRequests);
+  }
+
+  synchronized List<StartBuildBatchRequest> getStartBuildBatchRequests() {
+    return new ArrayList<StartBuildBatchRequest>(startBuildBatchRequests);
+  }
+
+  /** System.nanoTime() of every successful StartBuild, in order. */
+  synchronized List<Long> getStartBuildTimes() {
+    return new ArrayList<Long>(startBuildTimes);
+  }
+
+  /** How often each API was called, throttled calls included. */
+  long getCalls(String api) {
+    AtomicLong c = calls.get(api);
+    return c == null ? 0 : c.get();
+  }
+
+  synchronized int getInProgress(String projectName) {
+    int inProgress = 0;
+    for (Build b : builds.values()) {
+      if (b.getProjectName().equals(projectName) && "IN_PROGRESS".equals(b.getBuildStatus())) {
+        inProgress++;
+      }
+    }
+    return inProgress;
+  }
+
+  private void call(String api) {
+    calls.computeIfAbsent(api, k -> new AtomicLong()).incrementAndGet();
+    try {
+      CountDownLatch release = hold;
+      if (release != null) {
+        release.await();
+      }
+      long delay = latencyMs;
+      if (delay > 0) {
+        Thread.sleep(delay);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    AtomicLong failing = failures.get(api);
+    if (failing != null && failing.getAndDecrement() > 0) {
+      AmazonServiceException e = new AmazonServiceException("Internal error");
+      e.setErrorCode("InternalFailure");
+      e.setStatusCode(500);
+      throw e;
+    }
+  }
+
+  private void throttle() {
+    if (startBuildsPerSecond <= 0) {
+      return;
+    }
+    long second = System.nanoTime() / 1000000000L;
+    if (second != throttleWindow) {
+      throttleWindow = second;
+      throttleWindowCalls = 0;
+    }
+    if (++throttleWindowCalls > startBuildsPerSecond) {
+      AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+      e.setErrorCode("ThrottlingException");
+      e.setStatusCode(429);
+      throw e;
+    }
+  }
+
+  private Build newBuild(String projectName) {
+    Build build = new Build()
+        .withId(projectName + ":" + UUID.randomUUID())
+        .withProjectName(projectName)
+        .withBuildStatus("IN_PROGRESS")
+        .withStartTime(new Date());
+    if (phase != null) {
+      build.withCurrentPhase(phase).withPhases(new BuildPhase().withPhaseType(phase).withStartTime(build.getStartTime()));
+    }
+    return build;
+  }
+
+  @Override
+  public StartBuildResult startBuild(StartBuildRequest request) {
+    call("StartBuild");
+    synchronized (this) {
+      throttle();
+      Integer limit = concurrentBuildLimits.get(request.getProjectName());
+      if (enforceConcurrentBuildLimit && limit != null && getInProgress(request.getProjectName()) >= limit) {
+        throw new AccountLimitExceededException(
+            "Cannot have more than " + limit + " active builds for the project " + request.getProjectName());
+      }
+
+      startBuildRequests.add(request);
+      startBuildTimes.add(System.nanoTime());
+      Build build = newBuild(request.getProjectName());
+      builds.put(build.getId(), build);
+      Build result = build.clone();
+      if (failureRate > 0 && random.nextDouble() < failureRate) {
+        build.setBuildStatus("FAILED");
+      }
+      return new StartBuildResult().withBuild(result);
+    }
+  }
+
+  /**
+   * Starts one build per build list entry of the buildspec right away. Real
+   * batches create them a little later, callers find them with
+   * BatchGetBuildBatches either way.
+   */
+  @Override
+  public StartBuildBatchResult startBuildBatch(StartBuildBatchRequest request) {
+    call("StartBuildBatch");
+    synchronized (this) {
+      throttle();
+      startBuildBatchRequests.add(request);
+      BuildBatch batch = new BuildBatch()
+          .withId(request.getProjectName() + ":" + UUID.randomUUID())
+          .withBuildBatchStatus("IN_PROGRESS");
+      Matcher m = BUILD_LIST_ENTRY.matcher(request.getBuildspecOverride());
+      while (m.find()) {
+        startBuildTimes.add(System.nanoTime());
+        Build build = newBuild(request.getProjectName());
+        builds.put(build.getId(), build);
+        batch.withBuildGroups(new BuildGroup().withIdentifier(m.group(1)).withCurrentBuildSummary(
+            new BuildSummary().withArn(BUILD_ARN_PREFIX + build.getId()).withBuildStatus("IN_PROGRESS")));
+      }
+      buildBatches.put(batch.getId(), batch);
+      return new StartBuildBatchResult().withBuildBatch(batch.clone());
+    }
+  }
+
+  @Override
+  public BatchGetBuildBatchesResult batchGetBuildBatches(BatchGetBuildBatchesRequest request) {
+    call("BatchGetBuildBatches");
+    synchronized (this) {
+      List<BuildBatch> found = new ArrayList<BuildBatch>();
+      for (String id : request.getIds()) {
+        BuildBatch b = buildBatches.get(id);
+        if (b != null) {
+          found.add(b.clone());
+        }
+      }
+      return new BatchGetBuildBatchesResult().withBuildBatches(found);
+    }
+  }
+
+  @Override
+  public BatchGetBuildsResult batchGetBuilds(BatchGetBuildsRequest request) {
+    call("BatchGetBuilds");
+    synchronized (this) {
+      List<Build> found = new ArrayList<Build>();
+      List<String> notFound = new ArrayList<String>();
+      for (String id : request.getIds()) {
+        Build b = builds.get(id);
+        if (b == null) {
+          notFound.add(id);
+        } else {
+          found.add(b.clone());
+        }
+      }
+      return new BatchGetBuildsResult().withBuilds(found).withBuildsNotFound(notFound);
+    }
+  }
+
+  @Override
+  public StopBuildResult stopBuild(StopBuildRequest request) {
+    call("StopBuild");
+    synchronized (this) {
+      Build b = builds.get(request.getId());
+      if (b != null) {
+        b.setBuildStatus("STOPPED");
+      }
+      return new StopBuildResult().withBuild(b);
+    }
+  }
+
+  @Override
+  public BatchGetProjectsResult batchGetProjects(BatchGetProjectsRequest request) {
+    call("BatchGetProjects");
+    if (request.getNames().size() > 100) {
+      throw new InvalidInputException("At most 100 names");
+    }
+    synchronized (this) {
+      List<Project> projects = new ArrayList<Project>();
+      for (String name : request.getNames()) {
+        projects.add(new Project().withName(name).withConcurrentBuildLimit(concurrentBuildLimits.get(name)));
+      }
+      return new BatchGetProjectsResult().withProjects(projects);
+    }
+  }
+
+  @Override
+  public ListProjectsResult listProjects(ListProjectsRequest request) {
+    call("ListProjects");
+    synchronized (this) {
+      // Pages of 100, like CodeBuild
+      List<String> names = new ArrayList<String>(new TreeSet<String>(concurrentBuildLimits.keySet()));
+      int from = request.getNextToken() == null ? 0 : Integer.parseInt(request.getNextToken());
+      int to = Math.min(names.size(), from + 100);
+      return new ListProjectsResult().withProjects(new ArrayList<String>(names.subList(from, to)))
+          .withNextToken(to < names.size() ? String.valueOf(to) : null);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import inet.ipaddr.IPAddressString;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * The CodeBuild source IP check done for every inbound agent connection.
+ *
+ * Runs against the ip-ranges.json given with
+ * <code>-Dcodebuild.benchmark.ipRanges=/path/to/ip-ranges.json</code>, or
+ * offline against a generated document of the same size and service mix.
+ */
+@JmhBenchmark
+public class JnlpAllowListBenchmark {
+
+  // Roughly what https://ip-ranges.amazonaws.com/ip-ranges.json contains
+  static final int IPV4_PREFIXES = 7500;
+  static final int IPV6_PREFIXES = 2500;
+  static final String[] SERVICES = { "AMAZON", "AMAZON", "AMAZON", "EC2", "EC2", "S3", "CLOUDFRONT",
+      "ROUTE53_HEALTHCHECKS", "CODEBUILD" };
+
+  @State(Scope.Benchmark)
+  public static class AllowListState {
+
+    String body;
+    List<IPAddressString> allowed;
+    IPAddressString allowedIP;
+    IPAddressString rejectedIP;
+
+    @Setup
+    public void setup() throws IOException {
+      String file = System.getProperty("codebuild.benchmark.ipRanges");
+      body = file == null ? generate() : new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+      allowed = CodeBuildJnlpAgentReceiver.parseAllowedIPs(body);
+      // Worst case for the accepted IP, the last range
+      allowedIP = new IPAddressString(allowed.get(allowed.size() - 1).getAddress().getLower().toString());
+      rejectedIP = new IPAddressString("192.168.1.1");
+    }
+
+    private static String generate() {
+      Random random = new Random(42);
+      JSONArray prefixes = new JSONArray();
+      for (int i = 0; i < IPV4_PREFIXES; i++) {
+        JSONObject p = new JSONObject();
+        p.put("ip_prefix", String.format("%d.%d.%d.0/24", 3 + random.nextInt(50), random.nextInt(256),
+            random.nextInt(256)));
+        p.put("region", "us-east-1");
+        p.put("service", SERVICES[random.nextInt(SERVICES.length)]);
+        prefixes.add(p);
+      }
+      JSONArray ipv6 = new JSONArray();
+      for (int i = 0; i < IPV6_PREFIXES; i++) {
+        JSONObject p = new JSONObject();
+        p.put("ipv6_prefix", String.format("2600:%x:%x::/48", random.nextInt(0xffff), random.nextInt(0xffff)));
+        p.put("region", "us-east-1");
+        p.put("service", SERVICES[random.nextInt(SERVICES.length)]);
+        ipv6.add(p);
+      }
+      JSONObject json = new JSONObject();
+      json.put("prefixes", prefixes);
+      json.put("ipv6_prefixes", ipv6);
+      return json.toString();
+    }
+  }
+
+  @Benchmark
+  public void parseAllowList(AllowListState state, Blackhole bh) {
+    bh.consume(CodeBuildJnlpAgentReceiver.parseAllowedIPs(state.body));
+  }
+
+  @Benchmark
+  public void checkAllowedIP(AllowListState state, Blackhole bh) {
+    bh.consume(CodeBuildJnlpAgentReceiver.isAllowed(state.allowed, state.allowedIP));
+  }
+
+  @Benchmark
+  public void checkRejectedIP(AllowListState state, Blackhole bh) {
+    bh.consume(CodeBuildJnlpAgentReceiver.isAllowed(state.allowed, state.rejectedIP));
+  }
+}
@@ -0,0 +1,44 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import hudson.slaves.DumbSlave;
+import hudson.slaves.JNLPLauncher;
+import hudson.slaves.SlaveComputer;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+
+/**
+ * Building the StartBuild environment of an agent, done for every agent
+ * launched.
+ */
+@JmhBenchmark
+public class LauncherBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class LauncherState extends JmhBenchmarkState {
+
+    CodeBuildLauncher launcher;
+    DumbSlave node;
+    SlaveComputer computer;
+
+    @Override
+    public void setup() throws Exception {
+      CodeBuildCloud cloud = TestClouds.cloud("bench").client(new FakeCodeBuild()).build();
+      launcher = new CodeBuildLauncher(cloud);
+
+      // Any inbound agent has a JNLP secret
+      node = new DumbSlave("bench", "/tmp", new JNLPLauncher(true));
+      getJenkins().addNode(node);
+      computer = (SlaveComputer) node.toComputer();
+    }
+  }
+
+  @Benchmark
+  public void buildEnvVariableCollection(LauncherState state, Blackhole bh) {
+    bh.consume(state.launcher.buildEnvVariableCollection(state.computer, state.node));
+  }
+}
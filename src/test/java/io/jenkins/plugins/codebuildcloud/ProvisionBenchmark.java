@@ -0,0 +1,99 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import hudson.model.Label;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerLauncher;
+import hudson.slaves.SlaveComputer;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+
+/**
+ * What every NodeProvisioner tick costs: the capacity checks and a provision
+ * call once the cloud is full, with many agents in Jenkins. Label matching is
+ * measured against a cloud with many agent templates.
+ */
+@JmhBenchmark
+public class ProvisionBenchmark {
+
+  static final int TEMPLATES = 100;
+
+  @State(Scope.Benchmark)
+  public static class CloudState extends JmhBenchmarkState {
+
+    @Param({ "10", "1000", "10000" })
+    public int agents;
+
+    CodeBuildCloud cloud;
+    Label label;
+    Label lastTemplate;
+    Label noTemplate;
+
+    @Override
+    public void setup() throws Exception {
+      FakeCodeBuild fake = new FakeCodeBuild();
+      fake.setConcurrentBuildLimit("project", agents * 2);
+      cloud = TestClouds.cloud("bench").label("bench").maxAgents(agents).client(fake).build();
+      cloud.maintainConcurrentBuildLimits().join();
+
+      List<CodeBuildAgentTemplate> templates = new ArrayList<CodeBuildAgentTemplate>();
+      for (int i = 0; i < TEMPLATES; i++) {
+        templates.add(new CodeBuildAgentTemplate("linux-" + i + " small", null, null, null, null, null, null));
+      }
+      cloud.setTemplates(templates);
+
+      // Full: as many agents in Jenkins as maxAgents
+      CodeBuildAgentTemplate template = cloud.getDefaultTemplate();
+      for (int i = 0; i < agents; i++) {
+        getJenkins().addNode(new CodeBuildAgent("bench." + i, cloud, template, new NeverConnects()));
+      }
+
+      label = Label.get("bench");
+      lastTemplate = Label.parseExpression("linux-" + (TEMPLATES - 1) + " && small");
+      noTemplate = Label.parseExpression("windows && small");
+    }
+  }
+
+  /**
+   * Agents stay starting for the whole benchmark, no build is started and the
+   * retention strategy leaves them alone.
+   */
+  static final class NeverConnects extends ComputerLauncher {
+    @Override
+    public boolean isLaunchSupported() {
+      return true;
+    }
+
+    @Override
+    public void launch(SlaveComputer computer, TaskListener listener) {
+    }
+  }
+
+  @Benchmark
+  public void remainingCapacity(CloudState state, Blackhole bh) {
+    bh.consume(state.cloud.getRemainingCapacity());
+  }
+
+  @Benchmark
+  public void provisionWhenFull(CloudState state, Blackhole bh) {
+    bh.consume(state.cloud.provision(state.label, 1));
+  }
+
+  @Benchmark
+  public void canProvisionLastTemplate(CloudState state, Blackhole bh) {
+    bh.consume(state.cloud.canProvision(state.lastTemplate));
+  }
+
+  @Benchmark
+  public void canProvisionNoTemplate(CloudState state, Blackhole bh) {
+    bh.consume(state.cloud.canProvision(state.noTemplate));
+  }
+}
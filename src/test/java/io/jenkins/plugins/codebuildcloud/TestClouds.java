@@ -0,0 +1,119 @@
+package io.jenkins.plugins.codebuildcloud;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import com.amazonaws.services.codebuild.AWSCodeBuild;
+
+/**
+ * Test fixture: a {@link CodeBuildCloud} with everything a test does not care
+ * about filled in, and a way to wait for what agents do in the background.
+ */
+final class TestClouds {
+
+  private TestClouds() {
+  }
+
+  /**
+   * Cloud of project "project" in us-east-1 with up to 50 agents. Agents give
+   * up on connecting after a second, nothing ever connects to a
+   * {@link FakeCodeBuild}.
+   */
+  static Builder cloud(String name) {
+    return new Builder(name);
+  }
+
+  static final class Builder {
+    private final String name;
+    private String project = "project";
+    private String region = "us-east-1";
+    private String label = "";
+    private int agentConnectTimeout = 1;
+    private String computeType = "BUILD_GENERAL1_SMALL";
+    private String buildSpec = "";
+    private int maxAgents = 50;
+    private String proxyCredentialsId = "";
+    private String jenkinsUrl = "http://localhost:8080/";
+    private AWSCodeBuild client;
+
+    private Builder(String name) {
+      this.name = name;
+    }
+
+    Builder project(String project) {
+      this.project = project;
+      return this;
+    }
+
+    Builder region(String region) {
+      this.region = region;
+      return this;
+    }
+
+    Builder label(String label) {
+      this.label = label;
+      return this;
+    }
+
+    Builder agentConnectTimeout(int seconds) {
+      this.agentConnectTimeout = seconds;
+      return this;
+    }
+
+    Builder computeType(String computeType) {
+      this.computeType = computeType;
+      return this;
+    }
+
+    Builder buildSpec(String buildSpec) {
+      this.buildSpec = buildSpec;
+      return this;
+    }
+
+    Builder maxAgents(int maxAgents) {
+      this.maxAgents = maxAgents;
+      return this;
+    }
+
+    Builder proxyCredentialsId(String proxyCredentialsId) {
+      this.proxyCredentialsId = proxyCredentialsId;
+      return this;
+    }
+
+    Builder jenkinsUrl(String jenkinsUrl) {
+      this.jenkinsUrl = jenkinsUrl;
+      return this;
+    }
+
+    /** Talk to a stand-in for CodeBuild instead of AWS. */
+    Builder client(AWSCodeBuild client) {
+      this.client = client;
+      return this;
+    }
+
+    CodeBuildCloud build() {
+      CodeBuildCloud cloud = new CodeBuildCloud(name, project, "", region, label, agentConnectTimeout, "image",
+          "CODEBUILD", computeType, "LINUX_CONTAINER", buildSpec, false, maxAgents,
+          "", false, false, true, "JNLP4-connect", proxyCredentialsId, "", jenkinsUrl, false);
+      if (client != null) {
+        cloud.setClient(new CodeBuildClientWrapper(client));
+      }
+      return cloud;
+    }
+  }
+
+  /**
+   * Wait up to 10 seconds for the condition. Returns either way, the test's
+   * assertions tell what did not happen.
+   */
+  static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+    awaitUntil(TimeUnit.SECONDS.toMillis(10), condition);
+  }
+
+  static void awaitUntil(long timeoutMillis, BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (!condition.getAsBoolean() && System.nanoTime() - deadline < 0) {
+      Thread.sleep(50);
+    }
+  }
+}